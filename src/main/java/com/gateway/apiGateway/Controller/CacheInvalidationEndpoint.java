@@ -0,0 +1,58 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.Controller;
+
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.lang.Nullable;
+
+import com.gateway.apiGateway.filter.redisCacheFilter.CachePurgeService;
+
+import reactor.core.publisher.Mono;
+
+/*
+ * Invalidazione manuale della cache delle risposte, solo sulla porta di management (MANAGEMENT_PORT):
+ *   DELETE /actuator/cache?prefix=gamerepo_cache:
+ *   DELETE /actuator/cache?path=/games/**[&prefix=gamerepo_cache:]
+ *   DELETE /actuator/cache?tag=game-42
+ */
+@Endpoint(id = "cache")
+public class CacheInvalidationEndpoint {
+
+    private final CachePurgeService purgeService;
+
+    public CacheInvalidationEndpoint(CachePurgeService purgeService) {
+        this.purgeService = purgeService;
+    }
+
+    @DeleteOperation
+    public Mono<Map<String, Object>> invalidate(@Nullable String prefix, @Nullable String path, @Nullable String tag) {
+        Mono<Long> purged;
+        if (tag != null) {
+            purged = purgeService.purgeTag(tag);
+        } else if (path != null) {
+            purged = purgeService.purgePath(prefix, path);
+        } else if (prefix != null) {
+            purged = purgeService.purgePrefix(prefix);
+        } else {
+            return Mono.just(Map.of("error", "specificare prefix, path o tag"));
+        }
+        return purged.map(count -> Map.of("purged", count));
+    }
+}
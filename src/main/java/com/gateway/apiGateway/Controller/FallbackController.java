@@ -17,18 +17,27 @@
 
 package com.gateway.apiGateway.Controller;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
 
 @RestController
 public class FallbackController {
 
+    // Secondi dopo cui riprovare, impostati da chi inoltra la richiesta al fallback (es. il limite di concorrenza)
+    public static final String RETRY_AFTER_ATTR = FallbackController.class.getName() + ".retryAfter";
+
     @RequestMapping("/fallback")
-    public ResponseEntity<String> fallback() {
-        return new ResponseEntity<>("Service is temporarily unavailable. Please try again later.", 
-                                    HttpStatus.SERVICE_UNAVAILABLE);
+    public ResponseEntity<String> fallback(ServerWebExchange exchange) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE);
+        Long retryAfter = exchange.getAttribute(RETRY_AFTER_ATTR);
+        if (retryAfter != null) {
+            response.header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter));
+        }
+        return response.body("Service is temporarily unavailable. Please try again later.");
     }
 
 }
@@ -0,0 +1,51 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.Controller;
+
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+import com.gateway.apiGateway.filter.shadowCacheFilter.ShadowCacheRegistry;
+
+/*
+ * Proiezione della cache sulle route con il filtro ShadowCache:
+ *   GET    /actuator/shadowcache   hit ratio, risposte stale e byte risparmiati per TTL candidato, TTL consigliato
+ *   DELETE /actuator/shadowcache   azzera le simulazioni
+ */
+@Endpoint(id = "shadowcache")
+public class ShadowCacheEndpoint {
+
+    private final ShadowCacheRegistry registry;
+
+    public ShadowCacheEndpoint(ShadowCacheRegistry registry) {
+        this.registry = registry;
+    }
+
+    @ReadOperation
+    public Map<String, Object> projection() {
+        return registry.report();
+    }
+
+    @DeleteOperation
+    public Map<String, Object> reset() {
+        registry.reset();
+        return Map.of("reset", true);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.Factory;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.support.HasRouteId;
+import org.springframework.web.reactive.DispatcherHandler;
+
+import com.gateway.apiGateway.filter.concurrencyFilter.AdaptiveConcurrencyLimiter;
+import com.gateway.apiGateway.filter.concurrencyFilter.ConcurrencyLimitFilter;
+import com.gateway.apiGateway.filter.concurrencyFilter.ConcurrencyLimitRegistry;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+public class AdaptiveConcurrencyGatewayFilterFactory extends AbstractGatewayFilterFactory<AdaptiveConcurrencyGatewayFilterFactory.Config> {
+
+    private final ConcurrencyLimitRegistry registry;
+    private final ObjectProvider<DispatcherHandler> dispatcherHandler;
+    private final MeterRegistry meterRegistry;
+
+    public AdaptiveConcurrencyGatewayFilterFactory(ConcurrencyLimitRegistry registry,
+            ObjectProvider<DispatcherHandler> dispatcherHandler, MeterRegistry meterRegistry) {
+        super(Config.class);
+        this.registry = registry;
+        this.dispatcherHandler = dispatcherHandler;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+        String routeId = config.getRouteId() != null ? config.getRouteId() : "default";
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(routeId, config.getInitialLimit(),
+                config.getMinLimit(), config.getMaxLimit(), config.getSmoothing(), config.getTolerance(),
+                config.getBaselineWindows(), config.getWindowMillis(), config.getMinWindowSamples(),
+                config.getMaxRetryAfter(), meterRegistry);
+        registry.register(limiter);
+        return new ConcurrencyLimitFilter(limiter, dispatcherHandler, config.getFallbackPath());
+    }
+
+    public static class Config implements HasRouteId {
+        /*
+         * Valori di default 
+         */
+        private String routeId; // impostato dal gateway, usato come tag delle metriche
+        private Integer initialLimit = 20;      // richieste concorrenti ammesse all'avvio
+        private Integer minLimit = 1;
+        private Integer maxLimit = 200;         // resta sotto il pool di connessioni verso i backend
+        private Double smoothing = 0.2;         // frazione del nuovo limite stimato applicata a ogni finestra
+        private Double tolerance = 1.5;         // latenza ammessa rispetto alla linea di base prima di ridurre il limite
+        private Integer baselineWindows = 300;  // finestre in cui un rallentamento prolungato diventa la nuova linea di base
+        private Long windowMillis = 1000L;      // durata minima di una finestra di misura
+        private Integer minWindowSamples = 10;  // risposte minime per chiudere una finestra
+        private Long maxRetryAfter = 30L;       // Retry-After massimo in secondi, altrimenti circa la latenza recente
+        private String fallbackPath = "/fallback"; // dove vengono inoltrate le richieste scartate
+
+        public Integer getInitialLimit() {
+            return initialLimit;
+        }
+
+        public void setInitialLimit(Integer initialLimit) {
+            this.initialLimit = initialLimit;
+        }
+
+        public Integer getMinLimit() {
+            return minLimit;
+        }
+
+        public void setMinLimit(Integer minLimit) {
+            this.minLimit = minLimit;
+        }
+
+        public Integer getMaxLimit() {
+            return maxLimit;
+        }
+
+        public void setMaxLimit(Integer maxLimit) {
+            this.maxLimit = maxLimit;
+        }
+
+        public Double getSmoothing() {
+            return smoothing;
+        }
+
+        public void setSmoothing(Double smoothing) {
+            this.smoothing = smoothing;
+        }
+
+        public Double getTolerance() {
+            return tolerance;
+        }
+
+        public void setTolerance(Double tolerance) {
+            this.tolerance = tolerance;
+        }
+
+        public Integer getBaselineWindows() {
+            return baselineWindows;
+        }
+
+        public void setBaselineWindows(Integer baselineWindows) {
+            this.baselineWindows = baselineWindows;
+        }
+
+        public Long getWindowMillis() {
+            return windowMillis;
+        }
+
+        public void setWindowMillis(Long windowMillis) {
+            this.windowMillis = windowMillis;
+        }
+
+        public Integer getMinWindowSamples() {
+            return minWindowSamples;
+        }
+
+        public void setMinWindowSamples(Integer minWindowSamples) {
+            this.minWindowSamples = minWindowSamples;
+        }
+
+        public Long getMaxRetryAfter() {
+            return maxRetryAfter;
+        }
+
+        public void setMaxRetryAfter(Long maxRetryAfter) {
+            this.maxRetryAfter = maxRetryAfter;
+        }
+
+        public String getFallbackPath() {
+            return fallbackPath;
+        }
+
+        public void setFallbackPath(String fallbackPath) {
+            this.fallbackPath = fallbackPath;
+        }
+
+        @Override
+        public String getRouteId() {
+            return routeId;
+        }
+
+        @Override
+        public void setRouteId(String routeId) {
+            this.routeId = routeId;
+        }
+    }
+}
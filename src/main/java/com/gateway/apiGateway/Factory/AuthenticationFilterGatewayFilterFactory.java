@@ -23,6 +23,8 @@ import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.web.reactive.function.client.WebClient;
 
 import com.gateway.apiGateway.filter.authenticationFilter.AuthenticationFilter;
+import com.gateway.apiGateway.redis.RedisCommandBatcher;
+import com.gateway.apiGateway.redis.RedisGuard;
 
 /*
  * Spring cerca automaticamente un filtro con il nome "AuthenticationFilter", 
@@ -31,18 +33,24 @@ import com.gateway.apiGateway.filter.authenticationFilter.AuthenticationFilter;
 public class AuthenticationFilterGatewayFilterFactory extends AbstractGatewayFilterFactory<AuthenticationFilterGatewayFilterFactory.Config>{
 
     private final ReactiveStringRedisTemplate redisTemplate;
+    private final RedisCommandBatcher commandBatcher;
+    private final RedisGuard redisGuard;
     private final WebClient.Builder webClientBuilder;
 
     public AuthenticationFilterGatewayFilterFactory(ReactiveStringRedisTemplate redisTemplate, 
+                                             RedisCommandBatcher commandBatcher,
+                                             RedisGuard redisGuard,
                                              WebClient.Builder webClientBuilder) {
         super(Config.class);
         this.redisTemplate = redisTemplate;
+        this.commandBatcher = commandBatcher;
+        this.redisGuard = redisGuard;
         this.webClientBuilder = webClientBuilder;
     }
 
     @Override
     public GatewayFilter apply(Config config) {
-        return new AuthenticationFilter(redisTemplate, config, webClientBuilder);
+        return new AuthenticationFilter(redisTemplate, commandBatcher, redisGuard, config, webClientBuilder);
     }
 
     public static class Config {
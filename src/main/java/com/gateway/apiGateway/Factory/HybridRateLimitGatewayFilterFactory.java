@@ -0,0 +1,128 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.Factory;
+
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.filter.ratelimit.KeyResolver;
+import org.springframework.cloud.gateway.support.HasRouteId;
+
+import com.gateway.apiGateway.filter.rateLimitFilter.HybridRateLimiter;
+import com.gateway.apiGateway.filter.rateLimitFilter.RateLimitFilter;
+import com.gateway.apiGateway.filter.rateLimitFilter.RateLimitSyncService;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+public class HybridRateLimitGatewayFilterFactory extends AbstractGatewayFilterFactory<HybridRateLimitGatewayFilterFactory.Config> {
+
+    private final KeyResolver keyResolver;
+    private final RateLimitSyncService syncService;
+    private final MeterRegistry meterRegistry;
+
+    public HybridRateLimitGatewayFilterFactory(KeyResolver keyResolver, RateLimitSyncService syncService,
+            MeterRegistry meterRegistry) {
+        super(Config.class);
+        this.keyResolver = keyResolver;
+        this.syncService = syncService;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+        String routeId = config.getRouteId() != null ? config.getRouteId() : "default";
+        if (!config.isEnabled()) {
+            syncService.unregister(routeId);
+            return (exchange, chain) -> chain.filter(exchange);
+        }
+        HybridRateLimiter limiter = new HybridRateLimiter(routeId, config.getReplenishRate(),
+                config.getBurstCapacity(), config.getRequestedTokens(), config.getMaxKeys(),
+                config.isGlobalSync(), meterRegistry);
+        syncService.register(limiter);
+        return new RateLimitFilter(limiter, keyResolver);
+    }
+
+    public static class Config implements HasRouteId {
+        /*
+         * Valori di default 
+         */
+        private String routeId; // impostato dal gateway, usato come tag delle metriche e nelle chiavi Redis
+        private boolean enabled = true;       // false = richieste inoltrate senza limite
+        private Double replenishRate = 10.0;  // token riforniti al secondo, per chiave
+        private Long burstCapacity = 20L;     // token del bucket pieno
+        private Long requestedTokens = 1L;    // token consumati da ogni richiesta
+        private Long maxKeys = 100000L;       // chiavi seguite in memoria
+        private boolean globalSync = true;    // consumi riconciliati su Redis tra le repliche, false = limite per replica
+
+        public Double getReplenishRate() {
+            return replenishRate;
+        }
+
+        public void setReplenishRate(Double replenishRate) {
+            this.replenishRate = replenishRate;
+        }
+
+        public Long getBurstCapacity() {
+            return burstCapacity;
+        }
+
+        public void setBurstCapacity(Long burstCapacity) {
+            this.burstCapacity = burstCapacity;
+        }
+
+        public Long getRequestedTokens() {
+            return requestedTokens;
+        }
+
+        public void setRequestedTokens(Long requestedTokens) {
+            this.requestedTokens = requestedTokens;
+        }
+
+        public Long getMaxKeys() {
+            return maxKeys;
+        }
+
+        public void setMaxKeys(Long maxKeys) {
+            this.maxKeys = maxKeys;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public boolean isGlobalSync() {
+            return globalSync;
+        }
+
+        public void setGlobalSync(boolean globalSync) {
+            this.globalSync = globalSync;
+        }
+
+        @Override
+        public String getRouteId() {
+            return routeId;
+        }
+
+        @Override
+        public void setRouteId(String routeId) {
+            this.routeId = routeId;
+        }
+    }
+}
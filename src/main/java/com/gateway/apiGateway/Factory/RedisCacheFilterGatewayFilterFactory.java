@@ -16,37 +16,113 @@
  */
 package com.gateway.apiGateway.Factory;
 
+import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.springframework.cloud.gateway.filter.GatewayFilter;
 import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.support.HasRouteId;
 import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 
+import com.gateway.apiGateway.filter.redisCacheFilter.CacheIndex;
+import com.gateway.apiGateway.filter.redisCacheFilter.CacheInvalidationBus;
+import com.gateway.apiGateway.filter.redisCacheFilter.CacheKeyPolicy;
+import com.gateway.apiGateway.filter.redisCacheFilter.CacheSnapshotService;
+import com.gateway.apiGateway.filter.redisCacheFilter.KeyCollapseRegistry;
 import com.gateway.apiGateway.filter.redisCacheFilter.RedisCacheFilter;
+import com.gateway.apiGateway.hotkeys.HotKeyRegistry;
+import com.gateway.apiGateway.redis.CacheShardRouter;
+import com.gateway.apiGateway.redis.RedisGuard;
+
+import io.micrometer.core.instrument.MeterRegistry;
 
 public class RedisCacheFilterGatewayFilterFactory extends AbstractGatewayFilterFactory<RedisCacheFilterGatewayFilterFactory.Config> {
 
     private final ReactiveStringRedisTemplate redisTemplate;
+    private final CacheShardRouter cacheShards;
+    private final CacheInvalidationBus invalidationBus;
+    private final CacheIndex cacheIndex;
+    private final RedisGuard redisGuard;
+    private final HotKeyRegistry hotKeys;
+    private final CacheSnapshotService snapshotService;
+    private final KeyCollapseRegistry keyCollapseRegistry;
+    private final MeterRegistry meterRegistry;
 
-    public RedisCacheFilterGatewayFilterFactory(ReactiveStringRedisTemplate redisTemplate) {
+    public RedisCacheFilterGatewayFilterFactory(ReactiveStringRedisTemplate redisTemplate,
+                                                CacheShardRouter cacheShards,
+                                                CacheInvalidationBus invalidationBus,
+                                                CacheIndex cacheIndex,
+                                                RedisGuard redisGuard,
+                                                HotKeyRegistry hotKeys,
+                                                CacheSnapshotService snapshotService,
+                                                KeyCollapseRegistry keyCollapseRegistry,
+                                                MeterRegistry meterRegistry) {
         super(Config.class);
         this.redisTemplate = redisTemplate;
+        this.cacheShards = cacheShards;
+        this.invalidationBus = invalidationBus;
+        this.cacheIndex = cacheIndex;
+        this.redisGuard = redisGuard;
+        this.hotKeys = hotKeys;
+        this.snapshotService = snapshotService;
+        this.keyCollapseRegistry = keyCollapseRegistry;
+        this.meterRegistry = meterRegistry;
     }
 
     @Override
     public GatewayFilter apply(Config config) {
-        return new RedisCacheFilter(redisTemplate, config);
+        return new RedisCacheFilter(redisTemplate, cacheShards, config,
+                invalidationBus, cacheIndex, redisGuard, hotKeys, snapshotService, keyCollapseRegistry, meterRegistry);
     }
 
-    public static class Config {
+    public static class Config implements HasRouteId {
         /*
          * Valori di default 
          */
+        private String routeId; // impostato dal gateway, usato come tag delle metriche
         private Long ttl = 10L;
         private String cachePrefix = "DataCache:";
         private Set<String> methods = Set.of("GET"); // solo GET
+        private boolean l1Enabled = false;                // tier L1 in-heap davanti a Redis
+        private Long l1MaxBytes = 16L * 1024 * 1024;      // dimensione massima del tier L1
+        private Long l1Ttl = 0L;                          // TTL massimo in L1, 0 = residuo su Redis
+        private boolean coalescingEnabled = true;         // single-flight dei miss concorrenti
+        private Long coalescingMaxWaitMs = 2000L;         // attesa massima prima di andare al backend
+        private boolean coalescingDistributed = false;    // leader unico tra le repliche tramite lock Redis
+        private Long coalescingLockTtlMs = 5000L;         // durata del lock Redis
+        private Long maxCacheableBytes = 2L * 1024 * 1024; // oltre questa dimensione la risposta passa senza cache
+        private Long staleWhileRevalidate = 0L;           // secondi oltre il ttl in cui si serve la copia stale
+        private Double earlyRefreshBeta = 0.0;            // refresh probabilistico anticipato, 0 = disabilitato
+        private Long compressionThreshold = 1024L;        // body più grandi salvati con gzip, 0 = disabilitata
+        private boolean honorCacheControl = true;         // TTL da Cache-Control/Expires dell'upstream, ttl se assenti
+        private Long minTtl = 1L;                         // limite inferiore del TTL derivato dall'upstream
+        private Long maxTtl = 86400L;                     // limite superiore del TTL derivato dall'upstream
+        private Long maxHashableBodyBytes = 1024L * 1024; // body più grandi (o chunked) passano senza cache
+        private String tagHeader = "Cache-Tag";           // header dell'upstream con i tag per l'invalidazione
+        private Set<Integer> negativeStatuses = Set.of(); // status da mettere in cache negativa (es. 404, 410, 204), vuoto = disabilitata
+        private Long negativeTtl = 5L;                    // TTL delle entry negative
+        private Long negativeMaxEntries = 10000L;         // massimo di entry negative per route
+        private Integer admissionThreshold = 0;           // TinyLFU: miss nella finestra prima di salvare la chiave, 0 = ammette tutto
+        private Integer admissionWindow = 100000;         // miss osservati dopo cui i contatori vengono dimezzati
+        private boolean adaptiveTtl = false;              // TTL per chiave appreso dai cambi di contenuto, entro minTtl/maxTtl
+        private Double adaptiveTtlIncrease = 2.0;         // fattore del TTL quando il contenuto non cambia
+        private Double adaptiveTtlDecrease = 0.5;         // fattore del TTL quando il contenuto cambia
+        private Long adaptiveTtlMaxKeys = 100000L;        // chiavi di cui ricordare digest e TTL
+        private Long chunkThreshold = 0L;                 // body con Content-Length oltre questa soglia salvati a segmenti, 0 = disabilitato
+        private Integer chunkSize = 256 * 1024;           // dimensione dei segmenti
+        private Long maxChunkedBytes = 256L * 1024 * 1024; // oltre questa dimensione la risposta passa senza cache
+        private Integer maxPendingChunks = 8;             // segmenti in attesa di Redis oltre i quali la scrittura viene abbandonata
+        private Set<String> keyIncludeParams = Set.of();  // parametri della query nella chiave (nome o prefisso*), vuoto = tutti
+        private Set<String> keyExcludeParams = Set.of();  // parametri ignorati nella chiave, es. "utm_*, fbclid, _"
+        private boolean keyNormalizePath = false;         // slash doppi e finali rimossi dal path della chiave
+        private boolean keyLowercasePath = false;         // path della chiave in minuscolo
+        private boolean keySortValues = false;            // valori ripetuti di un parametro ordinati
+        private List<String> keyHeaders = List.of();      // header della richiesta che differenziano la chiave, es. X-Authenticated-UserId
+        private CacheKeyPolicy.Format keyFormat = CacheKeyPolicy.Format.PLAIN; // plain | hashed: query e header ridotti a 22 caratteri
+        private boolean keyPolicyDryRun = false;          // chiave invariata, la policy viene solo misurata su /actuator/cachekeys
+        private Long keyReportMaxKeys = 100000L;          // chiavi della policy seguite dal dry-run
 
         public Long getTtl() {
             return ttl;
@@ -75,6 +151,342 @@ public class RedisCacheFilterGatewayFilterFactory extends AbstractGatewayFilterF
                     .collect(Collectors.toSet());
         }
 
+        public boolean isL1Enabled() {
+            return l1Enabled;
+        }
+
+        public void setL1Enabled(boolean l1Enabled) {
+            this.l1Enabled = l1Enabled;
+        }
+
+        public Long getL1MaxBytes() {
+            return l1MaxBytes;
+        }
+
+        public void setL1MaxBytes(Long l1MaxBytes) {
+            this.l1MaxBytes = l1MaxBytes;
+        }
+
+        public Long getL1Ttl() {
+            return l1Ttl;
+        }
+
+        public void setL1Ttl(Long l1Ttl) {
+            this.l1Ttl = l1Ttl;
+        }
+
+        public boolean isCoalescingEnabled() {
+            return coalescingEnabled;
+        }
+
+        public void setCoalescingEnabled(boolean coalescingEnabled) {
+            this.coalescingEnabled = coalescingEnabled;
+        }
+
+        public Long getCoalescingMaxWaitMs() {
+            return coalescingMaxWaitMs;
+        }
+
+        public void setCoalescingMaxWaitMs(Long coalescingMaxWaitMs) {
+            this.coalescingMaxWaitMs = coalescingMaxWaitMs;
+        }
+
+        public boolean isCoalescingDistributed() {
+            return coalescingDistributed;
+        }
+
+        public void setCoalescingDistributed(boolean coalescingDistributed) {
+            this.coalescingDistributed = coalescingDistributed;
+        }
+
+        public Long getCoalescingLockTtlMs() {
+            return coalescingLockTtlMs;
+        }
+
+        public void setCoalescingLockTtlMs(Long coalescingLockTtlMs) {
+            this.coalescingLockTtlMs = coalescingLockTtlMs;
+        }
+
+        public Long getMaxCacheableBytes() {
+            return maxCacheableBytes;
+        }
+
+        public void setMaxCacheableBytes(Long maxCacheableBytes) {
+            this.maxCacheableBytes = maxCacheableBytes;
+        }
+
+        public Long getStaleWhileRevalidate() {
+            return staleWhileRevalidate;
+        }
+
+        public void setStaleWhileRevalidate(Long staleWhileRevalidate) {
+            this.staleWhileRevalidate = staleWhileRevalidate;
+        }
+
+        public Double getEarlyRefreshBeta() {
+            return earlyRefreshBeta;
+        }
+
+        public void setEarlyRefreshBeta(Double earlyRefreshBeta) {
+            this.earlyRefreshBeta = earlyRefreshBeta;
+        }
+
+        public Long getCompressionThreshold() {
+            return compressionThreshold;
+        }
+
+        public void setCompressionThreshold(Long compressionThreshold) {
+            this.compressionThreshold = compressionThreshold;
+        }
+
+        public boolean isHonorCacheControl() {
+            return honorCacheControl;
+        }
+
+        public void setHonorCacheControl(boolean honorCacheControl) {
+            this.honorCacheControl = honorCacheControl;
+        }
+
+        public Long getMinTtl() {
+            return minTtl;
+        }
+
+        public void setMinTtl(Long minTtl) {
+            this.minTtl = minTtl;
+        }
+
+        public Long getMaxTtl() {
+            return maxTtl;
+        }
+
+        public void setMaxTtl(Long maxTtl) {
+            this.maxTtl = maxTtl;
+        }
+
+        public Long getMaxHashableBodyBytes() {
+            return maxHashableBodyBytes;
+        }
+
+        public void setMaxHashableBodyBytes(Long maxHashableBodyBytes) {
+            this.maxHashableBodyBytes = maxHashableBodyBytes;
+        }
+
+        public String getTagHeader() {
+            return tagHeader;
+        }
+
+        public void setTagHeader(String tagHeader) {
+            this.tagHeader = tagHeader;
+        }
+
+        public Set<Integer> getNegativeStatuses() {
+            return negativeStatuses;
+        }
+
+        public void setNegativeStatuses(String negativeStatuses) {
+            this.negativeStatuses = Stream.of(negativeStatuses.split(","))
+                    .map(String::trim)
+                    .filter(status -> !status.isEmpty())
+                    .map(Integer::valueOf)
+                    .collect(Collectors.toSet());
+        }
+
+        public Long getNegativeTtl() {
+            return negativeTtl;
+        }
+
+        public void setNegativeTtl(Long negativeTtl) {
+            this.negativeTtl = negativeTtl;
+        }
+
+        public Long getNegativeMaxEntries() {
+            return negativeMaxEntries;
+        }
+
+        public void setNegativeMaxEntries(Long negativeMaxEntries) {
+            this.negativeMaxEntries = negativeMaxEntries;
+        }
+
+        public Integer getAdmissionThreshold() {
+            return admissionThreshold;
+        }
+
+        public void setAdmissionThreshold(Integer admissionThreshold) {
+            this.admissionThreshold = admissionThreshold;
+        }
+
+        public Integer getAdmissionWindow() {
+            return admissionWindow;
+        }
+
+        public void setAdmissionWindow(Integer admissionWindow) {
+            this.admissionWindow = admissionWindow;
+        }
+
+        public boolean isAdaptiveTtl() {
+            return adaptiveTtl;
+        }
+
+        public void setAdaptiveTtl(boolean adaptiveTtl) {
+            this.adaptiveTtl = adaptiveTtl;
+        }
+
+        public Double getAdaptiveTtlIncrease() {
+            return adaptiveTtlIncrease;
+        }
+
+        public void setAdaptiveTtlIncrease(Double adaptiveTtlIncrease) {
+            this.adaptiveTtlIncrease = adaptiveTtlIncrease;
+        }
+
+        public Double getAdaptiveTtlDecrease() {
+            return adaptiveTtlDecrease;
+        }
+
+        public void setAdaptiveTtlDecrease(Double adaptiveTtlDecrease) {
+            this.adaptiveTtlDecrease = adaptiveTtlDecrease;
+        }
+
+        public Long getAdaptiveTtlMaxKeys() {
+            return adaptiveTtlMaxKeys;
+        }
+
+        public void setAdaptiveTtlMaxKeys(Long adaptiveTtlMaxKeys) {
+            this.adaptiveTtlMaxKeys = adaptiveTtlMaxKeys;
+        }
+
+        public Long getChunkThreshold() {
+            return chunkThreshold;
+        }
+
+        public void setChunkThreshold(Long chunkThreshold) {
+            this.chunkThreshold = chunkThreshold;
+        }
+
+        public Integer getChunkSize() {
+            return chunkSize;
+        }
+
+        public void setChunkSize(Integer chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        public Long getMaxChunkedBytes() {
+            return maxChunkedBytes;
+        }
+
+        public void setMaxChunkedBytes(Long maxChunkedBytes) {
+            this.maxChunkedBytes = Math.min(maxChunkedBytes, Integer.MAX_VALUE);
+        }
+
+        public Integer getMaxPendingChunks() {
+            return maxPendingChunks;
+        }
+
+        public void setMaxPendingChunks(Integer maxPendingChunks) {
+            this.maxPendingChunks = maxPendingChunks;
+        }
+
+        public Set<String> getKeyIncludeParams() {
+            return keyIncludeParams;
+        }
+
+        public void setKeyIncludeParams(String keyIncludeParams) {
+            this.keyIncludeParams = splitList(keyIncludeParams).collect(Collectors.toSet());
+        }
+
+        public Set<String> getKeyExcludeParams() {
+            return keyExcludeParams;
+        }
+
+        public void setKeyExcludeParams(String keyExcludeParams) {
+            this.keyExcludeParams = splitList(keyExcludeParams).collect(Collectors.toSet());
+        }
+
+        public boolean isKeyNormalizePath() {
+            return keyNormalizePath;
+        }
+
+        public void setKeyNormalizePath(boolean keyNormalizePath) {
+            this.keyNormalizePath = keyNormalizePath;
+        }
+
+        public boolean isKeyLowercasePath() {
+            return keyLowercasePath;
+        }
+
+        public void setKeyLowercasePath(boolean keyLowercasePath) {
+            this.keyLowercasePath = keyLowercasePath;
+        }
+
+        public boolean isKeySortValues() {
+            return keySortValues;
+        }
+
+        public void setKeySortValues(boolean keySortValues) {
+            this.keySortValues = keySortValues;
+        }
+
+        public List<String> getKeyHeaders() {
+            return keyHeaders;
+        }
+
+        public void setKeyHeaders(String keyHeaders) {
+            this.keyHeaders = splitList(keyHeaders).distinct().toList();
+        }
+
+        public CacheKeyPolicy.Format getKeyFormat() {
+            return keyFormat;
+        }
+
+        public void setKeyFormat(String keyFormat) {
+            this.keyFormat = CacheKeyPolicy.Format.valueOf(keyFormat.trim().toUpperCase());
+        }
+
+        public boolean isKeyPolicyDryRun() {
+            return keyPolicyDryRun;
+        }
+
+        public void setKeyPolicyDryRun(boolean keyPolicyDryRun) {
+            this.keyPolicyDryRun = keyPolicyDryRun;
+        }
+
+        public Long getKeyReportMaxKeys() {
+            return keyReportMaxKeys;
+        }
+
+        public void setKeyReportMaxKeys(Long keyReportMaxKeys) {
+            this.keyReportMaxKeys = keyReportMaxKeys;
+        }
+
+        /**
+         * @return la policy con cui la route costruisce le chiavi
+         */
+        public CacheKeyPolicy keyPolicy() {
+            return new CacheKeyPolicy(keyIncludeParams, keyExcludeParams, keyNormalizePath, keyLowercasePath,
+                    keySortValues, keyHeaders, keyFormat);
+        }
+
+        private static Stream<String> splitList(String value) {
+            return Stream.of(value.split(","))
+                    .map(String::trim)
+                    .filter(item -> !item.isEmpty());
+        }
+
+        public boolean isNegative(int status) {
+            return negativeStatuses.contains(status);
+        }
+
+        @Override
+        public String getRouteId() {
+            return routeId;
+        }
+
+        @Override
+        public void setRouteId(String routeId) {
+            this.routeId = routeId;
+        }
+
         public boolean isCacheable(String method) {
             return methods.contains(method.toUpperCase());
         }
@@ -0,0 +1,129 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.Factory;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.support.HasRouteId;
+
+import com.gateway.apiGateway.filter.shadowCacheFilter.ShadowCacheFilter;
+import com.gateway.apiGateway.filter.shadowCacheFilter.ShadowCacheRegistry;
+import com.gateway.apiGateway.filter.shadowCacheFilter.ShadowCacheSimulator;
+
+public class ShadowCacheGatewayFilterFactory extends AbstractGatewayFilterFactory<ShadowCacheGatewayFilterFactory.Config> {
+
+    private final ShadowCacheRegistry registry;
+
+    public ShadowCacheGatewayFilterFactory(ShadowCacheRegistry registry) {
+        super(Config.class);
+        this.registry = registry;
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+        ShadowCacheSimulator simulator = new ShadowCacheSimulator(config.getMaxEntries(),
+                config.getTtlCandidates(), config.getMaxStaleRatio());
+        registry.register(config.getRouteId() != null ? config.getRouteId() : config.getCachePrefix(), simulator);
+        return new ShadowCacheFilter(config, simulator);
+    }
+
+    public static class Config implements HasRouteId {
+        /*
+         * Valori di default 
+         */
+        private String routeId; // impostato dal gateway, chiave del report
+        private String cachePrefix = "DataCache:";           // prefisso delle chiavi, come in RedisCacheFilter
+        private Set<String> methods = Set.of("GET");         // metodi che la cache considererebbe
+        private Long maxEntries = 100000L;                   // capacità della cache simulata
+        private long[] ttlCandidates = { 5, 10, 30, 60, 300, 900, 3600 }; // TTL simulati in parallelo (secondi)
+        private Double maxStaleRatio = 0.01;                 // quota di risposte stale tollerata per il TTL consigliato
+        private Long maxHashableBodyBytes = 1024L * 1024;    // body più grandi (o chunked) contati come bypass
+
+        public String getCachePrefix() {
+            return cachePrefix;
+        }
+
+        public void setCachePrefix(String cachePrefix) {
+            this.cachePrefix = cachePrefix;
+        }
+
+        public Set<String> getMethods() {
+            return methods;
+        }
+
+        public void setMethods(String methods) {
+            this.methods = Stream.of(methods.split(","))
+                    .map(String::trim)
+                    .map(String::toUpperCase)
+                    .collect(Collectors.toSet());
+        }
+
+        public Long getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(Long maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public long[] getTtlCandidates() {
+            return ttlCandidates;
+        }
+
+        public void setTtlCandidates(String ttlCandidates) {
+            this.ttlCandidates = Stream.of(ttlCandidates.split(","))
+                    .map(String::trim)
+                    .filter(ttl -> !ttl.isEmpty())
+                    .mapToLong(Long::parseLong)
+                    .toArray();
+        }
+
+        public Double getMaxStaleRatio() {
+            return maxStaleRatio;
+        }
+
+        public void setMaxStaleRatio(Double maxStaleRatio) {
+            this.maxStaleRatio = maxStaleRatio;
+        }
+
+        public Long getMaxHashableBodyBytes() {
+            return maxHashableBodyBytes;
+        }
+
+        public void setMaxHashableBodyBytes(Long maxHashableBodyBytes) {
+            this.maxHashableBodyBytes = maxHashableBodyBytes;
+        }
+
+        @Override
+        public String getRouteId() {
+            return routeId;
+        }
+
+        @Override
+        public void setRouteId(String routeId) {
+            this.routeId = routeId;
+        }
+
+        public boolean isCacheable(String method) {
+            return methods.contains(method.toUpperCase());
+        }
+    }
+}
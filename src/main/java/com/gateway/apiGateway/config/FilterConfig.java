@@ -16,17 +16,49 @@
  */
 package com.gateway.apiGateway.config;
 
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
 import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.web.reactive.DispatcherHandler;
 import org.springframework.web.reactive.function.client.WebClient;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gateway.apiGateway.Controller.CacheInvalidationEndpoint;
+import com.gateway.apiGateway.Controller.CacheKeyReportEndpoint;
+import com.gateway.apiGateway.Controller.HotKeysEndpoint;
+import com.gateway.apiGateway.Controller.ShadowCacheEndpoint;
+import com.gateway.apiGateway.Factory.AdaptiveConcurrencyGatewayFilterFactory;
 import com.gateway.apiGateway.Factory.AuthenticationFilterGatewayFilterFactory;
+import com.gateway.apiGateway.Factory.HybridRateLimitGatewayFilterFactory;
 import com.gateway.apiGateway.Factory.RedisCacheFilterGatewayFilterFactory;
+import com.gateway.apiGateway.Factory.ShadowCacheGatewayFilterFactory;
 import com.gateway.apiGateway.filter.AggregationGatewayFilterFactory;
 import com.gateway.apiGateway.filter.LoggingFilter;
+import com.gateway.apiGateway.filter.concurrencyFilter.ConcurrencyLimitRegistry;
+import com.gateway.apiGateway.filter.ipFilter.IpAccessList;
+import com.gateway.apiGateway.filter.ipFilter.IpFilter;
+import com.gateway.apiGateway.filter.rateLimitFilter.RateLimitSyncService;
+import com.gateway.apiGateway.filter.redisCacheFilter.CacheIndex;
+import com.gateway.apiGateway.filter.redisCacheFilter.CacheInvalidationBus;
+import com.gateway.apiGateway.filter.redisCacheFilter.CachePurgeService;
+import com.gateway.apiGateway.filter.redisCacheFilter.CachePurgeStreamListener;
+import com.gateway.apiGateway.filter.redisCacheFilter.CacheSnapshotService;
+import com.gateway.apiGateway.filter.redisCacheFilter.KeyCollapseRegistry;
+import com.gateway.apiGateway.filter.shadowCacheFilter.ShadowCacheRegistry;
+import com.gateway.apiGateway.hotkeys.HotKeyRegistry;
+import com.gateway.apiGateway.redis.CacheShardRouter;
+import com.gateway.apiGateway.redis.RedisCommandBatcher;
+import com.gateway.apiGateway.redis.RedisGuard;
+import com.gateway.apiGateway.utils.ClientIpResolver;
+import com.gateway.apiGateway.utils.IpKeyResolver;
+
+import io.micrometer.core.instrument.MeterRegistry;
 
 @Configuration
 public class FilterConfig {
@@ -46,13 +78,62 @@ public class FilterConfig {
     }
 
     @Bean
-    public LoggingFilter loggingFilter() {
-        return new LoggingFilter();
+    public LoggingFilter loggingFilter(HotKeyRegistry hotKeyRegistry, ClientIpResolver clientIpResolver) {
+        return new LoggingFilter(hotKeyRegistry, clientIpResolver);
+    }
+
+    /*
+     * IP del client: proxy fidati (CIDR separati da virgola) ed elementi di X-Forwarded-For considerati al più
+     */
+    @Bean
+    public ClientIpResolver clientIpResolver() {
+        String trustedProxies = System.getenv().getOrDefault("TRUSTED_PROXIES", "127.0.0.0/8, ::1");
+        int maxHops = Integer.parseInt(System.getenv().getOrDefault("TRUSTED_PROXY_MAX_HOPS", "5"));
+        return new ClientIpResolver(trustedProxies, maxHops);
+    }
+
+    /*
+     * Liste CIDR consentite e bloccate: file (vuoto = lista assente), intervallo di controllo delle modifiche
+     * e azione per gli indirizzi fuori da entrambe le liste (allow o deny)
+     */
+    @Bean
+    public IpAccessList ipAccessList(MeterRegistry meterRegistry) {
+        String allowFile = System.getenv().getOrDefault("IP_ALLOW_FILE", "");
+        String denyFile = System.getenv().getOrDefault("IP_DENY_FILE", "");
+        long reloadSeconds = Long.parseLong(System.getenv().getOrDefault("IP_LIST_RELOAD_SECONDS", "10"));
+        boolean defaultAllow = !"deny".equalsIgnoreCase(System.getenv().getOrDefault("IP_FILTER_DEFAULT", "allow"));
+        return new IpAccessList(allowFile.isBlank() ? null : Path.of(allowFile), denyFile.isBlank() ? null : Path.of(denyFile),
+                Duration.ofSeconds(reloadSeconds), defaultAllow, meterRegistry);
     }
 
     @Bean
-    public AuthenticationFilterGatewayFilterFactory authenticationFilterGatewayFilter(){
-        return new AuthenticationFilterGatewayFilterFactory(redisTemplate, webClientBuilder);
+    public IpFilter ipFilter(ClientIpResolver clientIpResolver, IpAccessList ipAccessList, MeterRegistry meterRegistry) {
+        return new IpFilter(clientIpResolver, ipAccessList, meterRegistry);
+    }
+
+    /*
+     * Top-K di chiavi della cache, path e IP: contatori per tracker, slot dei buffer di registrazione,
+     * chiavi riportate e durata della finestra
+     */
+    @Bean
+    public HotKeyRegistry hotKeyRegistry() {
+        int capacity = Integer.parseInt(System.getenv().getOrDefault("HOTKEYS_CAPACITY", "1024"));
+        int bufferSize = Integer.parseInt(System.getenv().getOrDefault("HOTKEYS_BUFFER_SIZE", "4096"));
+        int reportSize = Integer.parseInt(System.getenv().getOrDefault("HOTKEYS_REPORT_SIZE", "50"));
+        long windowSeconds = Long.parseLong(System.getenv().getOrDefault("HOTKEYS_WINDOW_SECONDS", "300"));
+        return new HotKeyRegistry(capacity, bufferSize, reportSize, Duration.ofSeconds(windowSeconds),
+                Duration.ofMillis(100));
+    }
+
+    @Bean
+    public HotKeysEndpoint hotKeysEndpoint(HotKeyRegistry hotKeyRegistry) {
+        return new HotKeysEndpoint(hotKeyRegistry);
+    }
+
+    @Bean
+    public AuthenticationFilterGatewayFilterFactory authenticationFilterGatewayFilter(RedisCommandBatcher redisCommandBatcher,
+            RedisGuard redisGuard){
+        return new AuthenticationFilterGatewayFilterFactory(redisTemplate, redisCommandBatcher, redisGuard, webClientBuilder);
     }
 
     @Bean
@@ -61,8 +142,98 @@ public class FilterConfig {
     }
 
     @Bean
-    public RedisCacheFilterGatewayFilterFactory redisCacheGatewayFilterFactory() {
-        return new RedisCacheFilterGatewayFilterFactory(redisTemplate);
+    public CacheInvalidationBus cacheInvalidationBus() {
+        return new CacheInvalidationBus(redisTemplate);
+    }
+
+    @Bean
+    public CacheIndex cacheIndex(RedisGuard redisGuard) {
+        return new CacheIndex(redisTemplate, redisGuard);
+    }
+
+    @Bean
+    public CachePurgeService cachePurgeService(CacheShardRouter cacheShardRouter, CacheIndex cacheIndex,
+            CacheInvalidationBus cacheInvalidationBus) {
+        return new CachePurgeService(cacheShardRouter, cacheIndex, cacheInvalidationBus);
+    }
+
+    @Bean
+    public CachePurgeStreamListener cachePurgeStreamListener(ReactiveRedisConnectionFactory connectionFactory,
+            CachePurgeService cachePurgeService) {
+        return new CachePurgeStreamListener(connectionFactory, redisTemplate, cachePurgeService);
+    }
+
+    @Bean
+    public CacheInvalidationEndpoint cacheInvalidationEndpoint(CachePurgeService cachePurgeService) {
+        return new CacheInvalidationEndpoint(cachePurgeService);
+    }
+
+    /*
+     * Snapshot dei tier L1 per il riavvio a caldo: file, intervallo di scrittura, budget in byte
+     * e tempo massimo del ripristino all'avvio
+     */
+    @Bean
+    public CacheSnapshotService cacheSnapshotService(MeterRegistry meterRegistry) {
+        Path path = Path.of(System.getenv().getOrDefault("CACHE_SNAPSHOT_PATH",
+                Path.of(System.getProperty("java.io.tmpdir"), "gateway-cache.snapshot").toString()));
+        long intervalSeconds = Long.parseLong(System.getenv().getOrDefault("CACHE_SNAPSHOT_INTERVAL_SECONDS", "60"));
+        long maxBytes = Long.parseLong(System.getenv().getOrDefault("CACHE_SNAPSHOT_MAX_BYTES", String.valueOf(64L * 1024 * 1024)));
+        long restoreTimeoutMillis = Long.parseLong(System.getenv().getOrDefault("CACHE_SNAPSHOT_RESTORE_TIMEOUT_MS", "30000"));
+        return new CacheSnapshotService(path, Duration.ofSeconds(intervalSeconds), maxBytes,
+                Duration.ofMillis(restoreTimeoutMillis), meterRegistry);
+    }
+
+    @Bean
+    public RedisCacheFilterGatewayFilterFactory redisCacheGatewayFilterFactory(
+            CacheShardRouter cacheShardRouter,
+            CacheInvalidationBus cacheInvalidationBus,
+            CacheIndex cacheIndex,
+            RedisGuard redisGuard,
+            HotKeyRegistry hotKeyRegistry,
+            CacheSnapshotService cacheSnapshotService,
+            KeyCollapseRegistry keyCollapseRegistry,
+            MeterRegistry meterRegistry) {
+        return new RedisCacheFilterGatewayFilterFactory(redisTemplate, cacheShardRouter,
+                cacheInvalidationBus, cacheIndex, redisGuard, hotKeyRegistry, cacheSnapshotService,
+                keyCollapseRegistry, meterRegistry);
+    }
+
+    /*
+     * Riconciliazione su Redis dei rate limiter locali: intervallo in millisecondi e chiavi per script
+     */
+    @Bean
+    public RateLimitSyncService rateLimitSyncService(RedisGuard redisGuard, MeterRegistry meterRegistry) {
+        long intervalMs = Long.parseLong(System.getenv().getOrDefault("RATE_LIMIT_SYNC_INTERVAL_MS", "100"));
+        int batchSize = Integer.parseInt(System.getenv().getOrDefault("RATE_LIMIT_SYNC_BATCH", "256"));
+        return new RateLimitSyncService(redisTemplate, redisGuard, Duration.ofMillis(intervalMs), batchSize, meterRegistry);
+    }
+
+    @Bean
+    public HybridRateLimitGatewayFilterFactory hybridRateLimitGatewayFilterFactory(IpKeyResolver ipKeyResolver,
+            RateLimitSyncService rateLimitSyncService, MeterRegistry meterRegistry) {
+        return new HybridRateLimitGatewayFilterFactory(ipKeyResolver, rateLimitSyncService, meterRegistry);
+    }
+
+    @Bean
+    public ConcurrencyLimitRegistry concurrencyLimitRegistry(MeterRegistry meterRegistry) {
+        return new ConcurrencyLimitRegistry(meterRegistry);
+    }
+
+    @Bean
+    public AdaptiveConcurrencyGatewayFilterFactory adaptiveConcurrencyGatewayFilterFactory(
+            ConcurrencyLimitRegistry concurrencyLimitRegistry, ObjectProvider<DispatcherHandler> dispatcherHandler,
+            MeterRegistry meterRegistry) {
+        return new AdaptiveConcurrencyGatewayFilterFactory(concurrencyLimitRegistry, dispatcherHandler, meterRegistry);
+    }
+
+    @Bean
+    public KeyCollapseRegistry keyCollapseRegistry() {
+        return new KeyCollapseRegistry();
+    }
+
+    @Bean
+    public CacheKeyReportEndpoint cacheKeyReportEndpoint(KeyCollapseRegistry keyCollapseRegistry) {
+        return new CacheKeyReportEndpoint(keyCollapseRegistry);
     }
 
     @Bean
@@ -70,6 +241,21 @@ public class FilterConfig {
         return new RedisCacheFilterGatewayFilterFactory.Config();
     }
 
+    @Bean
+    public ShadowCacheRegistry shadowCacheRegistry() {
+        return new ShadowCacheRegistry();
+    }
+
+    @Bean
+    public ShadowCacheGatewayFilterFactory shadowCacheGatewayFilterFactory(ShadowCacheRegistry shadowCacheRegistry) {
+        return new ShadowCacheGatewayFilterFactory(shadowCacheRegistry);
+    }
+
+    @Bean
+    public ShadowCacheEndpoint shadowCacheEndpoint(ShadowCacheRegistry shadowCacheRegistry) {
+        return new ShadowCacheEndpoint(shadowCacheRegistry);
+    }
+
     @Bean
     public AggregationGatewayFilterFactory aggregationGatewayFilterFactory(){
         return new AggregationGatewayFilterFactory(webClientBuilder, objectMapper);
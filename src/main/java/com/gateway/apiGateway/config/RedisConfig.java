@@ -16,17 +16,38 @@
  */
 package com.gateway.apiGateway.config;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.core.ReactiveRedisTemplate;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
+import com.gateway.apiGateway.redis.CacheShard;
+import com.gateway.apiGateway.redis.CacheShardRouter;
+import com.gateway.apiGateway.redis.RedisCommandBatcher;
+import com.gateway.apiGateway.redis.RedisGuard;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.SocketOptions;
+import io.micrometer.core.instrument.MeterRegistry;
+
 @Configuration
 public class RedisConfig {
 
+    private static final Logger logger = LoggerFactory.getLogger(RedisConfig.class);
+
     @Bean
     public LettuceConnectionFactory redisConnectionFactory() {
         String redisHost = System.getenv().getOrDefault("REDIS_HOST", "redis-container"); // Usa env var o default
@@ -53,5 +74,111 @@ public class RedisConfig {
 
         return new ReactiveRedisTemplate<>(connectionFactory, context);
     }
-    
+
+    /*
+     * Template con valori binari per le entry della cache delle risposte
+     */
+    @Bean
+    public ReactiveRedisTemplate<String, byte[]> byteRedisTemplate(LettuceConnectionFactory connectionFactory) {
+        return byteTemplate(connectionFactory);
+    }
+
+    /*
+     * Batcher condiviso di GET/EXISTS: finestra in microsecondi e numero massimo di chiavi per batch
+     */
+    @Bean
+    public RedisCommandBatcher redisCommandBatcher(ReactiveRedisTemplate<String, byte[]> byteRedisTemplate,
+            MeterRegistry meterRegistry) {
+        long windowMicros = Long.parseLong(System.getenv().getOrDefault("REDIS_BATCH_WINDOW_MICROS", "200"));
+        int maxBatchKeys = Integer.parseInt(System.getenv().getOrDefault("REDIS_BATCH_MAX_KEYS", "128"));
+        return new RedisCommandBatcher(byteRedisTemplate, Duration.ofNanos(windowMicros * 1000),
+                maxBatchKeys, meterRegistry);
+    }
+
+    /*
+     * Scadenze in millisecondi per letture, scritture e lock, e circuit breaker "redis":
+     * oltre il 50% di errori o timeout su almeno 20 comandi il breaker si apre per REDIS_BREAKER_OPEN_SECONDS
+     */
+    @Bean
+    public RedisGuard redisGuard(CircuitBreakerRegistry circuitBreakerRegistry, MeterRegistry meterRegistry) {
+        long readMs = Long.parseLong(System.getenv().getOrDefault("REDIS_READ_DEADLINE_MS", "100"));
+        long writeMs = Long.parseLong(System.getenv().getOrDefault("REDIS_WRITE_DEADLINE_MS", "200"));
+        long lockMs = Long.parseLong(System.getenv().getOrDefault("REDIS_LOCK_DEADLINE_MS", "100"));
+        long openSeconds = Long.parseLong(System.getenv().getOrDefault("REDIS_BREAKER_OPEN_SECONDS", "5"));
+
+        CircuitBreakerConfig breakerConfig = CircuitBreakerConfig.custom()
+                .slidingWindowType(CircuitBreakerConfig.SlidingWindowType.COUNT_BASED)
+                .slidingWindowSize(100)
+                .minimumNumberOfCalls(20)
+                .failureRateThreshold(50)
+                .waitDurationInOpenState(Duration.ofSeconds(openSeconds))
+                .permittedNumberOfCallsInHalfOpenState(10)
+                .automaticTransitionFromOpenToHalfOpenEnabled(true) // a breaker aperto i filtri non chiamano Redis
+                .build();
+
+        return new RedisGuard(circuitBreakerRegistry.circuitBreaker("redis", breakerConfig),
+                Duration.ofMillis(readMs), Duration.ofMillis(writeMs), Duration.ofMillis(lockMs), meterRegistry);
+    }
+
+    /*
+     * Nodi della cache delle risposte: REDIS_CACHE_NODES="host:porta,host:porta,..." distribuisce le entry
+     * su più Redis con consistent hashing; se assente la cache usa il Redis principale.
+     * Indici, lock, pub/sub e stream di purge restano sempre sul Redis principale.
+     */
+    @Bean
+    public CacheShardRouter cacheShardRouter(LettuceConnectionFactory connectionFactory,
+            ReactiveRedisTemplate<String, byte[]> byteRedisTemplate, RedisCommandBatcher redisCommandBatcher,
+            MeterRegistry meterRegistry) {
+        String nodes = System.getenv().getOrDefault("REDIS_CACHE_NODES", "");
+        int virtualNodes = Integer.parseInt(System.getenv().getOrDefault("REDIS_CACHE_VIRTUAL_NODES", "160"));
+        long healthIntervalMs = Long.parseLong(System.getenv().getOrDefault("REDIS_CACHE_HEALTH_INTERVAL_MS", "1000"));
+        long windowMicros = Long.parseLong(System.getenv().getOrDefault("REDIS_BATCH_WINDOW_MICROS", "200"));
+        int maxBatchKeys = Integer.parseInt(System.getenv().getOrDefault("REDIS_BATCH_MAX_KEYS", "128"));
+        long commandTimeoutMs = Long.parseLong(System.getenv().getOrDefault("REDIS_CACHE_COMMAND_TIMEOUT_MS", "500"));
+
+        /*
+         * Con il nodo giù i comandi falliscono subito invece di restare in coda fino alla riconnessione
+         */
+        LettuceClientConfiguration nodeClient = LettuceClientConfiguration.builder()
+                .commandTimeout(Duration.ofMillis(commandTimeoutMs))
+                .clientOptions(ClientOptions.builder()
+                        .disconnectedBehavior(ClientOptions.DisconnectedBehavior.REJECT_COMMANDS)
+                        .socketOptions(SocketOptions.builder().connectTimeout(Duration.ofMillis(commandTimeoutMs)).build())
+                        .build())
+                .build();
+
+        List<CacheShard> shards = new ArrayList<>();
+        if (nodes.isBlank()) {
+            String name = connectionFactory.getHostName() + ":" + connectionFactory.getPort();
+            shards.add(new CacheShard(name, byteRedisTemplate, redisCommandBatcher, null));
+        } else {
+            for (String node : nodes.split(",")) {
+                String name = node.trim();
+                int separator = name.lastIndexOf(':');
+                LettuceConnectionFactory nodeFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(
+                        name.substring(0, separator), Integer.parseInt(name.substring(separator + 1))), nodeClient);
+                nodeFactory.afterPropertiesSet();
+                nodeFactory.start();
+                ReactiveRedisTemplate<String, byte[]> template = byteTemplate(nodeFactory);
+                RedisCommandBatcher batcher = new RedisCommandBatcher(template, Duration.ofNanos(windowMicros * 1000),
+                        maxBatchKeys, meterRegistry, name);
+                shards.add(new CacheShard(name, template, batcher, nodeFactory));
+            }
+        }
+        logger.info("Nodi Redis della cache: {}", shards.stream().map(CacheShard::getName).toList());
+
+        return new CacheShardRouter(shards, virtualNodes, Duration.ofMillis(healthIntervalMs),
+                Duration.ofMillis(Math.max(healthIntervalMs / 2, 100)), meterRegistry);
+    }
+
+    private static ReactiveRedisTemplate<String, byte[]> byteTemplate(LettuceConnectionFactory connectionFactory) {
+        RedisSerializationContext<String, byte[]> context = RedisSerializationContext
+                .<String, byte[]>newSerializationContext(new StringRedisSerializer())
+                .value(RedisSerializer.byteArray())
+                .hashValue(RedisSerializer.byteArray())
+                .build();
+
+        return new ReactiveRedisTemplate<>(connectionFactory, context);
+    }
+
 }
@@ -23,11 +23,23 @@ import org.springframework.cloud.gateway.filter.GlobalFilter;
 import org.springframework.core.Ordered;
 import org.springframework.web.server.ServerWebExchange;
 
+import com.gateway.apiGateway.hotkeys.HotKeyRegistry;
+import com.gateway.apiGateway.utils.ClientIpResolver;
+
 import reactor.core.publisher.Mono;
 
 public class LoggingFilter implements GlobalFilter, Ordered {
 
     private static final Logger log = LoggerFactory.getLogger(LoggingFilter.class);
+    private static final ThreadLocal<long[]> SCRATCH = ThreadLocal.withInitial(() -> new long[2]);
+
+    private final HotKeyRegistry hotKeys;
+    private final ClientIpResolver clientIpResolver;
+
+    public LoggingFilter(HotKeyRegistry hotKeys, ClientIpResolver clientIpResolver) {
+        this.hotKeys = hotKeys;
+        this.clientIpResolver = clientIpResolver;
+    }
 
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
@@ -35,6 +47,14 @@ public class LoggingFilter implements GlobalFilter, Ordered {
         String path = exchange.getRequest().getPath().toString();
         String transformedUri = exchange.getRequest().mutate().build().getURI().toString();
 
+        // Path e IP del client per il top-K delle chiavi calde: dietro un proxy l'indirizzo remoto è quello
+        // del proxy, quindi l'IP viene risolto da X-Forwarded-For nei due long, senza creare la stringa
+        hotKeys.recordPath(path);
+        long[] address = SCRATCH.get();
+        if (clientIpResolver.resolve(exchange.getRequest(), address)) {
+            hotKeys.recordClient(address[0], address[1]);
+        }
+
         /*
          * Log della richiesta 
          */
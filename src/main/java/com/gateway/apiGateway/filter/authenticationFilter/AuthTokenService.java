@@ -32,6 +32,8 @@ import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.web.reactive.function.client.WebClient;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gateway.apiGateway.redis.RedisCommandBatcher;
+import com.gateway.apiGateway.redis.RedisGuard;
 
 import reactor.core.publisher.Mono;
 
@@ -41,6 +43,8 @@ public class AuthTokenService {
     
     private final WebClient webClient;
     private final ReactiveStringRedisTemplate redisTemplate;
+    private final RedisCommandBatcher commandBatcher;
+    private final RedisGuard redisGuard;
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
     
     private final String cachePrefix;
@@ -52,9 +56,13 @@ public class AuthTokenService {
                             String cachePrefix,
                             long BUFFER_TIME_SECONDS,
                             long CACHE_TTL_THRESHOLD,
-                            ReactiveStringRedisTemplate redisTemplate) {
+                            ReactiveStringRedisTemplate redisTemplate,
+                            RedisCommandBatcher commandBatcher,
+                            RedisGuard redisGuard) {
         this.webClient = webClientBuilder.baseUrl(authServiceUrl).build();
         this.redisTemplate = redisTemplate;
+        this.commandBatcher = commandBatcher;
+        this.redisGuard = redisGuard;
         this.cachePrefix = cachePrefix;
         this.BUFFER_TIME_SECONDS = BUFFER_TIME_SECONDS;
         this.CACHE_TTL_THRESHOLD = CACHE_TTL_THRESHOLD;
@@ -130,14 +138,27 @@ public class AuthTokenService {
     private Mono<Boolean> cacheToken(String token, String userId, Long expirationTime) {
         long ttl = Math.max(expirationTime - Instant.now().getEpochSecond() - CACHE_TTL_THRESHOLD, 1);
         logger.info("Caching token per userId: {}, TTL: {} secondi", userId, ttl);
-        return redisTemplate.opsForValue()
-                .set(cachePrefix + userId, token, Duration.ofSeconds(ttl))
+        if (!redisGuard.isAvailable()) {
+            return Mono.just(true); // Redis degradato: il token resta valido ma non viene messo in cache
+        }
+        return redisGuard.guard(RedisGuard.Operation.WRITE, redisTemplate.opsForValue()
+                        .set(cachePrefix + userId, token, Duration.ofSeconds(ttl)))
+                .doOnError(e -> logger.warn("Impossibile salvare in cache il token per userId: {}", userId))
+                .onErrorReturn(false)
                 .thenReturn(true);
     }
 
     private Mono<String> getTokenFromCache(String cacheKey) {
         logger.debug("Recupero token dalla cache per chiave: {}", cacheKey);
-        return redisTemplate.opsForValue().get(cacheKey);
+        // Letture accorpate con quelle delle altre richieste in un unico MGET;
+        // con Redis lento o breaker aperto il token viene validato dal servizio remoto
+        return redisGuard.guard(RedisGuard.Operation.READ, commandBatcher.get(cacheKey))
+                .map(value -> new String(value, StandardCharsets.UTF_8))
+                .onErrorResume(e -> {
+                    logger.debug("Cache dei token non disponibile, validazione remota", e);
+                    redisGuard.recordDegraded("auth");
+                    return Mono.empty();
+                });
     }
 
     private Optional<Long> extractExpiration(String jwt) {
@@ -30,6 +30,8 @@ import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.server.ServerWebExchange;
 
 import com.gateway.apiGateway.Factory.AuthenticationFilterGatewayFilterFactory.Config;
+import com.gateway.apiGateway.redis.RedisCommandBatcher;
+import com.gateway.apiGateway.redis.RedisGuard;
 
 import reactor.core.publisher.Mono;
 
@@ -47,14 +49,16 @@ public class AuthenticationFilter implements GatewayFilter, Ordered {
         return NettyWriteResponseFilter.WRITE_RESPONSE_FILTER_ORDER - 2;
     }
 
-    public AuthenticationFilter(ReactiveStringRedisTemplate redisTemplate,
-            Config config, WebClient.Builder webClientBuilder) {
+    public AuthenticationFilter(ReactiveStringRedisTemplate redisTemplate, RedisCommandBatcher commandBatcher,
+            RedisGuard redisGuard, Config config, WebClient.Builder webClientBuilder) {
         this.authTokenService = new AuthTokenService(webClientBuilder,
                 config.getAuthServiceUrl(),
                 config.getCachePrefix(),
                 config.getBUFFER_TIME_SECONDS(),
                 config.getCACHE_TTL_THRESHOLD(),
-                redisTemplate);
+                redisTemplate,
+                commandBatcher,
+                redisGuard);
     }
 
     @Override
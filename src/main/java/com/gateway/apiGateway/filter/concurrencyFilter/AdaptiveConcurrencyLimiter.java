@@ -0,0 +1,211 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.concurrencyFilter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Limite adattivo di richieste concorrenti verso il backend di una route (gradiente, come Gradient2 di
+ * Netflix concurrency-limits).
+ * <p>
+ * Alla fine di ogni finestra la latenza media della finestra viene confrontata con una linea di base,
+ * la latenza del backend scarico: scende subito a ogni finestra più veloce e sale solo come media mobile
+ * lenta, così un rallentamento prolungato viene assorbito in circa baselineWindows finestre:
+ * <pre>
+ * gradiente = clamp(tolleranza * base / media, 0.5, 1)
+ * limite    = limite * (1 - smoothing) + (limite * gradiente + sqrt(limite)) * smoothing
+ * </pre>
+ * Finché la latenza resta entro la tolleranza il limite cresce di sqrt(limite) (la coda ammessa),
+ * quando il backend rallenta scende fino a dimezzarsi per finestra. Il limite non cresce se nella
+ * finestra le richieste in corso non hanno mai superato metà del limite, per non allargarlo senza prove.
+ * Il limite iniziale va tenuto sotto la capacità del backend: la prima finestra fissa la linea di base.
+ * <p>
+ * Acquisizione e rilascio sono lock-free; l'aggiornamento del limite lo fa un solo thread, quello che
+ * chiude la finestra.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double MIN_GRADIENT = 0.5;
+
+    private final String routeId;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double smoothing;
+    private final double tolerance;
+    private final double baselineAlpha;
+    private final long windowNanos;
+    private final int minWindowSamples;
+    private final long maxRetryAfterSeconds;
+    private final Counter accepted;
+    private final Counter shed;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+    private volatile double limit;
+
+    // Finestra corrente
+    private final LongAdder windowRttNanos = new LongAdder();
+    private final LongAdder windowSamples = new LongAdder();
+    private volatile int windowPeakInflight;
+    private volatile long windowStart = System.nanoTime();
+    private final ReentrantLock updateLock = new ReentrantLock();
+
+    // Scritti solo sotto updateLock
+    private volatile double baselineRtt;
+    private volatile double recentRtt;
+
+    /**
+     * @param routeId la route, usata come tag delle metriche
+     * @param initialLimit il limite iniziale
+     * @param minLimit il limite minimo
+     * @param maxLimit il limite massimo
+     * @param smoothing quanto del nuovo limite stimato viene applicato a ogni finestra (0-1]
+     * @param tolerance di quanto la latenza può superare la linea di base prima di ridurre il limite
+     * @param baselineWindows le finestre su cui si media la linea di base
+     * @param windowMillis la durata minima di una finestra
+     * @param minWindowSamples le risposte minime per chiudere una finestra
+     * @param maxRetryAfterSeconds il Retry-After massimo suggerito alle richieste scartate
+     */
+    public AdaptiveConcurrencyLimiter(String routeId, int initialLimit, int minLimit, int maxLimit, double smoothing,
+            double tolerance, int baselineWindows, long windowMillis, int minWindowSamples, long maxRetryAfterSeconds,
+            MeterRegistry meterRegistry) {
+        this.routeId = routeId;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.smoothing = Math.min(1.0, Math.max(0.01, smoothing));
+        this.tolerance = Math.max(1.0, tolerance);
+        this.baselineAlpha = 2.0 / (Math.max(1, baselineWindows) + 1);
+        this.windowNanos = windowMillis * 1_000_000;
+        this.minWindowSamples = Math.max(1, minWindowSamples);
+        this.maxRetryAfterSeconds = Math.max(1, maxRetryAfterSeconds);
+        this.accepted = Counter.builder("gateway.concurrency.requests")
+                .description("Richieste ammesse o scartate dal limite di concorrenza")
+                .tag("route", routeId)
+                .tag("result", "accepted")
+                .register(meterRegistry);
+        this.shed = Counter.builder("gateway.concurrency.requests")
+                .description("Richieste ammesse o scartate dal limite di concorrenza")
+                .tag("route", routeId)
+                .tag("result", "shed")
+                .register(meterRegistry);
+    }
+
+    public String getRouteId() {
+        return routeId;
+    }
+
+    /**
+     * @return true se la richiesta può proseguire; in quel caso va chiamato {@link #release} al termine
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inflight.get();
+            if (current >= (int) limit) {
+                shed.increment();
+                return false;
+            }
+            if (inflight.compareAndSet(current, current + 1)) {
+                if (current + 1 > windowPeakInflight) {
+                    windowPeakInflight = current + 1; // approssimato, basta a capire se il limite è in uso
+                }
+                accepted.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param rttNanos la durata della richiesta
+     * @param sample false se la durata non dice nulla sul backend (es. richiesta annullata dal client)
+     */
+    public void release(long rttNanos, boolean sample) {
+        inflight.decrementAndGet();
+        if (!sample) {
+            return;
+        }
+        windowRttNanos.add(rttNanos);
+        windowSamples.increment();
+        long now = System.nanoTime();
+        if (now - windowStart >= windowNanos && updateLock.tryLock()) {
+            try {
+                if (now - windowStart >= windowNanos) {
+                    update(now);
+                }
+            } finally {
+                updateLock.unlock();
+            }
+        }
+    }
+
+    /*
+     * Una finestra con troppe poche risposte resta aperta e continua ad accumulare
+     */
+    private void update(long now) {
+        if (windowSamples.sum() < minWindowSamples) {
+            return;
+        }
+        double rtt = (double) windowRttNanos.sumThenReset() / Math.max(1, windowSamples.sumThenReset());
+        int peak = windowPeakInflight;
+        windowPeakInflight = inflight.get();
+        windowStart = now;
+        recentRtt = rtt;
+
+        if (baselineRtt == 0 || rtt < baselineRtt) {
+            baselineRtt = rtt;
+        } else {
+            baselineRtt = baselineRtt * (1 - baselineAlpha) + rtt * baselineAlpha;
+        }
+
+        double current = limit;
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, tolerance * baselineRtt / rtt));
+        double estimated = current * gradient + Math.sqrt(current);
+        if (gradient == 1.0 && peak < current / 2) {
+            return;
+        }
+        double next = current * (1 - smoothing) + estimated * smoothing;
+        limit = Math.min(maxLimit, Math.max(minLimit, next));
+    }
+
+    /**
+     * @return i secondi dopo cui riprovare: circa la latenza recente, il tempo in cui si libera un posto
+     */
+    public long retryAfterSeconds() {
+        long seconds = (long) Math.ceil(recentRtt / 1_000_000_000.0);
+        return Math.min(maxRetryAfterSeconds, Math.max(1, seconds));
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    public double getBaselineRttMillis() {
+        return baselineRtt / 1_000_000.0;
+    }
+
+    public double getRecentRttMillis() {
+        return recentRtt / 1_000_000.0;
+    }
+}
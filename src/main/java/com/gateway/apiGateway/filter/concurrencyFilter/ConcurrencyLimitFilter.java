@@ -0,0 +1,72 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.concurrencyFilter;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.NettyWriteResponseFilter;
+import org.springframework.core.Ordered;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.reactive.DispatcherHandler;
+import org.springframework.web.server.ServerWebExchange;
+
+import com.gateway.apiGateway.Controller.FallbackController;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+/**
+ * Ammette le richieste entro il limite adattivo della route e misura quanto impiegano; le altre
+ * vengono scartate subito, inoltrandole al fallback locale (503 con Retry-After) come fa il
+ * filtro CircuitBreaker, senza aspettare il timeout del backend.
+ */
+public class ConcurrencyLimitFilter implements GatewayFilter, Ordered {
+
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final ObjectProvider<DispatcherHandler> dispatcherHandler;
+    private final String fallbackPath;
+
+    public ConcurrencyLimitFilter(AdaptiveConcurrencyLimiter limiter, ObjectProvider<DispatcherHandler> dispatcherHandler,
+            String fallbackPath) {
+        this.limiter = limiter;
+        this.dispatcherHandler = dispatcherHandler;
+        this.fallbackPath = fallbackPath;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        if (!limiter.tryAcquire()) {
+            exchange.getAttributes().put(FallbackController.RETRY_AFTER_ATTR, limiter.retryAfterSeconds());
+            ServerHttpRequest request = exchange.getRequest().mutate().path(fallbackPath).build();
+            return dispatcherHandler.getObject().handle(exchange.mutate().request(request).build());
+        }
+        long start = System.nanoTime();
+        // Una richiesta annullata dal client non dice nulla sulla latenza del backend
+        return chain.filter(exchange)
+                .doFinally(signal -> limiter.release(System.nanoTime() - start, signal != SignalType.CANCEL));
+    }
+
+    /*
+     * Stesso ordine della cache: se elencato dopo il filtro della cache, le risposte servite dalla cache
+     * non occupano posti e non entrano nella misura della latenza
+     */
+    @Override
+    public int getOrder() {
+        return NettyWriteResponseFilter.WRITE_RESPONSE_FILTER_ORDER - 1;
+    }
+}
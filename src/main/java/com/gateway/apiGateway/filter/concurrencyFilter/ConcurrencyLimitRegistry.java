@@ -0,0 +1,60 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.concurrencyFilter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Limiter di concorrenza attivi, uno per route. Quando le route vengono ricaricate il limiter della
+ * route viene sostituito; i gauge sono registrati una volta per route e leggono sempre il limiter
+ * corrente, così non restano legati a quello vecchio.
+ */
+public class ConcurrencyLimitRegistry {
+
+    private final Map<String, AdaptiveConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+
+    public ConcurrencyLimitRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public void register(AdaptiveConcurrencyLimiter limiter) {
+        String routeId = limiter.getRouteId();
+        if (limiters.put(routeId, limiter) == null) {
+            Gauge.builder("gateway.concurrency.limit", this, registry -> registry.value(routeId, false))
+                    .description("Limite corrente di richieste concorrenti verso il backend")
+                    .tag("route", routeId)
+                    .register(meterRegistry);
+            Gauge.builder("gateway.concurrency.inflight", this, registry -> registry.value(routeId, true))
+                    .description("Richieste in corso verso il backend")
+                    .tag("route", routeId)
+                    .register(meterRegistry);
+        }
+    }
+
+    private double value(String routeId, boolean inflight) {
+        AdaptiveConcurrencyLimiter limiter = limiters.get(routeId);
+        if (limiter == null) {
+            return Double.NaN;
+        }
+        return inflight ? limiter.getInflight() : limiter.getLimit();
+    }
+}
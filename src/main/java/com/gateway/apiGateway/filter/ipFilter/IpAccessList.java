@@ -0,0 +1,211 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.ipFilter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import com.gateway.apiGateway.utils.CidrTrie;
+import com.gateway.apiGateway.utils.IpAddress;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Liste di prefissi CIDR consentiti e bloccati, lette da due file locali (un prefisso o un indirizzo per
+ * riga, '#' per i commenti) e unite in un unico {@link CidrTrie}: vince il prefisso più lungo, a parità
+ * di prefisso il blocco. Gli indirizzi che non ricadono in nessun prefisso seguono l'azione di default.
+ * <p>
+ * I file vengono controllati periodicamente e, se data di modifica o dimensione cambiano, il trie viene
+ * ricostruito fuori dal percorso delle richieste e sostituito con una sola scrittura volatile.
+ * Se un file non si legge resta in uso il trie precedente; le righe non valide vengono saltate.
+ */
+public class IpAccessList implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(IpAccessList.class);
+
+    private final Path allowFile;
+    private final Path denyFile;
+    private final Duration reloadInterval;
+    private final boolean defaultAllow;
+    private final Counter reloadSuccess;
+    private final Counter reloadFailure;
+
+    private volatile CidrTrie trie = CidrTrie.empty();
+    private volatile int allowPrefixes;
+    private volatile int denyPrefixes;
+    private Version loaded;
+    private Disposable reloader;
+
+    /**
+     * @param allowFile il file dei prefissi consentiti, null se assente
+     * @param denyFile il file dei prefissi bloccati, null se assente
+     * @param reloadInterval ogni quanto controllare se i file sono cambiati
+     * @param defaultAllow l'azione per gli indirizzi fuori da entrambe le liste
+     */
+    public IpAccessList(Path allowFile, Path denyFile, Duration reloadInterval, boolean defaultAllow,
+            MeterRegistry meterRegistry) {
+        this.allowFile = allowFile;
+        this.denyFile = denyFile;
+        this.reloadInterval = reloadInterval;
+        this.defaultAllow = defaultAllow;
+        this.reloadSuccess = Counter.builder("gateway.ipfilter.reloads")
+                .description("Ricaricamenti delle liste di prefissi")
+                .tag("result", "success")
+                .register(meterRegistry);
+        this.reloadFailure = Counter.builder("gateway.ipfilter.reloads")
+                .description("Ricaricamenti delle liste di prefissi")
+                .tag("result", "failure")
+                .register(meterRegistry);
+        Gauge.builder("gateway.ipfilter.prefixes", this, list -> list.allowPrefixes)
+                .description("Prefissi caricati per lista")
+                .tag("list", "allow")
+                .register(meterRegistry);
+        Gauge.builder("gateway.ipfilter.prefixes", this, list -> list.denyPrefixes)
+                .description("Prefissi caricati per lista")
+                .tag("list", "deny")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        reload();
+        if (allowFile != null || denyFile != null) {
+            reloader = Flux.interval(reloadInterval, Schedulers.boundedElastic())
+                    .onBackpressureDrop()
+                    .subscribe(tick -> reload());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (reloader != null) {
+            reloader.dispose();
+        }
+    }
+
+    /**
+     * @param hi i 64 bit alti dell'indirizzo
+     * @param lo i 64 bit bassi dell'indirizzo
+     * @return true se l'indirizzo può passare
+     */
+    public boolean isAllowed(long hi, long lo) {
+        CidrTrie.Action action = trie.lookup(hi, lo);
+        return action == null ? defaultAllow : action == CidrTrie.Action.ALLOW;
+    }
+
+    /**
+     * @return true se nessun indirizzo può essere bloccato, e il filtro può essere saltato
+     */
+    public boolean allowsAll() {
+        return defaultAllow && denyPrefixes == 0;
+    }
+
+    /**
+     * Ricostruisce il trie se i file sono cambiati dall'ultimo caricamento.
+     */
+    synchronized void reload() {
+        Version current;
+        try {
+            current = new Version(stat(allowFile), stat(denyFile));
+        } catch (IOException e) {
+            reloadFailure.increment();
+            logger.warn("Impossibile leggere le liste di prefissi, resta in uso la versione precedente", e);
+            return;
+        }
+        if (current.equals(loaded)) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            CidrTrie.Builder builder = CidrTrie.builder();
+            int allowed = read(allowFile, CidrTrie.Action.ALLOW, builder);
+            int denied = read(denyFile, CidrTrie.Action.DENY, builder);
+            CidrTrie built = builder.build();
+            trie = built;
+            allowPrefixes = allowed;
+            denyPrefixes = denied;
+            loaded = current;
+            reloadSuccess.increment();
+            logger.info("Liste di prefissi caricate: {} consentiti, {} bloccati, {} nodi in {} ms",
+                    allowed, denied, built.nodes(), (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException e) {
+            reloadFailure.increment();
+            logger.warn("Impossibile leggere le liste di prefissi, resta in uso la versione precedente", e);
+        }
+    }
+
+    private static int read(Path file, CidrTrie.Action action, CidrTrie.Builder builder) throws IOException {
+        if (file == null || !Files.exists(file)) {
+            return 0;
+        }
+        long[] address = new long[2];
+        int prefixes = 0;
+        int invalid = 0;
+        String firstInvalid = null;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comment = line.indexOf('#');
+                String cidr = (comment >= 0 ? line.substring(0, comment) : line).trim();
+                if (cidr.isEmpty()) {
+                    continue;
+                }
+                int length = IpAddress.parseCidr(cidr, address);
+                if (length < 0) {
+                    if (invalid++ == 0) {
+                        firstInvalid = cidr;
+                    }
+                    continue;
+                }
+                builder.add(address[0], address[1], length, action);
+                prefixes++;
+            }
+        }
+        if (invalid > 0) {
+            logger.warn("{}: {} righe non valide ignorate (la prima: {})", file, invalid, firstInvalid);
+        }
+        return prefixes;
+    }
+
+    private static FileStat stat(Path file) throws IOException {
+        if (file == null || !Files.exists(file)) {
+            return null;
+        }
+        return new FileStat(Files.getLastModifiedTime(file), Files.size(file));
+    }
+
+    private record FileStat(FileTime modified, long size) {
+    }
+
+    private record Version(FileStat allow, FileStat deny) {
+    }
+}
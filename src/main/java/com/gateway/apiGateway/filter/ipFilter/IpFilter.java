@@ -0,0 +1,77 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.ipFilter;
+
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ServerWebExchange;
+
+import com.gateway.apiGateway.utils.ClientIpResolver;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * Blocca con 403 i client i cui indirizzi, risolti attraverso i proxy fidati, ricadono nelle liste di
+ * {@link IpAccessList}. Gira prima di ogni altro filtro, così le richieste bloccate non costano
+ * autenticazione, rate limit o cache; la ricerca non alloca.
+ */
+public class IpFilter implements GlobalFilter, Ordered {
+
+    private static final ThreadLocal<long[]> SCRATCH = ThreadLocal.withInitial(() -> new long[2]);
+
+    private final ClientIpResolver clientIpResolver;
+    private final IpAccessList accessList;
+    private final Counter allowed;
+    private final Counter denied;
+
+    public IpFilter(ClientIpResolver clientIpResolver, IpAccessList accessList, MeterRegistry meterRegistry) {
+        this.clientIpResolver = clientIpResolver;
+        this.accessList = accessList;
+        this.allowed = Counter.builder("gateway.ipfilter.requests")
+                .description("Richieste controllate dal filtro IP")
+                .tag("result", "allowed")
+                .register(meterRegistry);
+        this.denied = Counter.builder("gateway.ipfilter.requests")
+                .description("Richieste controllate dal filtro IP")
+                .tag("result", "denied")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        if (accessList.allowsAll()) {
+            return chain.filter(exchange);
+        }
+        long[] address = SCRATCH.get();
+        if (clientIpResolver.resolve(exchange.getRequest(), address) && !accessList.isAllowed(address[0], address[1])) {
+            denied.increment();
+            exchange.getResponse().setStatusCode(HttpStatus.FORBIDDEN);
+            return exchange.getResponse().setComplete();
+        }
+        allowed.increment();
+        return chain.filter(exchange);
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+}
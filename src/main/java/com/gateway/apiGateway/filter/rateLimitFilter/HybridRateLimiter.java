@@ -0,0 +1,222 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.rateLimitFilter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Token bucket per chiave di una route, deciso in locale senza chiamate a Redis.
+ * <p>
+ * Ogni bucket è una sola AtomicLong con il theoretical arrival time (GCRA): il bucket ha
+ * burstCapacity token quando il TAT non supera l'istante corrente, ogni token consumato lo
+ * sposta avanti di 1/replenishRate secondi e la richiesta passa se il debito (TAT - ora)
+ * resta entro burstCapacity token. L'aggiornamento è un compareAndSet, senza lock.
+ * <p>
+ * I token consumati si accumulano in un contatore per bucket che RateLimitSyncService
+ * riporta su Redis a intervalli. Redis restituisce il debito globale della chiave e il totale
+ * dei token consumati da tutte le repliche: la differenza tra l'aumento del totale e i consumi
+ * di questa replica sono i token consumati altrove, che vengono addebitati anche al bucket locale.
+ * Ogni replica vede così il debito di tutte, e con una sola replica il bucket resta esattamente
+ * il GCRA locale. Tra due sincronizzazioni il limite resta approssimato: ogni replica può
+ * ammettere i token maturati prima di vedere i consumi delle altre.
+ */
+public class HybridRateLimiter {
+
+    /**
+     * Esito di una richiesta, con i valori per gli header X-RateLimit-*.
+     *
+     * @param allowed se la richiesta passa
+     * @param remaining i token rimasti
+     * @param resetSeconds i secondi dopo cui il bucket torna pieno
+     * @param retryAfterSeconds i secondi da attendere se la richiesta è rifiutata
+     */
+    public record Decision(boolean allowed, long remaining, long resetSeconds, long retryAfterSeconds) {
+    }
+
+    /*
+     * Stato locale di una chiave; pending sono i token consumati non ancora riportati su Redis.
+     * lastTotal è scritto solo dalla riconciliazione, un giro alla volta.
+     */
+    static final class Bucket {
+        final String key;
+        final AtomicLong tat;
+        final LongAdder pending = new LongAdder();
+        final AtomicBoolean queued = new AtomicBoolean();
+        long lastTotal = -1; // totale globale all'ultima riconciliazione, -1 prima della prima
+
+        private Bucket(String key, long now) {
+            this.key = key;
+            this.tat = new AtomicLong(now);
+        }
+    }
+
+    private final String routeId;
+    private final long burstCapacity;
+    private final long requestedTokens;
+    private final long intervalNanos; // tempo di rifornimento di un token
+    private final long capacityNanos; // debito massimo, burstCapacity token
+    private final boolean globalSync;
+    private final Cache<String, Bucket> buckets;
+    private final Queue<Bucket> dirty = new ConcurrentLinkedQueue<>(); // bucket con consumi da riportare
+    private final Counter allowed;
+    private final Counter denied;
+
+    /**
+     * @param replenishRate i token riforniti al secondo
+     * @param burstCapacity i token del bucket pieno
+     * @param requestedTokens i token consumati da ogni richiesta
+     * @param maxKeys le chiavi seguite in memoria
+     * @param globalSync se i consumi vengono riconciliati su Redis con le altre repliche
+     */
+    public HybridRateLimiter(String routeId, double replenishRate, long burstCapacity, long requestedTokens,
+            long maxKeys, boolean globalSync, MeterRegistry meterRegistry) {
+        this.routeId = routeId;
+        this.burstCapacity = burstCapacity;
+        this.requestedTokens = requestedTokens;
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / replenishRate));
+        this.capacityNanos = burstCapacity * intervalNanos;
+        this.globalSync = globalSync;
+        // Dopo capacityNanos senza richieste il bucket è di nuovo pieno: lo stato non serve più
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(maxKeys)
+                .expireAfterAccess(Duration.ofNanos(capacityNanos).plusSeconds(1))
+                .build();
+        this.allowed = Counter.builder("gateway.ratelimit.requests")
+                .description("Richieste ammesse o rifiutate dal rate limiter")
+                .tags("route", routeId, "result", "allowed")
+                .register(meterRegistry);
+        this.denied = Counter.builder("gateway.ratelimit.requests")
+                .description("Richieste ammesse o rifiutate dal rate limiter")
+                .tags("route", routeId, "result", "denied")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param key la chiave del client
+     * @return l'esito, senza attese né I/O
+     */
+    public Decision tryAcquire(String key) {
+        long now = System.nanoTime();
+        Bucket bucket = buckets.get(key, k -> new Bucket(k, now));
+        long cost = requestedTokens * intervalNanos;
+        while (true) {
+            long tat = bucket.tat.get();
+            long base = tat - now > 0 ? tat : now;
+            long debt = base - now + cost;
+            if (debt > capacityNanos) {
+                denied.increment();
+                // Con i consumi delle altre repliche il debito può superare la capacità: nessun token negativo
+                return new Decision(false, Math.max(0, (capacityNanos - (base - now)) / intervalNanos),
+                        ceilSeconds(base - now), Math.max(1, ceilSeconds(debt - capacityNanos)));
+            }
+            if (bucket.tat.compareAndSet(tat, base + cost)) {
+                if (globalSync) {
+                    bucket.pending.add(requestedTokens);
+                    if (bucket.queued.compareAndSet(false, true)) {
+                        dirty.add(bucket);
+                    }
+                }
+                allowed.increment();
+                return new Decision(true, (capacityNanos - debt) / intervalNanos, ceilSeconds(debt), 0);
+            }
+        }
+    }
+
+    public String getRouteId() {
+        return routeId;
+    }
+
+    public long getBurstCapacity() {
+        return burstCapacity;
+    }
+
+    public boolean isGlobalSync() {
+        return globalSync;
+    }
+
+    long getIntervalNanos() {
+        return intervalNanos;
+    }
+
+    long getCapacityNanos() {
+        return capacityNanos;
+    }
+
+    /*
+     * Bucket con consumi da riportare; queued viene azzerato prima di leggere pending,
+     * così un consumo concorrente rimette il bucket in coda per il giro successivo
+     */
+    List<Bucket> drainDirty() {
+        List<Bucket> drained = new ArrayList<>();
+        Bucket bucket;
+        while ((bucket = dirty.poll()) != null) {
+            bucket.queued.set(false);
+            drained.add(bucket);
+        }
+        return drained;
+    }
+
+    /**
+     * Riallinea il bucket allo stato globale. I token consumati dalle altre repliche dall'ultima
+     * riconciliazione (aumento del totale meno i token riportati da questa) vengono addebitati al
+     * bucket locale; i consumi di questa replica sono già nel bucket e non si addebitano di nuovo.
+     * Alla prima riconciliazione del bucket, o se la chiave è scaduta su Redis, l'aumento non è noto:
+     * se altre repliche hanno consumato il bucket parte almeno dal debito globale, più i consumi
+     * locali avvenuti dopo l'invio.
+     *
+     * @param consumed i token riportati da questa replica
+     * @param globalDebtMicros il debito globale della chiave (TAT su Redis - ora di Redis), in microsecondi
+     * @param globalTotal i token consumati sulla chiave da tutte le repliche
+     * @param observedAt l'istante (nanoTime) a cui corrisponde il debito, a metà del round trip
+     */
+    void reconcile(Bucket bucket, long consumed, long globalDebtMicros, long globalTotal, long observedAt) {
+        long lastTotal = bucket.lastTotal;
+        bucket.lastTotal = globalTotal;
+        if (lastTotal >= 0 && globalTotal >= lastTotal + consumed) {
+            long foreign = globalTotal - lastTotal - consumed;
+            if (foreign > 0) {
+                long charge = foreign * intervalNanos;
+                long now = System.nanoTime();
+                bucket.tat.updateAndGet(tat -> Math.max(tat, now) + charge);
+            }
+            return;
+        }
+        if (globalTotal > consumed) {
+            long debt = Math.max(TimeUnit.MICROSECONDS.toNanos(globalDebtMicros), 0);
+            long global = observedAt + debt + bucket.pending.sum() * intervalNanos;
+            bucket.tat.accumulateAndGet(global, Math::max);
+        }
+    }
+
+    private static long ceilSeconds(long nanos) {
+        return nanos <= 0 ? 0 : (nanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+    }
+}
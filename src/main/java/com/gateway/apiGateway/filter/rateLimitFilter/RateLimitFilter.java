@@ -0,0 +1,80 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.rateLimitFilter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.NettyWriteResponseFilter;
+import org.springframework.cloud.gateway.filter.ratelimit.KeyResolver;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ServerWebExchange;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Applica il rate limiter della route con la chiave del KeyResolver (l'IP del client).
+ * Ogni risposta porta X-RateLimit-Limit, X-RateLimit-Remaining e X-RateLimit-Reset;
+ * le richieste oltre il limite ricevono 429 con Retry-After, senza raggiungere l'upstream.
+ */
+public class RateLimitFilter implements GatewayFilter, Ordered {
+
+    private static final Logger logger = LoggerFactory.getLogger(RateLimitFilter.class);
+
+    public static final String LIMIT_HEADER = "X-RateLimit-Limit";
+    public static final String REMAINING_HEADER = "X-RateLimit-Remaining";
+    public static final String RESET_HEADER = "X-RateLimit-Reset";
+
+    private final HybridRateLimiter limiter;
+    private final KeyResolver keyResolver;
+
+    public RateLimitFilter(HybridRateLimiter limiter, KeyResolver keyResolver) {
+        this.limiter = limiter;
+        this.keyResolver = keyResolver;
+    }
+
+    /*
+     * Prima della cache delle risposte: anche gli hit consumano token
+     */
+    @Override
+    public int getOrder() {
+        return NettyWriteResponseFilter.WRITE_RESPONSE_FILTER_ORDER - 2;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        return keyResolver.resolve(exchange)
+                .defaultIfEmpty("")
+                .flatMap(key -> {
+                    HybridRateLimiter.Decision decision = limiter.tryAcquire(key);
+                    HttpHeaders headers = exchange.getResponse().getHeaders();
+                    headers.set(LIMIT_HEADER, String.valueOf(limiter.getBurstCapacity()));
+                    headers.set(REMAINING_HEADER, String.valueOf(decision.remaining()));
+                    headers.set(RESET_HEADER, String.valueOf(decision.resetSeconds()));
+                    if (decision.allowed()) {
+                        return chain.filter(exchange);
+                    }
+                    logger.debug("Rate limit superato sulla route {} per la chiave {}", limiter.getRouteId(), key);
+                    headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(decision.retryAfterSeconds()));
+                    exchange.getResponse().setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+                    return exchange.getResponse().setComplete();
+                });
+    }
+}
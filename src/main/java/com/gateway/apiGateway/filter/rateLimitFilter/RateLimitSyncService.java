@@ -0,0 +1,203 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.rateLimitFilter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import com.gateway.apiGateway.redis.RedisGuard;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Riconcilia su Redis i consumi dei rate limiter locali: ogni syncInterval i bucket con consumi
+ * vengono inviati a blocchi di batchSize chiavi in un solo script per blocco, fuori dal percorso
+ * delle richieste. Su Redis il bucket globale di ogni chiave è un TAT sull'orologio
+ * di Redis, quindi indipendente dagli orologi delle repliche.
+ * <p>
+ * Con Redis non disponibile i consumi vengono scartati e ogni replica applica il limite da sola.
+ */
+public class RateLimitSyncService implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(RateLimitSyncService.class);
+
+    public static final String BUCKET_PREFIX = "gateway:ratelimit:";
+
+    /*
+     * KEYS = bucket, ARGV = [rifornimento di un token in ms, capacità in ms, durata del giro in ms,
+     * token consumati per bucket...]
+     * Ogni bucket è un hash con il TAT (t) e il totale dei token consumati (n). I consumi riportati sono
+     * avvenuti durante il giro, non tutti adesso: vengono addebitati a partire da ora - durata del giro,
+     * altrimenti il rifornimento maturato nel frattempo andrebbe perso. Il TAT è in millisecondi con
+     * frazione e viene scritto già formattato, per non dipendere da come il server converte i numeri Lua.
+     * Restituisce per ogni bucket il debito (TAT - ora, µs) e il totale consumato
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> SYNC_SCRIPT = RedisScript.of(
+            "local t = redis.call('TIME') "
+            + "local now = tonumber(t[1]) * 1000 + tonumber(t[2]) / 1000 "
+            + "local interval = tonumber(ARGV[1]) "
+            + "local ttl = math.ceil(tonumber(ARGV[2])) + 1000 "
+            + "local since = now - tonumber(ARGV[3]) "
+            + "local out = {} "
+            + "for i, key in ipairs(KEYS) do "
+            + "  local consumed = tonumber(ARGV[3 + i]) "
+            + "  local tat = tonumber(redis.call('HGET', key, 't') or '0') "
+            + "  if tat < since then tat = since end "
+            + "  tat = tat + consumed * interval "
+            + "  redis.call('HSET', key, 't', string.format('%.3f', tat)) "
+            + "  local total = redis.call('HINCRBY', key, 'n', consumed) "
+            + "  redis.call('PEXPIRE', key, ttl) "
+            + "  out[2 * i - 1] = math.floor((tat - now) * 1000) "
+            + "  out[2 * i] = total "
+            + "end "
+            + "return out", List.class);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final RedisGuard redisGuard;
+    private final Duration syncInterval;
+    private final int batchSize;
+    private final Map<String, HybridRateLimiter> limiters = new ConcurrentHashMap<>();
+    private final Timer syncTimer;
+    private long lastRound; // inizio del giro precedente (nanoTime), solo dal thread della riconciliazione
+    private Disposable syncer;
+
+    /**
+     * @param syncInterval ogni quanto i consumi vengono riportati su Redis
+     * @param batchSize le chiavi per script
+     */
+    public RateLimitSyncService(ReactiveStringRedisTemplate redisTemplate, RedisGuard redisGuard,
+            Duration syncInterval, int batchSize, MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.redisGuard = redisGuard;
+        this.syncInterval = syncInterval;
+        this.batchSize = batchSize;
+        this.syncTimer = Timer.builder("gateway.ratelimit.sync.duration")
+                .description("Durata di un giro di riconciliazione dei rate limiter su Redis")
+                .register(meterRegistry);
+    }
+
+    /*
+     * Quando le route vengono ricaricate il limiter della route viene sostituito
+     */
+    public void register(HybridRateLimiter limiter) {
+        if (limiter.isGlobalSync()) {
+            limiters.put(limiter.getRouteId(), limiter);
+        } else {
+            limiters.remove(limiter.getRouteId());
+        }
+    }
+
+    /**
+     * @param routeId una route che non ha più un rate limiter
+     */
+    public void unregister(String routeId) {
+        limiters.remove(routeId);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        lastRound = System.nanoTime();
+        // Un giro alla volta: i tick che arrivano durante un giro lento vengono scartati
+        syncer = Flux.interval(syncInterval, Schedulers.single())
+                .onBackpressureDrop()
+                .concatMap(tick -> syncAll(), 0)
+                .subscribe();
+    }
+
+    @Override
+    public void destroy() {
+        if (syncer != null) {
+            syncer.dispose();
+        }
+    }
+
+    /**
+     * @return il Mono completato quando tutti i limiter sono stati riconciliati
+     */
+    public Mono<Void> syncAll() {
+        long start = System.nanoTime();
+        long round = start - lastRound;
+        lastRound = start;
+        return Flux.fromIterable(limiters.values())
+                .concatMap(limiter -> sync(limiter, round))
+                .then()
+                .doOnTerminate(() -> syncTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+    }
+
+    private Mono<Void> sync(HybridRateLimiter limiter, long round) {
+        List<HybridRateLimiter.Bucket> dirty = limiter.drainDirty();
+        if (dirty.isEmpty()) {
+            return Mono.empty();
+        }
+        List<Long> consumed = new ArrayList<>(dirty.size());
+        dirty.forEach(bucket -> consumed.add(bucket.pending.sumThenReset()));
+        if (!redisGuard.isAvailable()) {
+            redisGuard.recordDegraded("ratelimit");
+            return Mono.empty();
+        }
+        List<Mono<Void>> batches = new ArrayList<>();
+        for (int from = 0; from < dirty.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, dirty.size());
+            batches.add(syncBatch(limiter, dirty.subList(from, to), consumed.subList(from, to), round));
+        }
+        return Flux.concat(batches).then();
+    }
+
+    private Mono<Void> syncBatch(HybridRateLimiter limiter, List<HybridRateLimiter.Bucket> batch, List<Long> consumed,
+            long round) {
+        List<String> keys = new ArrayList<>(batch.size());
+        List<String> args = new ArrayList<>(batch.size() + 3);
+        args.add(String.valueOf(limiter.getIntervalNanos() / 1e6));
+        args.add(String.valueOf(limiter.getCapacityNanos() / 1e6));
+        args.add(String.valueOf(round / 1e6));
+        for (int i = 0; i < batch.size(); i++) {
+            keys.add(BUCKET_PREFIX + limiter.getRouteId() + ":" + batch.get(i).key);
+            args.add(String.valueOf(consumed.get(i)));
+        }
+        long sent = System.nanoTime();
+        return redisGuard.guard(RedisGuard.Operation.WRITE, redisTemplate.execute(SYNC_SCRIPT, keys, args))
+                .next()
+                .doOnNext(result -> {
+                    // il debito è misurato da Redis durante il round trip: lo si riferisce al suo punto medio
+                    long observedAt = sent + (System.nanoTime() - sent) / 2;
+                    for (int i = 0; i < batch.size(); i++) {
+                        limiter.reconcile(batch.get(i), consumed.get(i), ((Number) result.get(2 * i)).longValue(),
+                                ((Number) result.get(2 * i + 1)).longValue(), observedAt);
+                    }
+                })
+                .doOnError(e -> logger.debug("Riconciliazione del rate limiter {} fallita: {}", limiter.getRouteId(), e.toString()))
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import java.time.Duration;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * TTL appreso per chiave dalla frequenza con cui cambia il contenuto.
+ * A ogni nuova risposta salvata il digest (ETag dell'upstream o digest del body) viene confrontato
+ * con quello precedente della stessa chiave: se è invariato il TTL cresce di un fattore, se è cambiato
+ * si riduce, sempre entro minTtl/maxTtl della route. La prima risposta parte dal ttl della route.
+ * Lo stato è locale alla replica e limitato a maxKeys chiavi, rimosse dopo un lungo inutilizzo.
+ */
+public class AdaptiveTtl {
+
+    public enum ContentChange {
+        INITIAL,   // prima risposta osservata per la chiave
+        UNCHANGED, // stesso digest della risposta precedente: TTL aumentato
+        CHANGED    // digest diverso: TTL ridotto
+    }
+
+    private record KeyState(String digest, long ttl) {
+    }
+
+    private final Cache<String, KeyState> states;
+    private final long initialTtl;
+    private final long minTtl;
+    private final long maxTtl;
+    private final double increase;
+    private final double decrease;
+    private final CacheMetrics metrics;
+
+    /**
+     * @param initialTtl il TTL delle chiavi mai viste (secondi)
+     * @param minTtl il limite inferiore del TTL appreso
+     * @param maxTtl il limite superiore del TTL appreso
+     * @param increase il fattore applicato quando il contenuto non cambia (maggiore di 1)
+     * @param decrease il fattore applicato quando il contenuto cambia (minore di 1)
+     * @param maxKeys il numero massimo di chiavi di cui tenere lo stato
+     */
+    public AdaptiveTtl(long initialTtl, long minTtl, long maxTtl, double increase, double decrease, long maxKeys,
+            CacheMetrics metrics) {
+        this.minTtl = Math.max(minTtl, 1);
+        this.maxTtl = Math.max(maxTtl, this.minTtl);
+        this.initialTtl = clamp(initialTtl);
+        this.increase = increase;
+        this.decrease = decrease;
+        this.metrics = metrics;
+        // lo stato deve sopravvivere alla scadenza dell'entry, per confrontare la risposta successiva
+        this.states = Caffeine.newBuilder()
+                .maximumSize(maxKeys)
+                .expireAfterAccess(Duration.ofSeconds(this.maxTtl * 2))
+                .build();
+    }
+
+    /**
+     * Registra la nuova risposta della chiave e ne restituisce il TTL.
+     *
+     * @param key la chiave dell'entry (della variante, con Vary)
+     * @param digest l'ETag o il digest del body della nuova risposta
+     * @return il TTL appreso in secondi
+     */
+    public long learn(String key, String digest) {
+        ContentChange[] change = new ContentChange[1];
+        KeyState state = states.asMap().compute(key, (k, previous) -> {
+            if (previous == null) {
+                change[0] = ContentChange.INITIAL;
+                return new KeyState(digest, initialTtl);
+            }
+            if (previous.digest().equals(digest)) {
+                change[0] = ContentChange.UNCHANGED;
+                return new KeyState(digest, clamp((long) Math.ceil(previous.ttl() * increase)));
+            }
+            change[0] = ContentChange.CHANGED;
+            return new KeyState(digest, clamp((long) Math.floor(previous.ttl() * decrease)));
+        });
+        metrics.recordLearnedTtl(change[0], state.ttl());
+        return state.ttl();
+    }
+
+    private long clamp(long ttl) {
+        return Math.min(Math.max(ttl, minTtl), maxTtl);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+
+import com.gateway.apiGateway.redis.RedisGuard;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Esegue al più un refresh in background per chiave.
+ * In modalità distribuita il refresh è unico anche tra le repliche (lock Redis a breve durata).
+ */
+public class BackgroundRefresher {
+
+    private static final Logger logger = LoggerFactory.getLogger(BackgroundRefresher.class);
+
+    private static final String LOCK_SUFFIX = ":refresh";
+
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final RedisGuard redisGuard;
+    private final boolean distributed;
+    private final Duration lockTtl;
+
+    public BackgroundRefresher(ReactiveStringRedisTemplate redisTemplate, RedisGuard redisGuard, boolean distributed,
+            Duration lockTtl) {
+        this.redisTemplate = redisTemplate;
+        this.redisGuard = redisGuard;
+        this.distributed = distributed;
+        this.lockTtl = lockTtl;
+    }
+
+    /**
+     * @param cacheKey la chiave da aggiornare
+     * @param cleanup eseguito una sola volta a refresh concluso o scartato
+     * @param refresh la richiesta al backend che aggiorna la cache
+     */
+    public void refresh(String cacheKey, Runnable cleanup, Supplier<Mono<Void>> refresh) {
+        if (!refreshing.add(cacheKey)) {
+            cleanup.run();
+            return; // refresh già in corso su questa replica
+        }
+        Mono<Boolean> acquired = distributed
+                ? redisGuard.guard(RedisGuard.Operation.LOCK,
+                                redisTemplate.opsForValue().setIfAbsent(cacheKey + LOCK_SUFFIX, "1", lockTtl))
+                        .onErrorReturn(true)
+                : Mono.just(true);
+
+        acquired
+                .flatMap(owner -> owner ? Mono.defer(refresh) : Mono.empty())
+                .doOnError(e -> logger.warn("[BackgroundRefresher] Refresh failed for key: {}", cacheKey, e))
+                .onErrorResume(e -> Mono.empty())
+                .doFinally(signal -> {
+                    refreshing.remove(cacheKey);
+                    cleanup.run();
+                })
+                .subscribe();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compressione gzip dei body in cache (JDK Deflater), con misura del tempo CPU.
+ */
+public class BodyCompressor {
+
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private static final boolean cpuTimeSupported = threadMXBean.isCurrentThreadCpuTimeSupported();
+
+    private final long threshold;
+    private final CacheMetrics metrics;
+
+    /**
+     * @param threshold dimensione minima del body da comprimere, 0 per disabilitare
+     * @param metrics metriche della route
+     */
+    public BodyCompressor(long threshold, CacheMetrics metrics) {
+        this.threshold = threshold;
+        this.metrics = metrics;
+    }
+
+    public boolean shouldCompress(CachedResponse cachedResponse) {
+        return threshold > 0
+                && !cachedResponse.isGzipped()
+                && cachedResponse.getBodyLength() >= threshold
+                && !hasContentEncoding(cachedResponse);
+    }
+
+    /**
+     * @return il body compresso, oppure null se la compressione non riduce la dimensione
+     */
+    public ByteBuffer compress(ByteBuffer body) {
+        long start = cpuTime();
+        int originalLength = body.remaining();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(originalLength / 4, 64));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            ByteBuffer source = body.duplicate();
+            if (source.hasArray()) {
+                gzip.write(source.array(), source.arrayOffset() + source.position(), source.remaining());
+            } else {
+                byte[] copy = new byte[source.remaining()];
+                source.get(copy);
+                gzip.write(copy);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        metrics.recordCompression(originalLength, out.size(), cpuTime() - start);
+        return out.size() < originalLength ? ByteBuffer.wrap(out.toByteArray()) : null;
+    }
+
+    public ByteBuffer decompress(ByteBuffer body) {
+        long start = cpuTime();
+        ByteBuffer source = body.duplicate();
+        try (InputStream gzip = new GZIPInputStream(new ByteBufferInputStream(source))) {
+            ByteBuffer result = ByteBuffer.wrap(gzip.readAllBytes());
+            metrics.recordDecompression(cpuTime() - start);
+            return result;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean hasContentEncoding(CachedResponse cachedResponse) {
+        return cachedResponse.getHeaders().keySet().stream()
+                .anyMatch(name -> name.equalsIgnoreCase("Content-Encoding"));
+    }
+
+    private static long cpuTime() {
+        return cpuTimeSupported ? threadMXBean.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    /*
+     * InputStream su un ByteBuffer, evita la copia del body compresso
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+}
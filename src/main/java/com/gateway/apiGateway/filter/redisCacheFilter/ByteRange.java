@@ -0,0 +1,95 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import java.util.Locale;
+
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Intervallo di byte richiesto con Range (RFC 9110 14), risolto sulla lunghezza del body in cache.
+ * Si serve un solo intervallo: richieste con più intervalli, malformate o con un If-Range che non
+ * corrisponde all'ETag dell'entry ricevono l'intero body con 200, come consentito dalla specifica.
+ *
+ * @param start il primo byte, incluso
+ * @param end l'ultimo byte, incluso
+ */
+public record ByteRange(long start, long end) {
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    // Range valido ma fuori dal body: 416 Range Not Satisfiable
+    public static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+    public long length() {
+        return end - start + 1;
+    }
+
+    public String contentRange(long total) {
+        return this == UNSATISFIABLE ? "bytes */" + total : "bytes " + start + "-" + end + "/" + total;
+    }
+
+    /**
+     * @param requestHeaders gli header della richiesta
+     * @param etag l'ETag dell'entry in cache
+     * @param total la lunghezza del body in cache
+     * @return l'intervallo da servire, {@link #UNSATISFIABLE}, oppure null per servire l'intero body
+     */
+    public static ByteRange resolve(HttpHeaders requestHeaders, String etag, long total) {
+        String range = requestHeaders.getFirst(HttpHeaders.RANGE);
+        if (range == null) {
+            return null;
+        }
+        String ifRange = requestHeaders.getFirst(HttpHeaders.IF_RANGE);
+        // If-Range richiede un confronto forte; una data non è verificabile sull'entry: body intero
+        if (ifRange != null && (etag == null || etag.startsWith("W/") || !ifRange.trim().equals(etag))) {
+            return null;
+        }
+        String value = range.trim();
+        if (!value.toLowerCase(Locale.ROOT).startsWith(BYTES_UNIT) || value.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = value.substring(BYTES_UNIT.length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // suffisso: gli ultimi n byte
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || total == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new ByteRange(Math.max(total - suffix, 0), total - 1);
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (start < 0 || end < start) {
+                return null;
+            }
+            if (start >= total) {
+                return UNSATISFIABLE;
+            }
+            return new ByteRange(start, Math.min(end, total - 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Codec binario versionato delle entry di cache (MessagePack).
+ *
+ * Dalla v4 metadati e body sono chiavi Redis distinte: i metadati (piccoli) bastano
+ * per rispondere 304 a If-None-Match senza leggere il body, salvato come byte grezzi.
+ *
+ * Layout v5 (metadati): come v4 seguito da [chunkSize][chunkGeneration], per le entry con body a segmenti.
+ * Layout v4 (metadati): [versione][status][expiresAt][freshUntil][computeTimeMs][flags][etag][bodyLength][header]
+ * Layout v3: [versione][status][expiresAt][freshUntil][computeTimeMs][flags][header][body: bin]
+ * Layout v2: come v3 senza flags.
+ * Layout v1: come v2 senza freshUntil e computeTimeMs.
+ *
+ * Il body non viene copiato in decodifica: la {@link CachedResponse} espone una vista
+ * sul valore letto da Redis, che il decorator avvolge direttamente in un DataBuffer.
+ * Le entry v1-v3 e quelle JSON scritte dalle versioni precedenti restano leggibili.
+ */
+public class CacheEntryCodec {
+
+    public static final int VERSION = 5;
+    private static final int FIRST_SPLIT_VERSION = 4;
+    private static final int FIRST_CHUNKED_VERSION = 5;
+
+    private static final byte LEGACY_JSON_MARKER = '{';
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    public byte[] encodeMetadata(CachedResponse cachedResponse) throws IOException {
+        try (MessageBufferPacker packer = MessagePack.newDefaultBufferPacker()) {
+            packer.packInt(VERSION);
+            packer.packInt(cachedResponse.getStatusCode());
+            packer.packLong(cachedResponse.getExpiresAt());
+            packer.packLong(cachedResponse.getFreshUntil());
+            packer.packLong(cachedResponse.getComputeTimeMs());
+            packer.packInt(cachedResponse.getFlags());
+            if (cachedResponse.getEtag() != null) {
+                packer.packString(cachedResponse.getEtag());
+            } else {
+                packer.packNil();
+            }
+            packer.packInt(cachedResponse.getBodyLength());
+            packer.packInt(cachedResponse.getChunkSize());
+            packer.packLong(cachedResponse.getChunkGeneration());
+
+            Map<String, List<String>> headers = cachedResponse.getHeaders();
+            packer.packMapHeader(headers.size());
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                packer.packString(header.getKey());
+                packer.packArrayHeader(header.getValue().size());
+                for (String value : header.getValue()) {
+                    packer.packString(value);
+                }
+            }
+            return packer.toByteArray();
+        }
+    }
+
+    /*
+     * Body da salvare nella chiave dedicata, senza copia quando il buffer copre l'intero array
+     */
+    public byte[] encodeBody(CachedResponse cachedResponse) {
+        ByteBuffer body = cachedResponse.getBody().duplicate();
+        if (body.hasArray() && body.arrayOffset() == 0 && body.position() == 0
+                && body.remaining() == body.array().length) {
+            return body.array();
+        }
+        byte[] copy = new byte[body.remaining()];
+        body.get(copy);
+        return copy;
+    }
+
+    /**
+     * Decodifica i metadati di un'entry. Per le entry precedenti alla v4 il body è incluso,
+     * altrimenti {@link CachedResponse#hasBody()} è false e va letto dalla chiave dedicata.
+     */
+    public CachedResponse decode(byte[] raw) throws IOException {
+        if (raw.length > 0 && raw[0] == LEGACY_JSON_MARKER) {
+            return decodeLegacyJson(raw);
+        }
+        try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(raw)) {
+            int version = unpacker.unpackInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Versione del formato di cache non supportata: " + version);
+            }
+            int status = unpacker.unpackInt();
+            long expiresAt = unpacker.unpackLong();
+            long freshUntil = version >= 2 ? unpacker.unpackLong() : 0;
+            long computeTimeMs = version >= 2 ? unpacker.unpackLong() : 0;
+            int flags = version >= 3 ? unpacker.unpackInt() : 0;
+            String etag = null;
+            int storedBodyLength = 0;
+            if (version >= FIRST_SPLIT_VERSION) {
+                etag = unpacker.tryUnpackNil() ? null : unpacker.unpackString();
+                storedBodyLength = unpacker.unpackInt();
+            }
+            int chunkSize = 0;
+            long chunkGeneration = 0;
+            if (version >= FIRST_CHUNKED_VERSION) {
+                chunkSize = unpacker.unpackInt();
+                chunkGeneration = unpacker.unpackLong();
+            }
+
+            int headerCount = unpacker.unpackMapHeader();
+            Map<String, List<String>> headers = new LinkedHashMap<>(headerCount * 2);
+            for (int i = 0; i < headerCount; i++) {
+                String name = unpacker.unpackString();
+                int valueCount = unpacker.unpackArrayHeader();
+                List<String> values = new ArrayList<>(valueCount);
+                for (int j = 0; j < valueCount; j++) {
+                    values.add(unpacker.unpackString());
+                }
+                headers.put(name, values);
+            }
+
+            ByteBuffer body = null;
+            if (version < FIRST_SPLIT_VERSION) {
+                int bodyLength = unpacker.unpackBinaryHeader();
+                int bodyOffset = (int) unpacker.getTotalReadBytes();
+                body = ByteBuffer.wrap(raw, bodyOffset, bodyLength).slice();
+            }
+
+            CachedResponse cachedResponse = new CachedResponse(body, headers, status);
+            cachedResponse.setExpiresAt(expiresAt);
+            cachedResponse.setFreshUntil(freshUntil);
+            cachedResponse.setComputeTimeMs(computeTimeMs);
+            cachedResponse.setFlags(flags);
+            cachedResponse.setEtag(etag);
+            cachedResponse.setChunkSize(chunkSize);
+            cachedResponse.setChunkGeneration(chunkGeneration);
+            if (body == null) {
+                cachedResponse.setBodyLength(storedBodyLength);
+            }
+            return cachedResponse;
+        }
+    }
+
+    /*
+     * Associa ai metadati il body letto dalla chiave dedicata
+     */
+    public CachedResponse attachBody(CachedResponse metadata, byte[] body) throws IOException {
+        if (body.length != metadata.getBodyLength()) {
+            throw new IOException("Body in cache incoerente con i metadati: attesi "
+                    + metadata.getBodyLength() + " byte, letti " + body.length);
+        }
+        metadata.setBody(ByteBuffer.wrap(body));
+        return metadata;
+    }
+
+    /*
+     * Formato precedente: JSON con body come stringa UTF-8 e status come "200 OK"
+     */
+    private CachedResponse decodeLegacyJson(byte[] raw) throws IOException {
+        JsonNode node = objectMapper.readTree(raw);
+
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        JsonNode headersNode = node.path("headers");
+        Iterator<Map.Entry<String, JsonNode>> fields = headersNode.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            List<String> values = new ArrayList<>();
+            field.getValue().forEach(value -> values.add(value.asText()));
+            headers.put(field.getKey(), values);
+        }
+
+        String statusText = node.path("statusCode").asText("200");
+        int spaceIdx = statusText.indexOf(' ');
+        int status = Integer.parseInt(spaceIdx > 0 ? statusText.substring(0, spaceIdx) : statusText);
+
+        byte[] body = node.path("body").asText("").getBytes(StandardCharsets.UTF_8);
+        CachedResponse cachedResponse = new CachedResponse(ByteBuffer.wrap(body), headers, status);
+        cachedResponse.setExpiresAt(node.path("expiresAt").asLong(0));
+        return cachedResponse;
+    }
+}
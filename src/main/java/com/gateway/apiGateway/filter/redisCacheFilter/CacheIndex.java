@@ -0,0 +1,155 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import com.gateway.apiGateway.redis.RedisGuard;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Indici delle entry in cache per prefisso di route e per tag, usati dall'invalidazione
+ * per non dover fare SCAN dell'intero keyspace.
+ * Ogni indice è un sorted set con score = scadenza dell'entry: i membri scaduti vengono
+ * rimossi a ogni scrittura e l'indice stesso scade con l'entry più longeva.
+ */
+public class CacheIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheIndex.class);
+
+    public static final String PREFIX_INDEX = "gateway:cache:idx:prefix:";
+    public static final String TAG_INDEX = "gateway:cache:idx:tag:";
+    public static final String PREFIXES = "gateway:cache:idx:prefixes";
+    public static final String NEGATIVE_INDEX = "gateway:cache:idx:negative:";
+
+    private static final int SCAN_COUNT = 1000;
+
+    /*
+     * KEYS = indici, ARGV = [membro, scadenza, ttl in ms, istante corrente, prefisso]
+     * Il TTL dell'indice viene solo esteso, mai accorciato
+     */
+    private static final RedisScript<Long> ADD_SCRIPT = RedisScript.of(
+            "for i, key in ipairs(KEYS) do "
+            + "redis.call('ZADD', key, ARGV[2], ARGV[1]) "
+            + "redis.call('ZREMRANGEBYSCORE', key, '-inf', ARGV[4]) "
+            + "local pttl = redis.call('PTTL', key) "
+            + "if pttl < tonumber(ARGV[3]) then redis.call('PEXPIRE', key, ARGV[3]) end "
+            + "end "
+            + "redis.call('SADD', '" + PREFIXES + "', ARGV[5]) "
+            + "return #KEYS", Long.class);
+
+    /*
+     * KEYS = [indice negativo della route], ARGV = [membro, scadenza, istante corrente, massimo, ttl in ms]
+     * Oltre il massimo vengono tolte dall'indice le entry più vicine alla scadenza; restituisce le chiavi tolte,
+     * da cancellare sul nodo della cache che le contiene
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> ADD_NEGATIVE_SCRIPT = RedisScript.of(
+            "redis.call('ZADD', KEYS[1], ARGV[2], ARGV[1]) "
+            + "redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', ARGV[3]) "
+            + "local evicted = {} "
+            + "local over = redis.call('ZCARD', KEYS[1]) - tonumber(ARGV[4]) "
+            + "if over > 0 then "
+            + "  evicted = redis.call('ZRANGE', KEYS[1], 0, over - 1) "
+            + "  redis.call('ZREMRANGEBYRANK', KEYS[1], 0, over - 1) "
+            + "end "
+            + "local pttl = redis.call('PTTL', KEYS[1]) "
+            + "if pttl < tonumber(ARGV[5]) then redis.call('PEXPIRE', KEYS[1], ARGV[5]) end "
+            + "return evicted", List.class);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final RedisGuard redisGuard; // solo le scritture dal percorso delle richieste, non le scansioni della purge
+
+    public CacheIndex(ReactiveStringRedisTemplate redisTemplate, RedisGuard redisGuard) {
+        this.redisTemplate = redisTemplate;
+        this.redisGuard = redisGuard;
+    }
+
+    /**
+     * Registra l'entry nell'indice del prefisso e in quelli dei suoi tag.
+     *
+     * @param cachePrefix il prefisso della route
+     * @param cacheKey la chiave dell'entry
+     * @param tags i tag assegnati dall'upstream
+     * @param expiresAt la scadenza dell'entry (epoch millis)
+     * @return il Mono di completamento
+     */
+    public Mono<Void> add(String cachePrefix, String cacheKey, Collection<String> tags, long expiresAt) {
+        long now = System.currentTimeMillis();
+        List<String> indexes = new ArrayList<>(tags.size() + 1);
+        indexes.add(PREFIX_INDEX + cachePrefix);
+        tags.forEach(tag -> indexes.add(TAG_INDEX + tag));
+        return redisGuard.guard(RedisGuard.Operation.WRITE, redisTemplate.execute(ADD_SCRIPT, indexes,
+                        List.of(cacheKey, String.valueOf(expiresAt), String.valueOf(Math.max(expiresAt - now, 1000)),
+                                String.valueOf(now), cachePrefix)))
+                .doOnError(e -> logger.warn("Impossibile indicizzare la chiave {}", cacheKey, e))
+                .onErrorResume(e -> Flux.empty())
+                .then();
+    }
+
+    /**
+     * Registra un'entry negativa (404, 410...) della route, mantenendone al più maxEntries.
+     *
+     * @param cachePrefix il prefisso della route
+     * @param cacheKey la chiave dell'entry
+     * @param expiresAt la scadenza dell'entry (epoch millis)
+     * @param maxEntries il numero massimo di entry negative della route
+     * @return le chiavi tolte dall'indice per restare entro il limite
+     */
+    public Flux<String> addNegative(String cachePrefix, String cacheKey, long expiresAt, long maxEntries) {
+        long now = System.currentTimeMillis();
+        return redisGuard.guard(RedisGuard.Operation.WRITE, redisTemplate.execute(ADD_NEGATIVE_SCRIPT,
+                        List.of(NEGATIVE_INDEX + cachePrefix),
+                        List.of(cacheKey, String.valueOf(expiresAt), String.valueOf(now), String.valueOf(maxEntries),
+                                String.valueOf(Math.max(expiresAt - now, 1000)))))
+                .flatMapIterable(evicted -> (List<?>) evicted)
+                .map(String::valueOf)
+                .doOnError(e -> logger.warn("Impossibile indicizzare l'entry negativa {}", cacheKey, e))
+                .onErrorResume(e -> Flux.empty());
+    }
+
+    /**
+     * @param index la chiave dell'indice
+     * @return le chiavi indicizzate, lette a blocchi con ZSCAN
+     */
+    public Flux<String> members(String index) {
+        return redisTemplate.opsForZSet()
+                .scan(index, ScanOptions.scanOptions().count(SCAN_COUNT).build())
+                .map(tuple -> tuple.getValue());
+    }
+
+    public Mono<Long> remove(String index, Collection<String> cacheKeys) {
+        return redisTemplate.opsForZSet().remove(index, cacheKeys.toArray());
+    }
+
+    /**
+     * @return i prefissi di route che hanno un indice
+     */
+    public Flux<String> prefixes() {
+        return redisTemplate.opsForSet().members(PREFIXES);
+    }
+}
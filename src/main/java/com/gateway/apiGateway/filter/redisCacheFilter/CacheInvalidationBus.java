@@ -0,0 +1,132 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.redis.connection.ReactiveSubscription.Message;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+/**
+ * Canale di invalidazione dei tier L1 tramite Redis pub/sub.
+ * Ogni replica del gateway pubblica le chiavi modificate e invalida
+ * le proprie copie locali alla ricezione dei messaggi delle altre repliche.
+ */
+public class CacheInvalidationBus implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheInvalidationBus.class);
+
+    public static final String CHANNEL = "gateway:cache:invalidation";
+    private static final char SEPARATOR = '|';
+    private static final char KEY_SEPARATOR = '\n'; // più chiavi nello stesso messaggio
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final String instanceId = UUID.randomUUID().toString();
+    private final Map<String, LocalCacheTier> tiers = new ConcurrentHashMap<>(); // per prefisso di route
+    private Disposable subscription;
+
+    public CacheInvalidationBus(ReactiveStringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    /**
+     * Registra il tier L1 di una route; quando le route vengono ricaricate il tier precedente
+     * della stessa route viene sostituito e non riceve più invalidazioni.
+     *
+     * @param cachePrefix il prefisso della route
+     * @param tier il tier da invalidare
+     */
+    public void register(String cachePrefix, LocalCacheTier tier) {
+        tiers.put(cachePrefix, tier);
+    }
+
+    /**
+     * @param cachePrefix il prefisso di una route che non ha più un tier L1
+     */
+    public void unregister(String cachePrefix) {
+        tiers.remove(cachePrefix);
+    }
+
+    /*
+     * Notifica alle altre repliche che la chiave è cambiata (fire and forget)
+     */
+    public void publish(String cacheKey) {
+        redisTemplate.convertAndSend(CHANNEL, instanceId + SEPARATOR + cacheKey)
+                .doOnError(e -> logger.warn("Impossibile pubblicare l'invalidazione per la chiave {}", cacheKey, e))
+                .onErrorResume(e -> Mono.empty())
+                .subscribe();
+    }
+
+    public void invalidateLocal(String cacheKey) {
+        tiers.values().forEach(tier -> tier.invalidate(cacheKey));
+    }
+
+    /*
+     * Invalidazione di un blocco di chiavi, localmente e sulle altre repliche con un solo messaggio
+     */
+    public void invalidate(Collection<String> cacheKeys) {
+        if (cacheKeys.isEmpty()) {
+            return;
+        }
+        cacheKeys.forEach(this::invalidateLocal);
+        publish(String.join(String.valueOf(KEY_SEPARATOR), cacheKeys));
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        // defer: listenToChannel apre la connessione subito, Redis potrebbe non essere ancora disponibile
+        subscription = Flux.defer(() -> redisTemplate.listenToChannel(CHANNEL))
+                .map(Message::getMessage)
+                .doOnError(e -> logger.warn("Sottoscrizione al canale {} interrotta, nuovo tentativo", CHANNEL, e))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1)).maxBackoff(Duration.ofSeconds(30)))
+                .subscribe(this::onMessage);
+    }
+
+    private void onMessage(String message) {
+        int idx = message.indexOf(SEPARATOR);
+        if (idx < 0) {
+            return;
+        }
+        // I messaggi pubblicati da questa replica sono già applicati localmente
+        if (message.regionMatches(0, instanceId, 0, idx) && idx == instanceId.length()) {
+            return;
+        }
+        for (String cacheKey : message.substring(idx + 1).split(String.valueOf(KEY_SEPARATOR))) {
+            invalidateLocal(cacheKey);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.util.MultiValueMap;
+
+/**
+ * Regole con cui una route riduce la richiesta alla chiave della cache, per far convergere
+ * sulla stessa entry richieste equivalenti: parametri della query ammessi o ignorati
+ * (es. tracking e cache-buster), normalizzazione del path e dei valori ripetuti, header
+ * che differenziano la risposta (es. l'utente autenticato).
+ * <p>
+ * Il formato PLAIN produce prefisso + path + ":" + query ordinata [+ ":" + header]; senza regole
+ * coincide con la chiave storica. Il formato HASHED mantiene leggibili prefisso e path, che
+ * servono all'invalidazione per path, e riduce il resto a 22 caratteri base64url (128 bit dello
+ * SHA-256): la lunghezza della chiave su Redis resta limitata qualunque sia la query.
+ */
+public final class CacheKeyPolicy {
+
+    public enum Format {
+        PLAIN, HASHED
+    }
+
+    public static final CacheKeyPolicy LEGACY = new CacheKeyPolicy(Set.of(), Set.of(), false, false, false,
+            List.of(), Format.PLAIN);
+
+    private static final int MAX_HASHED_PATH = 128;  // oltre, nel formato HASHED il path viene troncato e marcato con "~"
+    private static final int HASHED_KEY_BYTES = 16;
+    private static final int HASHED_BODY_CHARS = 32; // hash del body abbreviato a 128 bit nel formato HASHED
+    private static final Base64.Encoder BASE64 = Base64.getUrlEncoder().withoutPadding();
+
+    private final Set<String> includeParams;
+    private final Set<String> excludeParams;
+    private final boolean normalizePath;
+    private final boolean lowercasePath;
+    private final boolean sortValues;
+    private final List<String> keyHeaders;
+    private final Format format;
+
+    /**
+     * @param includeParams i parametri della query da tenere (nome o prefisso terminato da "*"), vuoto = tutti
+     * @param excludeParams i parametri da ignorare, stessa sintassi
+     * @param normalizePath se rimuovere gli slash doppi e quello finale
+     * @param lowercasePath se portare il path in minuscolo
+     * @param sortValues se ordinare i valori ripetuti di uno stesso parametro
+     * @param keyHeaders gli header della richiesta che entrano nella chiave, nell'ordine dato
+     * @param format il formato della chiave
+     */
+    public CacheKeyPolicy(Set<String> includeParams, Set<String> excludeParams, boolean normalizePath,
+            boolean lowercasePath, boolean sortValues, List<String> keyHeaders, Format format) {
+        this.includeParams = Set.copyOf(includeParams);
+        this.excludeParams = Set.copyOf(excludeParams);
+        this.normalizePath = normalizePath;
+        this.lowercasePath = lowercasePath;
+        this.sortValues = sortValues;
+        this.keyHeaders = List.copyOf(keyHeaders);
+        this.format = format;
+    }
+
+    /**
+     * @param cachePrefix il prefisso della route
+     * @param request la richiesta
+     * @return la chiave senza l'hash del body
+     */
+    public String keyBase(String cachePrefix, ServerHttpRequest request) {
+        String path = path(request.getURI().getPath());
+        String query = queryParams(request.getQueryParams());
+        String dimensions = dimensions(request.getHeaders());
+        if (format == Format.HASHED) {
+            MessageDigest digest = CacheKeys.sha256();
+            digest.update(path.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(query.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(dimensions.getBytes(StandardCharsets.UTF_8));
+            String visiblePath = path.length() <= MAX_HASHED_PATH ? path : path.substring(0, MAX_HASHED_PATH) + "~";
+            return cachePrefix + visiblePath + ":" + BASE64.encodeToString(Arrays.copyOf(digest.digest(), HASHED_KEY_BYTES));
+        }
+        String keyBase = cachePrefix + path + ":" + query;
+        return dimensions.isEmpty() ? keyBase : keyBase + ":" + dimensions;
+    }
+
+    /**
+     * @param keyBase la chiave senza body
+     * @param bodyHash lo SHA-256 esadecimale del body
+     * @return la chiave completa
+     */
+    public String withBodyHash(String keyBase, String bodyHash) {
+        return CacheKeys.withBodyHash(keyBase, format == Format.HASHED ? bodyHash.substring(0, HASHED_BODY_CHARS) : bodyHash);
+    }
+
+    private String path(String path) {
+        if (normalizePath) {
+            path = path.replaceAll("/{2,}", "/");
+            if (path.length() > 1 && path.endsWith("/")) {
+                path = path.substring(0, path.length() - 1);
+            }
+        }
+        return lowercasePath ? path.toLowerCase(Locale.ROOT) : path;
+    }
+
+    /*
+     * Parametri della query ammessi, ordinati per chiave, valori multipli separati da virgola
+     */
+    private String queryParams(MultiValueMap<String, String> params) {
+        return params.entrySet().stream()
+                .filter(entry -> isKept(entry.getKey()))
+                .sorted(Map.Entry.comparingByKey())
+                .map(entry -> entry.getKey() + "=" + String.join(",", values(entry.getValue())))
+                .collect(Collectors.joining("&"));
+    }
+
+    private List<String> values(List<String> values) {
+        if (!sortValues || values.size() < 2) {
+            return values;
+        }
+        return values.stream().sorted(Comparator.nullsFirst(Comparator.naturalOrder())).toList();
+    }
+
+    private boolean isKept(String name) {
+        return (includeParams.isEmpty() || matches(includeParams, name)) && !matches(excludeParams, name);
+    }
+
+    private static boolean matches(Set<String> patterns, String name) {
+        for (String pattern : patterns) {
+            if (pattern.endsWith("*") ? name.startsWith(pattern.substring(0, pattern.length() - 1)) : name.equals(pattern)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Header che differenziano la chiave, "-" se assenti così che l'assenza sia a sua volta una variante
+     */
+    private String dimensions(HttpHeaders headers) {
+        if (keyHeaders.isEmpty()) {
+            return "";
+        }
+        return keyHeaders.stream()
+                .map(name -> {
+                    List<String> values = headers.getOrEmpty(name);
+                    String value = values.isEmpty() ? "-" : values.stream().map(String::trim).collect(Collectors.joining(","));
+                    return name.toLowerCase(Locale.ROOT) + "=" + value;
+                })
+                .collect(Collectors.joining("&"));
+    }
+}
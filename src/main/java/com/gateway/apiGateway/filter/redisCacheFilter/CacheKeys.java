@@ -0,0 +1,80 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+
+/**
+ * Parti della chiave della cache comuni a tutte le policy: per i metodi diversi da GET
+ * la chiave comprende lo SHA-256 del body. La parte che dipende dalla richiesta è in CacheKeyPolicy.
+ * Condivisa tra RedisCacheFilter e la simulazione ShadowCache, che devono produrre le stesse chiavi.
+ */
+public final class CacheKeys {
+
+    private CacheKeys() {
+    }
+
+    /**
+     * @param keyBase la chiave senza body
+     * @param bodyHash lo SHA-256 esadecimale del body
+     * @return la chiave completa
+     */
+    public static String withBodyHash(String keyBase, String bodyHash) {
+        return keyBase + ":" + bodyHash;
+    }
+
+    /**
+     * @param request la richiesta
+     * @return true se la chiave comprende l'hash del body (ogni metodo tranne GET)
+     */
+    public static boolean isKeyedByBody(ServerHttpRequest request) {
+        return !HttpMethod.GET.equals(request.getMethod());
+    }
+
+    /**
+     * Il body viene trattenuto solo se ha una lunghezza nota entro maxHashableBodyBytes;
+     * upload più grandi o chunked passano senza cache, senza essere bufferizzati.
+     *
+     * @param request la richiesta
+     * @param maxHashableBodyBytes la dimensione massima del body da includere nella chiave
+     * @return true se la chiave si può calcolare
+     */
+    public static boolean isHashable(ServerHttpRequest request, long maxHashableBodyBytes) {
+        if (!isKeyedByBody(request)) {
+            return true;
+        }
+        long contentLength = request.getHeaders().getContentLength();
+        return contentLength >= 0 && contentLength <= maxHashableBodyBytes;
+    }
+
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Error computing SHA-256 hash", e);
+        }
+    }
+
+    public static String hex(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Metriche Micrometer della cache delle risposte, una istanza per route (tag route e prefix).
+ * Il rapporto di hit si ricava da gateway.cache.requests con i tag result.
+ */
+public class CacheMetrics {
+
+    /*
+     * Motivi per cui una richiesta o una risposta non passa dalla cache
+     */
+    public enum BypassReason {
+        METHOD,        // metodo non cacheabile sulla route
+        BODY,          // body della richiesta di lunghezza ignota o oltre maxHashableBodyBytes
+        STATUS,        // status della risposta non cacheabile
+        SIZE,          // body della risposta oltre maxCacheableBytes
+        CACHE_CONTROL  // no-store, private, max-age=0, Vary: *
+    }
+
+    public enum LookupOperation {
+        ENTRY, METADATA, BODY
+    }
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter staleHits;
+    private final Counter admitted;
+    private final Counter rejected;
+    private final Map<BypassReason, Counter> bypasses = new EnumMap<>(BypassReason.class);
+    private final Map<LookupOperation, Timer> lookups = new EnumMap<>(LookupOperation.class);
+    private final DistributionSummary entrySize;
+    private final Counter bytesSaved;
+    private final DistributionSummary compressionRatio;
+    private final Timer compressCpu;
+    private final Timer decompressCpu;
+    private final DistributionSummary learnedTtl;
+    private final Map<AdaptiveTtl.ContentChange, Counter> contentChanges = new EnumMap<>(AdaptiveTtl.ContentChange.class);
+
+    public CacheMetrics(MeterRegistry registry, String routeId, String cachePrefix) {
+        Tags tags = Tags.of("route", routeId != null ? routeId : "unknown", "prefix", cachePrefix);
+        this.hits = requests(registry, tags, "hit");
+        this.misses = requests(registry, tags, "miss");
+        this.staleHits = requests(registry, tags, "stale");
+        this.admitted = admission(registry, tags, "admit");
+        this.rejected = admission(registry, tags, "reject");
+        for (BypassReason reason : BypassReason.values()) {
+            bypasses.put(reason, Counter.builder("gateway.cache.bypass")
+                    .description("Richieste e risposte che non passano dalla cache, per motivo")
+                    .tags(tags)
+                    .tag("reason", reason.name().toLowerCase())
+                    .register(registry));
+        }
+        for (LookupOperation operation : LookupOperation.values()) {
+            lookups.put(operation, Timer.builder("gateway.cache.lookup")
+                    .description("Latenza delle letture da Redis")
+                    .tags(tags)
+                    .tag("operation", operation.name().toLowerCase())
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+        this.entrySize = DistributionSummary.builder("gateway.cache.entry.size")
+                .description("Dimensione serializzata delle entry salvate (metadati e body)")
+                .baseUnit("bytes")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry);
+        this.bytesSaved = Counter.builder("gateway.cache.bytes.saved")
+                .description("Byte di body serviti dalla cache invece che dall'upstream")
+                .baseUnit("bytes")
+                .tags(tags)
+                .register(registry);
+        this.compressionRatio = DistributionSummary.builder("gateway.cache.compression.ratio")
+                .description("Rapporto tra dimensione compressa e originale del body in cache")
+                .tags(tags)
+                .publishPercentiles(0.5, 0.95)
+                .register(registry);
+        this.compressCpu = Timer.builder("gateway.cache.compression.cpu")
+                .description("Tempo CPU speso per comprimere i body in cache")
+                .tags(tags)
+                .tag("operation", "compress")
+                .register(registry);
+        this.decompressCpu = Timer.builder("gateway.cache.compression.cpu")
+                .description("Tempo CPU speso per decomprimere i body in cache")
+                .tags(tags)
+                .tag("operation", "decompress")
+                .register(registry);
+        this.learnedTtl = DistributionSummary.builder("gateway.cache.ttl.learned")
+                .description("TTL assegnati dalla policy adattiva alle entry salvate")
+                .baseUnit("seconds")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry);
+        for (AdaptiveTtl.ContentChange change : AdaptiveTtl.ContentChange.values()) {
+            contentChanges.put(change, Counter.builder("gateway.cache.ttl.content")
+                    .description("Risposte confrontate dalla policy adattiva con la precedente della stessa chiave")
+                    .tags(tags)
+                    .tag("change", change.name().toLowerCase())
+                    .register(registry));
+        }
+    }
+
+    private static Counter requests(MeterRegistry registry, Tags tags, String result) {
+        return Counter.builder("gateway.cache.requests")
+                .description("Richieste servite dalla cache (hit, stale) o inoltrate all'upstream (miss)")
+                .tags(tags)
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private static Counter admission(MeterRegistry registry, Tags tags, String result) {
+        return Counter.builder("gateway.cache.admission")
+                .description("Risposte cacheabili salvate (admit) o scartate dal filtro TinyLFU (reject)")
+                .tags(tags)
+                .tag("result", result)
+                .register(registry);
+    }
+
+    public void recordHit() {
+        hits.increment();
+    }
+
+    public void recordMiss() {
+        misses.increment();
+    }
+
+    public void recordStaleHit() {
+        staleHits.increment();
+    }
+
+    public void recordAdmission(boolean admit) {
+        (admit ? admitted : rejected).increment();
+    }
+
+    public void recordBypass(BypassReason reason) {
+        bypasses.get(reason).increment();
+    }
+
+    public void recordLookup(LookupOperation operation, long nanos) {
+        lookups.get(operation).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordEntrySize(int bytes) {
+        entrySize.record(bytes);
+    }
+
+    public void recordBytesSaved(long bytes) {
+        bytesSaved.increment(bytes);
+    }
+
+    public void recordCompression(int originalBytes, int compressedBytes, long cpuNanos) {
+        if (originalBytes > 0) {
+            compressionRatio.record((double) compressedBytes / originalBytes);
+        }
+        compressCpu.record(cpuNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordDecompression(long cpuNanos) {
+        decompressCpu.record(cpuNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordLearnedTtl(AdaptiveTtl.ContentChange change, long ttlSeconds) {
+        contentChanges.get(change).increment();
+        learnedTtl.record(ttlSeconds);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.AntPathMatcher;
+
+import com.gateway.apiGateway.redis.CacheShardRouter;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Invalidazione delle entry per prefisso di route, per pattern di path o per tag.
+ * Le chiavi vengono lette dagli indici di {@link CacheIndex} e cancellate con UNLINK a blocchi,
+ * così una purge estesa non blocca né Redis né l'event loop del gateway.
+ */
+public class CachePurgeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachePurgeService.class);
+
+    private static final int UNLINK_BATCH = 500;
+
+    private final CacheShardRouter shards;
+    private final CacheIndex index;
+    private final CacheInvalidationBus invalidationBus;
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    public CachePurgeService(CacheShardRouter shards, CacheIndex index,
+            CacheInvalidationBus invalidationBus) {
+        this.shards = shards;
+        this.index = index;
+        this.invalidationBus = invalidationBus;
+    }
+
+    /**
+     * @param cachePrefix il prefisso della route (es. "gamerepo_cache:")
+     * @return il numero di entry invalidate
+     */
+    public Mono<Long> purgePrefix(String cachePrefix) {
+        String indexKey = CacheIndex.PREFIX_INDEX + cachePrefix;
+        return purge(indexKey, index.members(indexKey));
+    }
+
+    /**
+     * @param cachePrefix il prefisso della route, null per tutte le route
+     * @param pathPattern pattern Ant sul path della richiesta (es. "/games/**")
+     * @return il numero di entry invalidate
+     */
+    public Mono<Long> purgePath(String cachePrefix, String pathPattern) {
+        Flux<String> prefixes = cachePrefix != null ? Flux.just(cachePrefix) : index.prefixes();
+        return prefixes
+                .concatMap(prefix -> {
+                    String indexKey = CacheIndex.PREFIX_INDEX + prefix;
+                    return purge(indexKey, index.members(indexKey)
+                            .filter(cacheKey -> pathMatcher.match(pathPattern, extractPath(prefix, cacheKey))));
+                })
+                .reduce(0L, Long::sum);
+    }
+
+    /**
+     * @param tag il tag assegnato dall'upstream
+     * @return il numero di entry invalidate
+     */
+    public Mono<Long> purgeTag(String tag) {
+        String indexKey = CacheIndex.TAG_INDEX + tag;
+        return purge(indexKey, index.members(indexKey));
+    }
+
+    /*
+     * UNLINK di metadati e body a blocchi sui rispettivi nodi, poi rimozione dall'indice e invalidazione dei tier L1
+     */
+    private Mono<Long> purge(String indexKey, Flux<String> cacheKeys) {
+        return cacheKeys
+                .buffer(UNLINK_BATCH)
+                .concatMap(batch -> CacheService.unlink(shards, batch)
+                        .then(index.remove(indexKey, batch))
+                        .doOnSuccess(removed -> invalidationBus.invalidate(batch))
+                        .thenReturn((long) batch.size()))
+                .reduce(0L, Long::sum)
+                .doOnNext(purged -> logger.info("Invalidate {} entry dall'indice {}", purged, indexKey));
+    }
+
+    /*
+     * La chiave ha la forma prefisso + path + ":" + parametri [+ ":" + hash del body]
+     */
+    private static String extractPath(String cachePrefix, String cacheKey) {
+        if (!cacheKey.startsWith(cachePrefix)) {
+            return "";
+        }
+        int end = cacheKey.indexOf(':', cachePrefix.length());
+        return end < 0 ? cacheKey.substring(cachePrefix.length()) : cacheKey.substring(cachePrefix.length(), end);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.stream.StreamReceiver;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+/**
+ * Consumer dello stream Redis di invalidazione: i backend pubblicano le purge dopo una scrittura,
+ * es. {@code XADD gateway:cache:purge * type tag value game-42}.
+ * Campi: type = prefix | path | tag, value = prefisso, pattern o tag, prefix = route opzionale per type=path.
+ * Il consumer group fa eseguire ogni purge a una sola replica; le altre ricevono l'invalidazione
+ * dei tier L1 tramite {@link CacheInvalidationBus}.
+ */
+public class CachePurgeStreamListener implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachePurgeStreamListener.class);
+
+    public static final String STREAM = "gateway:cache:purge";
+    public static final String GROUP = "gateway-cache";
+
+    private final ReactiveRedisConnectionFactory connectionFactory;
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final CachePurgeService purgeService;
+    private final String consumerName = UUID.randomUUID().toString();
+    private Disposable subscription;
+
+    public CachePurgeStreamListener(ReactiveRedisConnectionFactory connectionFactory,
+            ReactiveStringRedisTemplate redisTemplate, CachePurgeService purgeService) {
+        this.connectionFactory = connectionFactory;
+        this.redisTemplate = redisTemplate;
+        this.purgeService = purgeService;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        StreamReceiver<String, MapRecord<String, String, String>> receiver = StreamReceiver.create(connectionFactory);
+        subscription = Mono.defer(this::createGroup)
+                .thenMany(receiver.receiveAutoAck(Consumer.from(GROUP, consumerName),
+                        StreamOffset.create(STREAM, ReadOffset.lastConsumed())))
+                .concatMap(record -> apply(record.getValue())
+                        .onErrorResume(e -> {
+                            logger.warn("Purge {} fallita", record.getId(), e);
+                            return Mono.empty();
+                        }))
+                .doOnError(e -> logger.warn("Lettura dello stream {} interrotta, nuovo tentativo", STREAM, e))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1)).maxBackoff(Duration.ofSeconds(30)))
+                .subscribe();
+    }
+
+    /*
+     * Crea stream e gruppo se non esistono; BUSYGROUP significa che il gruppo c'è già
+     */
+    private Mono<Void> createGroup() {
+        return redisTemplate.opsForStream().createGroup(STREAM, ReadOffset.from("$"), GROUP)
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+
+    private Mono<Long> apply(Map<String, String> fields) {
+        String type = fields.getOrDefault("type", "");
+        String value = fields.get("value");
+        if (value == null || value.isEmpty()) {
+            logger.warn("Messaggio di purge senza value: {}", fields);
+            return Mono.empty();
+        }
+        switch (type) {
+            case "prefix":
+                return purgeService.purgePrefix(value);
+            case "path":
+                return purgeService.purgePath(fields.get("prefix"), value);
+            case "tag":
+                return purgeService.purgeTag(value);
+            default:
+                logger.warn("Tipo di purge sconosciuto: {}", type);
+                return Mono.empty();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+}
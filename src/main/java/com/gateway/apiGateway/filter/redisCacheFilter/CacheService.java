@@ -16,43 +16,457 @@
  */
 package com.gateway.apiGateway.filter.redisCacheFilter;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
-import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.http.HttpHeaders;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gateway.apiGateway.redis.CacheShard;
+import com.gateway.apiGateway.redis.CacheShardRouter;
+import com.gateway.apiGateway.redis.RedisGuard;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 public class CacheService {
 
-    private static final ObjectMapper objectMapper = new ObjectMapper();
-    private final ReactiveStringRedisTemplate redisTemplate;
+    private static final Logger logger = LoggerFactory.getLogger(CacheService.class);
 
-    public CacheService(ReactiveStringRedisTemplate redisTemplate) {
-        this.redisTemplate = redisTemplate;
+    /*
+     * Il body vive in una chiave separata dai metadati, con TTL leggermente più lungo:
+     * chi trova i metadati trova anche il body
+     */
+    public static final String BODY_SUFFIX = "|body";
+    private static final long BODY_TTL_SLACK_SECONDS = 5;
+
+    /*
+     * I body a segmenti stanno in un hash accanto ai metadati, con campi "generazione:indice":
+     * un refresh scrive una generazione nuova e solo dopo i metadati rimandano a quella
+     */
+    public static final String CHUNKS_SUFFIX = "|chunks";
+    private static final int CHUNK_READ_AHEAD = 2; // segmenti letti in anticipo durante lo streaming
+
+    /*
+     * KEYS = [hash dei segmenti], ARGV = [generazione corrente]
+     * Rimuove i segmenti delle generazioni precedenti
+     */
+    private static final RedisScript<Long> DROP_OLD_CHUNKS_SCRIPT = RedisScript.of(
+            "local prefix = ARGV[1] .. ':' "
+            + "local removed = 0 "
+            + "for _, field in ipairs(redis.call('HKEYS', KEYS[1])) do "
+            + "  if string.sub(field, 1, #prefix) ~= prefix then "
+            + "    redis.call('HDEL', KEYS[1], field) "
+            + "    removed = removed + 1 "
+            + "  end "
+            + "end "
+            + "return removed", Long.class);
+
+    /*
+     * KEYS = [hash dei segmenti], ARGV = [generazione, numero di segmenti]
+     * 1 se tutti i segmenti della generazione sono presenti
+     */
+    private static final RedisScript<Long> CHUNKS_PRESENT_SCRIPT = RedisScript.of(
+            "for i = 0, tonumber(ARGV[2]) - 1 do "
+            + "  if redis.call('HEXISTS', KEYS[1], ARGV[1] .. ':' .. i) == 0 then return 0 end "
+            + "end "
+            + "return 1", Long.class);
+
+    private static final CacheEntryCodec codec = new CacheEntryCodec();
+    private final CacheShardRouter shards; // nodo Redis di ogni entry; letture accorpate dal batcher del nodo
+    private final RedisGuard redisGuard; // scadenze e circuit breaker: letture fallite = miss, scritture scartate
+    private final LocalCacheTier localTier; // null se il tier L1 è disabilitato
+    private final CacheInvalidationBus invalidationBus;
+    private final BodyCompressor compressor;
+    private final CacheIndex index;
+    private final String cachePrefix;
+    private final String tagHeader; // header con cui l'upstream assegna i tag di invalidazione
+    private final CacheMetrics metrics;
+
+    public CacheService(CacheShardRouter shards, RedisGuard redisGuard, LocalCacheTier localTier,
+            CacheInvalidationBus invalidationBus, BodyCompressor compressor,
+            CacheIndex index, String cachePrefix, String tagHeader, CacheMetrics metrics) {
+        this.shards = shards;
+        this.redisGuard = redisGuard;
+        this.localTier = localTier;
+        this.invalidationBus = invalidationBus;
+        this.compressor = compressor;
+        this.index = index;
+        this.cachePrefix = cachePrefix;
+        this.tagHeader = tagHeader;
+        this.metrics = metrics;
     }
 
-    public Mono<Boolean> save(String cacheKey, CachedResponse cachedResponse, Long ttl) {
+    public Mono<Boolean> save(String cacheKey, CachedResponse response, Long ttl) {
+        try {
+            CachedResponse cachedResponse = compress(response);
+            byte[] metadata = codec.encodeMetadata(cachedResponse);
+            byte[] body = codec.encodeBody(cachedResponse);
+            metrics.recordEntrySize(metadata.length + body.length);
+            CacheShard shard = shards.shardFor(cacheKey);
+            if (!shard.isHealthy() || !redisGuard.isAvailable()) {
+                return Mono.just(false); // nodo non disponibile o Redis degradato: la scrittura viene scartata
+            }
+            // Sovrascrive: i refresh in background devono sostituire l'entry stale
+            return redisGuard.guard(RedisGuard.Operation.WRITE, shard.getTemplate().opsForValue()
+                            .set(cacheKey + BODY_SUFFIX, body, Duration.ofSeconds(ttl + BODY_TTL_SLACK_SECONDS))
+                            .then(shard.getTemplate().opsForValue().set(cacheKey, metadata, Duration.ofSeconds(ttl))))
+                    .flatMap(saved -> {
+                        if (!saved) {
+                            return Mono.just(false);
+                        }
+                        onStored(cacheKey, cachedResponse);
+                        return index.add(cachePrefix, cacheKey, tags(cachedResponse), expiresAt(ttl)).thenReturn(true);
+                    });
+        } catch (IOException e) {
+            return Mono.error(e);
+        }
+    }
+
+    /*
+     * Marker sulla chiave base di una risorsa con Vary: solo i nomi degli header, senza body
+     */
+    public Mono<Boolean> saveVaryMarker(String cacheKey, List<String> varyNames, Long ttl) {
+        CachedResponse marker = new CachedResponse(null, Map.of(HttpHeaders.VARY, List.copyOf(varyNames)), 0);
+        marker.setFlags(CachedResponse.FLAG_VARY_MARKER);
+        marker.setExpiresAt(System.currentTimeMillis() + ttl * 1000);
+        CacheShard shard = shards.shardFor(cacheKey);
+        if (!shard.isHealthy() || !redisGuard.isAvailable()) {
+            return Mono.just(false);
+        }
         try {
-            String jsonToCache = objectMapper.writeValueAsString(cachedResponse);
-            return redisTemplate.opsForValue().setIfAbsent(cacheKey, jsonToCache, Duration.ofSeconds(ttl));
-        } catch (JsonProcessingException e) {
+            return redisGuard.guard(RedisGuard.Operation.WRITE, shard.getTemplate().opsForValue()
+                            .set(cacheKey, codec.encodeMetadata(marker), Duration.ofSeconds(ttl)))
+                    .flatMap(saved -> {
+                        if (!saved) {
+                            return Mono.just(false);
+                        }
+                        onStored(cacheKey, marker);
+                        return index.add(cachePrefix, cacheKey, List.of(), expiresAt(ttl)).thenReturn(true);
+                    });
+        } catch (IOException e) {
             return Mono.error(e);
         }
     }
 
+    /*
+     * Entry negativa già salvata: la registra nel limite della route e rimuove dai tier L1
+     * quelle eliminate per farle posto
+     */
+    public Mono<Void> trackNegative(String cacheKey, Long ttl, long maxEntries) {
+        return index.addNegative(cachePrefix, cacheKey, expiresAt(ttl), maxEntries)
+                .collectList()
+                .flatMap(evicted -> unlink(shards, evicted).thenReturn(evicted))
+                .doOnNext(evicted -> {
+                    if (invalidationBus != null) {
+                        invalidationBus.invalidate(evicted);
+                    } else if (localTier != null) {
+                        evicted.forEach(localTier::invalidate);
+                    }
+                })
+                .then();
+    }
+
+    /*
+     * Un segmento del body di un'entry a segmenti; il TTL dell'hash copre la scrittura in corso
+     */
+    public Mono<Boolean> saveChunk(String cacheKey, long generation, int index, byte[] chunk, long ttl) {
+        CacheShard shard = shards.shardFor(cacheKey);
+        if (!shard.isHealthy() || !redisGuard.isAvailable()) {
+            return Mono.just(false);
+        }
+        String chunksKey = cacheKey + CHUNKS_SUFFIX;
+        return redisGuard.guard(RedisGuard.Operation.WRITE, shard.getTemplate().<String, byte[]>opsForHash()
+                .put(chunksKey, generation + ":" + index, chunk)
+                .then(shard.getTemplate().expire(chunksKey, Duration.ofSeconds(ttl + BODY_TTL_SLACK_SECONDS))));
+    }
+
+    /*
+     * Commit di un'entry a segmenti, dopo l'ultimo segmento: scadenza dell'hash, metadati
+     * che rimandano alla nuova generazione, poi rimozione delle generazioni precedenti
+     */
+    public Mono<Boolean> saveChunked(String cacheKey, CachedResponse manifest, Long ttl) {
+        try {
+            byte[] metadata = codec.encodeMetadata(manifest);
+            metrics.recordEntrySize(metadata.length + manifest.getBodyLength());
+            CacheShard shard = shards.shardFor(cacheKey);
+            if (!shard.isHealthy() || !redisGuard.isAvailable()) {
+                return Mono.just(false);
+            }
+            String chunksKey = cacheKey + CHUNKS_SUFFIX;
+            return redisGuard.guard(RedisGuard.Operation.WRITE, shard.getTemplate()
+                            .expire(chunksKey, Duration.ofSeconds(ttl + BODY_TTL_SLACK_SECONDS))
+                            .filter(Boolean::booleanValue)
+                            .flatMap(found -> shard.getTemplate().opsForValue().set(cacheKey, metadata, Duration.ofSeconds(ttl))))
+                    .flatMap(saved -> {
+                        if (!saved) {
+                            return Mono.just(false);
+                        }
+                        onStored(cacheKey, manifest);
+                        return redisGuard.guard(RedisGuard.Operation.WRITE, shard.getTemplate()
+                                        .execute(DROP_OLD_CHUNKS_SCRIPT, List.of(chunksKey),
+                                                List.of(String.valueOf(manifest.getChunkGeneration()).getBytes(StandardCharsets.UTF_8)))
+                                        .then())
+                                .onErrorResume(e -> Mono.empty()) // restano fino alla scadenza dell'hash
+                                .then(index.add(cachePrefix, cacheKey, tags(manifest), expiresAt(ttl)))
+                                .thenReturn(true);
+                    })
+                    .defaultIfEmpty(false);
+        } catch (IOException e) {
+            return Mono.error(e);
+        }
+    }
+
+    /*
+     * Segmenti [first, last] di un'entry a segmenti, nell'ordine, con CHUNK_READ_AHEAD letture in corso:
+     * in memoria restano pochi segmenti alla volta, al ritmo con cui il client li consuma
+     */
+    public Flux<byte[]> readChunks(String cacheKey, CachedResponse manifest, int first, int last) {
+        CacheShard shard = shards.shardFor(cacheKey);
+        String chunksKey = cacheKey + CHUNKS_SUFFIX;
+        return Flux.range(first, last - first + 1)
+                .flatMapSequential(index -> timed(CacheMetrics.LookupOperation.BODY,
+                                redisGuard.guard(RedisGuard.Operation.READ, shard.getTemplate().<String, byte[]>opsForHash()
+                                        .get(chunksKey, manifest.getChunkGeneration() + ":" + index)))
+                        .switchIfEmpty(Mono.error(() -> new IOException(
+                                "Segmento " + index + " mancante per la chiave " + cacheKey))), CHUNK_READ_AHEAD, 1);
+    }
+
+    /*
+     * Entry completa: metadati e body letti nello stesso MGET
+     */
     public Mono<CachedResponse> get(String cacheKey) {
-        return redisTemplate.opsForValue().get(cacheKey)
+        CachedResponse local = getLocal(cacheKey);
+        if (local != null) {
+            return Mono.just(local);
+        }
+        CacheShard shard = shards.shardFor(cacheKey);
+        if (!shard.isHealthy()) {
+            return Mono.empty();
+        }
+        return timed(CacheMetrics.LookupOperation.ENTRY,
+                        read(shard, shard.getBatcher().multiGet(List.of(cacheKey, cacheKey + BODY_SUFFIX))))
+                .flatMap(values -> {
+                    byte[] metadata = values.get(0);
+                    byte[] body = values.get(1);
+                    if (metadata == null) {
+                        return Mono.empty();
+                    }
+                    try {
+                        CachedResponse cachedResponse = codec.decode(metadata);
+                        if (cachedResponse.isChunked()) {
+                            return chunksPresent(shard, cacheKey, cachedResponse); // body letto in streaming
+                        }
+                        if (!cachedResponse.hasBody() && !cachedResponse.isVaryMarker()) {
+                            if (body == null) {
+                                return Mono.empty(); // body scaduto o non ancora scritto
+                            }
+                            codec.attachBody(cachedResponse, body);
+                        }
+                        putLocal(cacheKey, cachedResponse);
+                        return Mono.just(cachedResponse);
+                    } catch (IOException e) {
+                        return Mono.error(e);
+                    }
+                });
+    }
+
+    /*
+     * Verifica di presenza senza trasferire l'entry, per il polling dei miss coalescenti
+     */
+    public Mono<Boolean> exists(String cacheKey) {
+        if (getLocal(cacheKey) != null) {
+            return Mono.just(true);
+        }
+        CacheShard shard = shards.shardFor(cacheKey);
+        return shard.isHealthy() ? read(shard, shard.getBatcher().exists(cacheKey)).defaultIfEmpty(false) : Mono.just(false);
+    }
+
+    /*
+     * Solo metadati (status, header, ETag): sufficienti per la rivalidazione
+     */
+    public Mono<CachedResponse> getMetadata(String cacheKey) {
+        CachedResponse local = getLocal(cacheKey);
+        if (local != null) {
+            return Mono.just(local);
+        }
+        CacheShard shard = shards.shardFor(cacheKey);
+        if (!shard.isHealthy()) {
+            return Mono.empty();
+        }
+        return timed(CacheMetrics.LookupOperation.METADATA, read(shard, shard.getBatcher().get(cacheKey)))
                 .flatMap(value -> {
                     try {
-                        CachedResponse cachedResponse = objectMapper.readValue(value, CachedResponse.class);
+                        return Mono.just(codec.decode(value));
+                    } catch (IOException e) {
+                        return Mono.error(e);
+                    }
+                });
+    }
+
+    /*
+     * Completa con il body un'entry letta con getMetadata
+     */
+    public Mono<CachedResponse> loadBody(String cacheKey, CachedResponse metadata) {
+        if (metadata.hasBody()) {
+            return Mono.just(metadata);
+        }
+        CacheShard shard = shards.shardFor(cacheKey);
+        if (!shard.isHealthy()) {
+            return Mono.empty();
+        }
+        if (metadata.isChunked()) {
+            return chunksPresent(shard, cacheKey, metadata);
+        }
+        return timed(CacheMetrics.LookupOperation.BODY, read(shard, shard.getBatcher().get(cacheKey + BODY_SUFFIX)))
+                .flatMap(body -> {
+                    try {
+                        CachedResponse cachedResponse = codec.attachBody(metadata, body);
+                        putLocal(cacheKey, cachedResponse);
                         return Mono.just(cachedResponse);
-                    } catch (JsonProcessingException e) {
+                    } catch (IOException e) {
                         return Mono.error(e);
                     }
                 });
     }
 
+    /*
+     * Segmenti rimossi (eviction) o scaduti prima dei metadati valgono come miss, prima di aver scritto la risposta
+     */
+    private Mono<CachedResponse> chunksPresent(CacheShard shard, String cacheKey, CachedResponse manifest) {
+        return read(shard, shard.getTemplate().execute(CHUNKS_PRESENT_SCRIPT, List.of(cacheKey + CHUNKS_SUFFIX),
+                                List.of(String.valueOf(manifest.getChunkGeneration()).getBytes(StandardCharsets.UTF_8),
+                                        String.valueOf(manifest.getChunkCount()).getBytes(StandardCharsets.UTF_8)))
+                        .next())
+                .filter(present -> present == 1L)
+                .map(present -> {
+                    putLocal(cacheKey, manifest);
+                    return manifest;
+                });
+    }
+
+    /*
+     * Body in chiaro per i client che non accettano gzip
+     */
+    public ByteBuffer decompress(CachedResponse cachedResponse) {
+        return cachedResponse.isGzipped()
+                ? compressor.decompress(cachedResponse.getBody())
+                : cachedResponse.getBody();
+    }
+
+    private CachedResponse compress(CachedResponse cachedResponse) {
+        if (!compressor.shouldCompress(cachedResponse)) {
+            return cachedResponse;
+        }
+        ByteBuffer compressed = compressor.compress(cachedResponse.getBody());
+        return compressed != null
+                ? cachedResponse.withBody(compressed, cachedResponse.getFlags() | CachedResponse.FLAG_GZIP)
+                : cachedResponse;
+    }
+
+    /*
+     * Rimuove la chiave da Redis e da tutti i tier L1 del cluster
+     */
+    public Mono<Boolean> invalidate(String cacheKey) {
+        return redisGuard.guard(RedisGuard.Operation.WRITE,
+                        shards.shardFor(cacheKey).getTemplate().delete(cacheKey, cacheKey + BODY_SUFFIX, cacheKey + CHUNKS_SUFFIX))
+                .map(deleted -> deleted > 0)
+                .doOnSuccess(deleted -> {
+                    if (invalidationBus != null) {
+                        invalidationBus.invalidateLocal(cacheKey);
+                        invalidationBus.publish(cacheKey);
+                    } else if (localTier != null) {
+                        localTier.invalidate(cacheKey);
+                    }
+                });
+    }
+
+    /*
+     * UNLINK di metadati, body e segmenti, raggruppati per nodo
+     */
+    static Mono<Long> unlink(CacheShardRouter shards, List<String> cacheKeys) {
+        if (cacheKeys.isEmpty()) {
+            return Mono.just(0L);
+        }
+        return Flux.fromIterable(shards.partition(cacheKeys).entrySet())
+                .flatMap(partition -> {
+                    List<String> keys = new ArrayList<>(partition.getValue().size() * 3);
+                    for (String cacheKey : partition.getValue()) {
+                        keys.add(cacheKey);
+                        keys.add(cacheKey + BODY_SUFFIX);
+                        keys.add(cacheKey + CHUNKS_SUFFIX);
+                    }
+                    return partition.getKey().getTemplate().unlink(keys.toArray(String[]::new));
+                })
+                .reduce(0L, Long::sum);
+    }
+
+    /*
+     * Tag separati da virgole o spazi, come in Cache-Tag / Surrogate-Key
+     */
+    private List<String> tags(CachedResponse cachedResponse) {
+        if (tagHeader == null || tagHeader.isEmpty()) {
+            return List.of();
+        }
+        List<String> tags = new ArrayList<>();
+        cachedResponse.getHeaders().forEach((name, values) -> {
+            if (name.equalsIgnoreCase(tagHeader)) {
+                for (String value : values) {
+                    for (String tag : value.split("[,\\s]+")) {
+                        if (!tag.isEmpty()) {
+                            tags.add(tag);
+                        }
+                    }
+                }
+            }
+        });
+        return tags;
+    }
+
+    private static long expiresAt(long ttlSeconds) {
+        return System.currentTimeMillis() + ttlSeconds * 1000;
+    }
+
+    /*
+     * Un errore del nodo (connessione persa, scadenza superata, breaker aperto) vale come miss
+     */
+    private <T> Mono<T> read(CacheShard shard, Mono<T> lookup) {
+        return redisGuard.guard(RedisGuard.Operation.READ, lookup).onErrorResume(e -> {
+            logger.debug("Lettura dal nodo cache {} fallita, trattata come miss", shard.getName(), e);
+            redisGuard.recordDegraded("cache");
+            return Mono.empty();
+        });
+    }
+
+    private <T> Mono<T> timed(CacheMetrics.LookupOperation operation, Mono<T> lookup) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return lookup.doFinally(signal -> metrics.recordLookup(operation, System.nanoTime() - start));
+        });
+    }
+
+    private CachedResponse getLocal(String cacheKey) {
+        return localTier != null ? localTier.get(cacheKey) : null;
+    }
+
+    private void putLocal(String cacheKey, CachedResponse cachedResponse) {
+        if (localTier != null) {
+            localTier.put(cacheKey, cachedResponse);
+        }
+    }
+
+    private void onStored(String cacheKey, CachedResponse cachedResponse) {
+        putLocal(cacheKey, cachedResponse);
+        if (invalidationBus != null) {
+            invalidationBus.publish(cacheKey);
+        }
+    }
+
 }
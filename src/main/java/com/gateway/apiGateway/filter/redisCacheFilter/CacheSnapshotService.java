@@ -0,0 +1,326 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Snapshot delle entry più calde dei tier L1 su un file locale mappato in memoria, per ripartire
+ * a caldo dopo un riavvio o un rollout (Redis sopravvive al riavvio del gateway, l'L1 no).
+ * <p>
+ * Lo snapshot viene scritto periodicamente e allo shutdown, entro un budget in byte diviso tra le route.
+ * Al riavvio viene caricato come ApplicationRunner, quindi prima che la readiness diventi verde:
+ * ogni entry non scaduta torna nel tier L1 della sua route solo se su Redis c'è ancora la stessa versione
+ * (ETag e generazione dei segmenti), così purge e riscritture avvenute durante il riavvio non vengono perse.
+ * <p>
+ * Formato: [magic][versione][creazione][route]{[prefisso][entry]{[chiave][metadati][body]}}[crc32];
+ * il file viene scritto su un temporaneo e rinominato, un file troncato o corrotto viene ignorato.
+ */
+public class CacheSnapshotService implements ApplicationRunner, InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheSnapshotService.class);
+
+    private static final int MAGIC = 0x47575343; // "GWSC"
+    private static final int FORMAT_VERSION = 1;
+    private static final int NO_BODY = -1;
+    private static final int RESTORE_CONCURRENCY = 8; // le verifiche vengono comunque raggruppate in pipeline dal batcher
+
+    private static final CacheEntryCodec codec = new CacheEntryCodec();
+
+    private final Map<String, Tier> tiers = new LinkedHashMap<>();
+    private final Path path;
+    private final Duration interval;
+    private final long maxBytes;
+    private final Duration restoreTimeout;
+    private final Timer writeTimer;
+    private final Timer restoreTimer;
+    private Disposable scheduler;
+
+    /**
+     * @param path il file dello snapshot
+     * @param interval ogni quanto scrivere lo snapshot
+     * @param maxBytes il budget complessivo di body e header (byte stimati)
+     * @param restoreTimeout oltre questo tempo il ripristino si ferma e l'avvio prosegue
+     */
+    public CacheSnapshotService(Path path, Duration interval, long maxBytes, Duration restoreTimeout,
+            MeterRegistry meterRegistry) {
+        this.path = path;
+        this.interval = interval;
+        this.maxBytes = maxBytes;
+        this.restoreTimeout = restoreTimeout;
+        this.writeTimer = Timer.builder("gateway.cache.snapshot.duration")
+                .description("Durata di scrittura e ripristino dello snapshot dei tier L1")
+                .tag("operation", "write")
+                .register(meterRegistry);
+        this.restoreTimer = Timer.builder("gateway.cache.snapshot.duration")
+                .description("Durata di scrittura e ripristino dello snapshot dei tier L1")
+                .tag("operation", "restore")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Registra il tier L1 di una route.
+     *
+     * @param cachePrefix il prefisso della route, stabile tra i riavvii
+     * @param localTier il tier da salvare e ripristinare
+     * @param metadata legge da Redis i metadati attuali della chiave, vuoto se non esiste più
+     */
+    public synchronized void register(String cachePrefix, LocalCacheTier localTier,
+            Function<String, Mono<CachedResponse>> metadata) {
+        tiers.put(cachePrefix, new Tier(localTier, metadata));
+    }
+
+    /**
+     * @param cachePrefix il prefisso di una route che non ha più un tier L1
+     */
+    public synchronized void unregister(String cachePrefix) {
+        tiers.remove(cachePrefix);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        scheduler = Flux.interval(interval, Schedulers.boundedElastic())
+                .onBackpressureDrop()
+                .subscribe(tick -> snapshot());
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.dispose();
+        }
+        snapshot();
+    }
+
+    /*
+     * Eseguito prima che l'applicazione accetti traffico
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        restore();
+    }
+
+    /**
+     * Scrive lo snapshot delle entry più calde di ogni tier.
+     */
+    public synchronized void snapshot() {
+        if (tiers.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            long budget = maxBytes / tiers.size();
+            List<byte[]> chunks = new ArrayList<>();
+            int entries = 0;
+            for (Map.Entry<String, Tier> tier : tiers.entrySet()) {
+                Map<String, CachedResponse> hottest = tier.getValue().localTier().hottest(budget);
+                chunks.add(string(tier.getKey()));
+                chunks.add(intBytes(hottest.size()));
+                for (Map.Entry<String, CachedResponse> entry : hottest.entrySet()) {
+                    CachedResponse value = entry.getValue();
+                    chunks.add(string(entry.getKey()));
+                    chunks.add(blob(codec.encodeMetadata(value)));
+                    chunks.add(value.getBody() != null ? blob(codec.encodeBody(value)) : intBytes(NO_BODY));
+                }
+                entries += hottest.size();
+            }
+            long size = write(chunks);
+            long elapsed = System.nanoTime() - start;
+            writeTimer.record(elapsed, TimeUnit.NANOSECONDS);
+            logger.info("Snapshot cache: {} entry, {} KiB in {} ms", entries, size / 1024,
+                    TimeUnit.NANOSECONDS.toMillis(elapsed));
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Impossibile scrivere lo snapshot della cache in {}", path, e);
+        }
+    }
+
+    private long write(List<byte[]> chunks) throws IOException {
+        long size = 4 + 4 + 8 + 4 + 8; // magic, versione, creazione, route, crc
+        for (byte[] chunk : chunks) {
+            size += chunk.length;
+        }
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(System.currentTimeMillis()).putInt(tiers.size());
+            for (byte[] chunk : chunks) {
+                buffer.put(chunk);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate().flip());
+            buffer.putLong(crc.getValue());
+            buffer.force();
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return size;
+    }
+
+    /**
+     * Carica lo snapshot nei tier registrati, verificando su Redis le chiavi ancora valide.
+     */
+    public synchronized void restore() {
+        if (tiers.isEmpty() || !Files.isRegularFile(path)) {
+            return;
+        }
+        long start = System.nanoTime();
+        Map<String, List<Map.Entry<String, CachedResponse>>> snapshot;
+        try {
+            snapshot = read();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Snapshot della cache {} non leggibile, ignorato", path, e);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long loadedNanos = System.nanoTime() - start;
+
+        // Oltre restoreTimeout il ripristino si ferma con le entry già caricate: l'avvio non deve fallire
+        AtomicLong restored = new AtomicLong();
+        Flux.fromIterable(snapshot.entrySet())
+                .filter(route -> tiers.containsKey(route.getKey()))
+                .flatMap(route -> {
+                    Tier tier = tiers.get(route.getKey());
+                    return Flux.fromIterable(route.getValue())
+                            .filter(entry -> entry.getValue().getExpiresAt() > now)
+                            .flatMap(entry -> tier.metadata().apply(entry.getKey())
+                                    .onErrorResume(e -> Mono.empty())
+                                    .filter(current -> sameVersion(entry.getValue(), current))
+                                    .doOnNext(current -> {
+                                        tier.localTier().put(entry.getKey(), entry.getValue());
+                                        restored.incrementAndGet();
+                                    }), RESTORE_CONCURRENCY);
+                })
+                .then()
+                .timeout(restoreTimeout)
+                .onErrorResume(e -> {
+                    logger.warn("Ripristino dello snapshot della cache interrotto dopo {} entry: {}", restored.get(), e.toString());
+                    return Mono.empty();
+                })
+                .block();
+        long elapsed = System.nanoTime() - start;
+        restoreTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        logger.info("Snapshot cache ripristinato: {} entry su {} in {} ms (lettura file {} ms)", restored.get(),
+                snapshot.values().stream().mapToInt(List::size).sum(),
+                TimeUnit.NANOSECONDS.toMillis(elapsed), TimeUnit.NANOSECONDS.toMillis(loadedNanos));
+    }
+
+    /*
+     * Stessa versione se coincidono ETag e generazione dei segmenti; le entry senza ETag
+     * (negative, marker Vary) vengono riscritte con una nuova scadenza, che fa da versione
+     */
+    private static boolean sameVersion(CachedResponse snapshot, CachedResponse current) {
+        if (snapshot.getChunkGeneration() != current.getChunkGeneration()
+                || !Objects.equals(snapshot.getEtag(), current.getEtag())) {
+            return false;
+        }
+        return snapshot.getEtag() != null || snapshot.getExpiresAt() == current.getExpiresAt();
+    }
+
+    private Map<String, List<Map.Entry<String, CachedResponse>>> read() throws IOException {
+        Map<String, List<Map.Entry<String, CachedResponse>>> snapshot = new LinkedHashMap<>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate().limit(buffer.limit() - 8));
+            if (buffer.getLong(buffer.limit() - 8) != crc.getValue()) {
+                throw new IOException("checksum non valido");
+            }
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                throw new IOException("formato non riconosciuto");
+            }
+            buffer.getLong(); // istante di creazione
+            int routes = buffer.getInt();
+            for (int r = 0; r < routes; r++) {
+                String cachePrefix = readString(buffer);
+                int count = buffer.getInt();
+                List<Map.Entry<String, CachedResponse>> entries = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    String key = readString(buffer);
+                    CachedResponse value = codec.decode(readBlob(buffer));
+                    int bodyLength = buffer.getInt();
+                    if (bodyLength != NO_BODY) {
+                        byte[] body = new byte[bodyLength];
+                        buffer.get(body);
+                        codec.attachBody(value, body);
+                    }
+                    entries.add(Map.entry(key, value));
+                }
+                snapshot.put(cachePrefix, entries);
+            }
+        }
+        return snapshot;
+    }
+
+    private static byte[] string(String value) {
+        return blob(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] blob(byte[] value) {
+        byte[] chunk = new byte[4 + value.length];
+        System.arraycopy(intBytes(value.length), 0, chunk, 0, 4);
+        System.arraycopy(value, 0, chunk, 4, value.length);
+        return chunk;
+    }
+
+    private static byte[] intBytes(int value) {
+        return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+    }
+
+    private static String readString(MappedByteBuffer buffer) {
+        return new String(readBlob(buffer), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBlob(MappedByteBuffer buffer) {
+        byte[] value = new byte[buffer.getInt()];
+        buffer.get(value);
+        return value;
+    }
+
+    private record Tier(LocalCacheTier localTier, Function<String, Mono<CachedResponse>> metadata) {
+    }
+}
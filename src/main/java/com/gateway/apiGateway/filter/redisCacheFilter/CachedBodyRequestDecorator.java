@@ -14,15 +14,15 @@
  *   See the License for the specific language governing permissions and
  *   limitations under the License.
  */
-
 package com.gateway.apiGateway.filter.redisCacheFilter;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.HexFormat;
+import java.nio.ByteBuffer;
+import java.util.List;
 
 import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBuffer;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
@@ -30,41 +30,60 @@ import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
 import reactor.core.publisher.Flux;
 
 /**
- * Decoratore per clonare il body di una richiesta e permettere la rilettura nei filtri successivi.
+ * Decoratore che trattiene i buffer del body di una richiesta e permette la rilettura nei filtri successivi.
+ * I buffer restano quelli ricevuti dal server, senza copie sullo heap; ogni lettura ne riceve
+ * una slice con un proprio riferimento, gli originali si rilasciano con {@link #release()}.
  */
 public class CachedBodyRequestDecorator extends ServerHttpRequestDecorator {
 
-    private final byte[] cachedBodyBytes;
+    private final List<DataBuffer> body;
     private final String bodyHash;
+    private final HttpHeaders headers;
 
-    public CachedBodyRequestDecorator(ServerHttpRequest delegate, byte[] bodyBytes) {
+    public CachedBodyRequestDecorator(ServerHttpRequest delegate, List<DataBuffer> body, long length,
+            String bodyHash) {
         super(delegate);
-        this.cachedBodyBytes = bodyBytes;
-        this.bodyHash = hashSHA256Bytes(bodyBytes);
+        this.body = body;
+        this.bodyHash = bodyHash;
+        // Header copiati una sola volta invece che a ogni getHeaders()
+        HttpHeaders copy = new HttpHeaders();
+        copy.putAll(delegate.getHeaders());
+        copy.setContentLength(length);
+        this.headers = HttpHeaders.readOnlyHttpHeaders(copy);
     }
 
     @SuppressWarnings("null")
     @Override
     public Flux<DataBuffer> getBody() {
-        return Flux.just(new DefaultDataBufferFactory().wrap(cachedBodyBytes));
+        return Flux.defer(() -> Flux.fromIterable(body).map(CachedBodyRequestDecorator::replay));
     }
 
     @SuppressWarnings("null")
     @Override
     public HttpHeaders getHeaders() {
-        HttpHeaders headers = new HttpHeaders();
-        headers.putAll(super.getHeaders());
-        headers.setContentLength(cachedBodyBytes.length);
         return headers;
     }
-    
-    private String hashSHA256Bytes(byte[] data) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            return HexFormat.of().formatHex(digest.digest(data));
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Error computing SHA-256 hash", e);
+
+    private static DataBuffer replay(DataBuffer buffer) {
+        if (buffer instanceof NettyDataBuffer nettyBuffer) {
+            return nettyBuffer.factory().wrap(nettyBuffer.getNativeBuffer().retainedSlice());
         }
+        // Buffer non pooled (server non Netty): copia, senza spostare la posizione di lettura
+        byte[] bytes = new byte[buffer.readableByteCount()];
+        buffer.toByteBuffer(buffer.readPosition(), ByteBuffer.wrap(bytes), 0, bytes.length);
+        return DefaultDataBufferFactory.sharedInstance.wrap(bytes);
+    }
+
+    /**
+     * Aggiunge un riferimento ai buffer, per chi rilegge il body dopo la fine della richiesta
+     * (refresh in background); va bilanciato con {@link #release()}.
+     */
+    public void retain() {
+        body.forEach(DataBufferUtils::retain);
+    }
+
+    public void release() {
+        body.forEach(DataBufferUtils::release);
     }
 
     public String getBodyHash() {
@@ -17,28 +17,49 @@
 
 package com.gateway.apiGateway.filter.redisCacheFilter;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import org.springframework.http.HttpHeaders;
+
 public class CachedResponse {
-    private String body;
+
+    public static final int FLAG_GZIP = 1; // body memorizzato compresso con gzip
+    public static final int FLAG_VARY_MARKER = 2; // entry senza body sulla chiave base, rimanda alle varianti Vary
+    public static final int FLAG_CHUNKED = 4; // body salvato a segmenti di chunkSize byte, letti in streaming
+
+    private ByteBuffer body; // vista sul valore letto da Redis, senza copie; null se sono stati letti solo i metadati
     private Map<String, List<String>> headers;
-    private String statusCode;
+    private int statusCode;
+    private long expiresAt; // istante (epoch millis) di scadenza della chiave su Redis, 0 se sconosciuto
+    private long freshUntil; // fine della validità (soft TTL), poi servita stale fino a expiresAt; 0 se sconosciuto
+    private long computeTimeMs; // latenza del backend per produrre la risposta, usata dall'early refresh
+    private int flags;
+    private String etag;
+    private int bodyLength; // lunghezza del body memorizzato, nota anche senza leggerlo
+    private int chunkSize; // dimensione dei segmenti delle entry a segmenti, 0 per le altre
+    private long chunkGeneration; // generazione dei segmenti a cui rimandano i metadati
 
     public CachedResponse() {}
 
-    public CachedResponse(String body, Map<String, List<String>> headers, String statusCode) {
+    public CachedResponse(ByteBuffer body, Map<String, List<String>> headers, int statusCode) {
         this.body = body;
         this.headers = headers;
         this.statusCode = statusCode;
+        this.bodyLength = body != null ? body.remaining() : 0;
     }
 
     // Getters & setters
-    public String getBody() {
+    public ByteBuffer getBody() {
         return body;
     }
-    public void setBody(String body) {
+    public void setBody(ByteBuffer body) {
         this.body = body;
+        if (body != null) {
+            this.bodyLength = body.remaining();
+        }
     }
     public Map<String, List<String>> getHeaders() {
         return headers;
@@ -47,12 +68,143 @@ public class CachedResponse {
         this.headers = headers;
     }
 
-    public String getStatusCode() {
+    public int getStatusCode() {
         return statusCode;
     }
 
-    public void setStatusCode(String statusCode) {
+    public void setStatusCode(int statusCode) {
         this.statusCode = statusCode;
     }
 
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public long getFreshUntil() {
+        return freshUntil;
+    }
+
+    public void setFreshUntil(long freshUntil) {
+        this.freshUntil = freshUntil;
+    }
+
+    public long getComputeTimeMs() {
+        return computeTimeMs;
+    }
+
+    public void setComputeTimeMs(long computeTimeMs) {
+        this.computeTimeMs = computeTimeMs;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public void setFlags(int flags) {
+        this.flags = flags;
+    }
+
+    public boolean isGzipped() {
+        return (flags & FLAG_GZIP) != 0;
+    }
+
+    /*
+     * Copia con body e flag sostituiti, i metadati restano condivisi
+     */
+    public CachedResponse withBody(ByteBuffer newBody, int newFlags) {
+        CachedResponse copy = new CachedResponse(newBody, headers, statusCode);
+        copy.setExpiresAt(expiresAt);
+        copy.setFreshUntil(freshUntil);
+        copy.setComputeTimeMs(computeTimeMs);
+        copy.setFlags(newFlags);
+        copy.setEtag(etag);
+        copy.setChunkSize(chunkSize);
+        copy.setChunkGeneration(chunkGeneration);
+        if (newBody == null) {
+            copy.setBodyLength(bodyLength);
+        }
+        return copy;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+
+    public void setBodyLength(int bodyLength) {
+        this.bodyLength = bodyLength;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public long getChunkGeneration() {
+        return chunkGeneration;
+    }
+
+    public void setChunkGeneration(long chunkGeneration) {
+        this.chunkGeneration = chunkGeneration;
+    }
+
+    public boolean isChunked() {
+        return (flags & FLAG_CHUNKED) != 0;
+    }
+
+    /*
+     * Numero di segmenti di un'entry a segmenti
+     */
+    public int getChunkCount() {
+        return chunkSize > 0 ? (int) ((bodyLength + (long) chunkSize - 1) / chunkSize) : 0;
+    }
+
+    public boolean hasBody() {
+        return body != null;
+    }
+
+    public boolean isVaryMarker() {
+        return (flags & FLAG_VARY_MARKER) != 0;
+    }
+
+    /*
+     * Nomi degli header elencati in Vary, vuoto se la risposta non ne ha
+     */
+    public List<String> getVaryNames() {
+        List<String> names = new ArrayList<>();
+        if (headers == null) {
+            return names;
+        }
+        headers.forEach((name, values) -> {
+            if (HttpHeaders.VARY.equalsIgnoreCase(name)) {
+                for (String value : values) {
+                    for (String token : value.split(",")) {
+                        if (!token.isBlank()) {
+                            names.add(token.trim());
+                        }
+                    }
+                }
+            }
+        });
+        return names;
+    }
+
+    public boolean isFresh(long now) {
+        return freshUntil == 0 || now < freshUntil;
+    }
+
+    public int getBodyLength() {
+        return body != null ? body.remaining() : bodyLength;
+    }
+
 }
\ No newline at end of file
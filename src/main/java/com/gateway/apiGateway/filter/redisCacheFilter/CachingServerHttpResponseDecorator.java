@@ -16,96 +16,314 @@
  */
 package com.gateway.apiGateway.filter.redisCacheFilter;
 
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.buffer.DataBuffer;
-import org.springframework.core.io.buffer.DataBufferUtils;
-import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.HttpStatusCode;
 import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
 import org.springframework.lang.NonNull;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gateway.apiGateway.Factory.RedisCacheFilterGatewayFilterFactory.Config;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 
 public class CachingServerHttpResponseDecorator extends ServerHttpResponseDecorator {
 
     private static final Logger logger = LoggerFactory.getLogger(CachingServerHttpResponseDecorator.class);
 
     private final String cacheKey;
-    private final Long ttl;
+    private final Config config;
     private final CacheService cacheService;
+    private final CacheMetrics metrics;
+    private final HttpHeaders requestHeaders; // per calcolare la variante quando l'upstream risponde con Vary
+    private long ttl; // TTL dell'entry derivato da Cache-Control/Expires
+    private boolean negative; // entry negativa (404, 410...), con TTL breve e numero limitato per route
+    private Boolean admitted; // null se la route non usa TinyLFU, false se la chiave non è ancora ammessa
+    private AdaptiveTtl adaptiveTtl; // null se la route usa il ttl fisso
+    private Sinks.One<CachedResponse> captureSink; // notifica le richieste in attesa sulla stessa chiave
+    private final long startTime = System.currentTimeMillis();
 
     public CachingServerHttpResponseDecorator(ServerHttpResponse delegate, String cacheKey,
-            ReactiveStringRedisTemplate redisTemplate, Long ttl) {
+            CacheService cacheService, Config config, CacheMetrics metrics, HttpHeaders requestHeaders) {
         super(delegate);
         this.cacheKey = cacheKey;
-        this.ttl = ttl;
-        this.cacheService = new CacheService(redisTemplate);
+        this.config = config;
+        this.cacheService = cacheService;
+        this.metrics = metrics;
+        this.requestHeaders = requestHeaders;
+    }
+
+    public void setCaptureSink(Sinks.One<CachedResponse> captureSink) {
+        this.captureSink = captureSink;
+    }
+
+    public void setAdmitted(boolean admitted) {
+        this.admitted = admitted;
+    }
+
+    public void setAdaptiveTtl(AdaptiveTtl adaptiveTtl) {
+        this.adaptiveTtl = adaptiveTtl;
     }
 
     @Override
     @NonNull
     public Mono<Void> writeWith(@NonNull Publisher<? extends DataBuffer> body) {
-        if (!(body instanceof Flux)) {
-            logger.error("Impossibile salvare la risposta in cache per la chiave: {}", cacheKey);
+        HttpStatusCode statusCode = getStatusCode();
+        negative = statusCode != null && config.isNegative(statusCode.value());
+        // Una 206 è solo una parte della risorsa: non va salvata come entry completa
+        if (statusCode != null && (!statusCode.is2xxSuccessful() && !negative
+                || statusCode.value() == HttpStatus.PARTIAL_CONTENT.value())) {
+            metrics.recordBypass(CacheMetrics.BypassReason.STATUS);
+            publishCaptured(null);
             return super.writeWith(body);
         }
 
-        HttpStatusCode statusCode = getStatusCode();
-        if (statusCode != null && !statusCode.is2xxSuccessful()) {
+        // no-store, private, max-age=0, Vary: * ...
+        ttl = ResponseCachePolicy.ttlSeconds(getDelegate().getHeaders(), config);
+        if (negative && ttl != ResponseCachePolicy.NOT_CACHEABLE) {
+            ttl = config.getNegativeTtl();
+        }
+        if (ttl == ResponseCachePolicy.NOT_CACHEABLE) {
+            logger.debug("Risposta non cacheabile secondo Cache-Control per la chiave: {}", cacheKey);
+            metrics.recordBypass(CacheMetrics.BypassReason.CACHE_CONTROL);
+            publishCaptured(null);
             return super.writeWith(body);
         }
 
         // Processa e cache la risposta
+        long contentLength = getDelegate().getHeaders().getContentLength();
+        if (!negative && config.getChunkThreshold() > 0 && contentLength > config.getChunkThreshold()) {
+            return processAndCacheChunked(body, contentLength);
+        }
         return processAndCacheResponse(body);
     }
 
+    /*
+     * Body grandi di lunghezza nota: salvati a segmenti mentre arrivano, senza tenerli interi in memoria.
+     * I metadati vengono scritti dopo l'ultimo segmento e condivisi con le richieste in attesa.
+     */
+    private Mono<Void> processAndCacheChunked(Publisher<? extends DataBuffer> body, long contentLength) {
+        if (contentLength > Math.min(config.getMaxChunkedBytes(), ChunkedBodyWriter.MAX_LENGTH)) {
+            logger.debug("Content-Length oltre maxChunkedBytes, risposta non cacheabile per la chiave: {}", cacheKey);
+            metrics.recordBypass(CacheMetrics.BypassReason.SIZE);
+            publishCaptured(null);
+            return super.writeWith(body);
+        }
+        if (!admitted()) {
+            logger.debug("Chiave non ancora ammessa in cache: {}", cacheKey);
+            publishCaptured(null);
+            return super.writeWith(body);
+        }
+        List<String> varyNames = getDelegate().getHeaders().getVary();
+        String entryKey = varyNames.isEmpty() ? cacheKey : VaryKeys.variantKey(cacheKey, varyNames, requestHeaders);
+        ChunkedBodyWriter writer = new ChunkedBodyWriter(cacheService, entryKey, config.getChunkSize(),
+                config.getMaxPendingChunks(), contentLength, ttl + config.getStaleWhileRevalidate());
+
+        Flux<DataBuffer> tee = Flux.<DataBuffer>from(body)
+                .doOnNext(writer::append)
+                .doOnError(e -> abandonChunked(writer))
+                .doOnCancel(() -> abandonChunked(writer))
+                .doOnComplete(() -> writer.finish()
+                        .flatMap(complete -> complete ? saveChunked(entryKey, varyNames, writer) : Mono.just(false))
+                        .onErrorResume(e -> {
+                            logger.warn("Risposta non salvata in cache per la chiave {}: {}", cacheKey, e.toString());
+                            return Mono.just(false);
+                        })
+                        .subscribe(saved -> {
+                            if (!saved) {
+                                logger.debug("Scrittura a segmenti non completata per la chiave: {}", entryKey);
+                                publishCaptured(null);
+                            }
+                        }));
+        return super.writeWith(tee);
+    }
+
+    private Mono<Boolean> saveChunked(String entryKey, List<String> varyNames, ChunkedBodyWriter writer) {
+        CachedResponse manifest = new CachedResponse(null, extractHeaders(), extractStatusCode().value());
+        manifest.setBodyLength(Math.toIntExact(writer.getLength()));
+        manifest.setFlags(CachedResponse.FLAG_CHUNKED);
+        manifest.setChunkSize(writer.getChunkSize());
+        manifest.setChunkGeneration(writer.getGeneration());
+        fillMetadata(manifest, entryKey, writer::etag);
+        long redisTtl = ttl + config.getStaleWhileRevalidate();
+        return cacheService.saveChunked(entryKey, manifest, redisTtl)
+                .flatMap(saved -> saved && !varyNames.isEmpty()
+                        ? cacheService.saveVaryMarker(cacheKey, varyNames, redisTtl)
+                        : Mono.just(saved))
+                .doOnNext(saved -> {
+                    if (saved) {
+                        publishCaptured(manifest);
+                    }
+                });
+    }
+
+    /*
+     * Tee: i chunk vengono inoltrati al client appena arrivano e copiati in un accumulatore limitato.
+     * Se il body supera maxCacheableBytes la cache viene abbandonata ma lo stream prosegue.
+     */
     private Mono<Void> processAndCacheResponse(Publisher<? extends DataBuffer> body) {
-        return aggregateBody(body)
-                .doOnNext(content -> {  // Esegue in background senza bloccare
-                    CreateCachedResponse(content)
-                    .flatMap(cachedResponse -> cacheService.save(cacheKey, cachedResponse, ttl))
-                    .doOnError(e -> logger.error("Errore nella serializzazione della risposta per la cache", e))
-                    .subscribe();
+        CappedBodyAccumulator accumulator = new CappedBodyAccumulator(
+                config.getMaxCacheableBytes(), getDelegate().getHeaders().getContentLength());
+        if (accumulator.isOverflow()) {
+            logger.debug("Content-Length oltre maxCacheableBytes, risposta non cacheabile per la chiave: {}", cacheKey);
+            metrics.recordBypass(CacheMetrics.BypassReason.SIZE);
+            publishCaptured(null);
+            return super.writeWith(body);
+        }
+
+        Flux<DataBuffer> tee = Flux.<DataBuffer>from(body)
+                .doOnNext(buffer -> {
+                    if (!accumulator.append(buffer)) {
+                        publishCaptured(null); // le richieste in attesa proseguono verso il backend
+                    }
                 })
-                .flatMap(content -> {
-                    // Crea un nuovo DataBuffer per la risposta
-                    DataBuffer newBuffer = getDelegate().bufferFactory().wrap(content);
-                    return super.writeWith(Flux.just(newBuffer));
+                .doOnError(e -> abandonCapture(accumulator))
+                .doOnCancel(() -> abandonCapture(accumulator))
+                .doOnComplete(() -> {
+                    if (accumulator.isOverflow()) {
+                        logger.debug("Body oltre maxCacheableBytes, cache abbandonata per la chiave: {}", cacheKey);
+                        metrics.recordBypass(CacheMetrics.BypassReason.SIZE);
+                        return;
+                    }
+                    // Esegue in background senza bloccare
+                    CreateCachedResponse(accumulator.content())
+                    .doOnNext(this::publishCaptured)
+                    .flatMap(this::save)
+                    .onErrorResume(e -> {
+                        // Redis lento o non disponibile: la scrittura viene scartata
+                        logger.warn("Risposta non salvata in cache per la chiave {}: {}", cacheKey, e.toString());
+                        return Mono.empty();
+                    })
+                    .subscribe();
                 });
+        return super.writeWith(tee);
+    }
+
+    /*
+     * Esito di TinyLFU, contato nelle metriche solo sulle route che lo usano
+     */
+    private boolean admitted() {
+        if (admitted == null) {
+            return true;
+        }
+        metrics.recordAdmission(admitted);
+        return admitted;
+    }
+
+    /*
+     * Con Vary l'entry va sotto la chiave della variante e sulla chiave base resta il marker
+     */
+    private Mono<Boolean> save(CachedResponse cachedResponse) {
+        if (!admitted()) {
+            // La risposta serve comunque alle richieste coalescenti, ma non va su Redis
+            logger.debug("Chiave non ancora ammessa in cache: {}", cacheKey);
+            return Mono.just(false);
+        }
+        if (negative) {
+            // Le entry negative non si servono stale e non hanno varianti
+            return cacheService.save(cacheKey, cachedResponse, ttl)
+                    .flatMap(saved -> saved
+                            ? cacheService.trackNegative(cacheKey, ttl, config.getNegativeMaxEntries()).thenReturn(true)
+                            : Mono.just(false));
+        }
+        long redisTtl = ttl + config.getStaleWhileRevalidate();
+        List<String> varyNames = cachedResponse.getVaryNames();
+        if (varyNames.isEmpty()) {
+            return cacheService.save(cacheKey, cachedResponse, redisTtl);
+        }
+        String variantKey = VaryKeys.variantKey(cacheKey, varyNames, requestHeaders);
+        return cacheService.save(variantKey, cachedResponse, redisTtl)
+                .flatMap(saved -> cacheService.saveVaryMarker(cacheKey, varyNames, redisTtl));
+    }
+
+    /*
+     * Body interrotto (errore dell'upstream o client disconnesso): la copia non verrà mai completata,
+     * la memoria va rilasciata subito e le richieste in attesa proseguono senza aspettare il leader
+     */
+    private void abandonCapture(CappedBodyAccumulator accumulator) {
+        accumulator.abandon();
+        publishCaptured(null);
+    }
+
+    private void abandonChunked(ChunkedBodyWriter writer) {
+        writer.abandon();
+        publishCaptured(null);
+    }
+
+    private void publishCaptured(CachedResponse cachedResponse) {
+        if (captureSink == null) {
+            return;
+        }
+        if (cachedResponse != null) {
+            captureSink.tryEmitValue(cachedResponse);
+        } else {
+            captureSink.tryEmitEmpty();
+        }
     }
 
-    private Mono<CachedResponse> CreateCachedResponse(byte[] content) {
-        String responseBody = new String(content, StandardCharsets.UTF_8);
+    private Mono<CachedResponse> CreateCachedResponse(ByteBuffer content) {
         Map<String, List<String>> headersMap = extractHeaders();
-        String status = extractStatusCode().toString();
-        return Mono.just(
-                new CachedResponse(responseBody, headersMap, status)
-        );
+        int status = extractStatusCode().value();
+        CachedResponse cachedResponse = new CachedResponse(content, headersMap, status);
+        List<String> varyNames = cachedResponse.getVaryNames();
+        String entryKey = varyNames.isEmpty() ? cacheKey : VaryKeys.variantKey(cacheKey, varyNames, requestHeaders);
+        fillMetadata(cachedResponse, entryKey, () -> EntityTags.compute(content));
+        return Mono.just(cachedResponse);
+    }
+
+    /*
+     * ETag, TTL appreso e scadenze dell'entry, comuni alle entry intere e a quelle a segmenti
+     */
+    private void fillMetadata(CachedResponse cachedResponse, String entryKey, Supplier<String> bodyEtag) {
+        long now = System.currentTimeMillis();
+        // ETag dell'upstream se presente, altrimenti forte dal digest del body; nessun ETag per le entry
+        // negative, nemmeno quello dell'upstream: If-None-Match non deve trasformare una 404 in 304
+        if (!negative) {
+            String upstreamEtag = getDelegate().getHeaders().getETag();
+            cachedResponse.setEtag(upstreamEtag != null ? upstreamEtag : bodyEtag.get());
+        }
+        // Senza freschezza esplicita dell'upstream il ttl fisso della route viene sostituito da quello appreso
+        if (adaptiveTtl != null && !negative && cachedResponse.getEtag() != null
+                && !ResponseCachePolicy.hasExplicitFreshness(getDelegate().getHeaders(), config)) {
+            ttl = adaptiveTtl.learn(entryKey, cachedResponse.getEtag());
+        }
+        // soft TTL = ttl, hard TTL = ttl + staleWhileRevalidate
+        cachedResponse.setFreshUntil(now + ttl * 1000);
+        cachedResponse.setExpiresAt(cachedResponse.getFreshUntil() + (negative ? 0 : config.getStaleWhileRevalidate() * 1000));
+        cachedResponse.setComputeTimeMs(now - startTime);
     }
 
-    public Mono<Void> writeWithCachedResponse(String cachedValue) {
-        if (cachedValue == null) {
+    /**
+     * Scrive al client una risposta presa dalla cache.
+     * I body compressi vengono inviati così come sono ai client che accettano gzip.
+     *
+     * @param cached la risposta in cache
+     * @param acceptsGzip true se il client ha inviato Accept-Encoding: gzip
+     * @return il Mono di completamento della scrittura
+     */
+    public Mono<Void> writeWithCachedResponse(String entryKey, CachedResponse cached, boolean acceptsGzip) {
+        if (cached == null) {
             logger.warn("Nessuna risposta trovata in cache per la chiave: {}", cacheKey);
             return Mono.empty();
         }
+        if (cached.isChunked()) {
+            return writeChunked(entryKey, cached);
+        }
 
-        return Mono.fromCallable(() -> {
-            ObjectMapper objectMapper = new ObjectMapper();
-            return objectMapper.readValue(cachedValue, CachedResponse.class);
-        })
+        return Mono.just(cached)
         .flatMap(cachedResponse -> {
             // Imposta gli header dalla cache
             cachedResponse.getHeaders().forEach((key, valueList) -> {
@@ -113,12 +331,26 @@ public class CachingServerHttpResponseDecorator extends ServerHttpResponseDecora
             });
             
             // imposta stato HTTP
-            HttpStatusCode statusCode = HttpStatus.valueOf(cachedResponse.getStatusCode());
+            HttpStatusCode statusCode = HttpStatusCode.valueOf(cachedResponse.getStatusCode());
             getDelegate().setStatusCode(statusCode);
 
-            // Crea DataBuffer per il body dalla cache
-            DataBuffer buffer = getDelegate().bufferFactory()
-                    .wrap(cachedResponse.getBody().getBytes(StandardCharsets.UTF_8));
+            ByteBuffer body;
+            boolean gzipRepresentation = cachedResponse.isGzipped() && acceptsGzip;
+            if (gzipRepresentation) {
+                body = cachedResponse.getBody();
+                getDelegate().getHeaders().set(HttpHeaders.CONTENT_ENCODING, "gzip");
+            } else {
+                body = cacheService.decompress(cachedResponse);
+            }
+            setEtag(cachedResponse, gzipRepresentation);
+            if (cachedResponse.isGzipped() && !getDelegate().getHeaders().getVary().contains(HttpHeaders.ACCEPT_ENCODING)) {
+                getDelegate().getHeaders().add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            }
+            getDelegate().getHeaders().setContentLength(body.remaining());
+            metrics.recordBytesSaved(body.remaining());
+
+            // Avvolge direttamente il body della cache in un DataBuffer, senza copie
+            DataBuffer buffer = getDelegate().bufferFactory().wrap(body.duplicate());
             return super.writeWith(Mono.just(buffer));
         })
         .onErrorResume(e -> {
@@ -127,17 +359,78 @@ public class CachingServerHttpResponseDecorator extends ServerHttpResponseDecora
         });
     }
 
-    private Mono<byte[]> aggregateBody(Publisher<? extends DataBuffer> body) {
-        return DataBufferUtils.join(Flux.from(body))
-                .flatMap(buffer -> {
-                    try {
-                        byte[] content = new byte[buffer.readableByteCount()];
-                        buffer.read(content);
-                        return Mono.just(content);
-                    } finally {
-                        DataBufferUtils.release(buffer);  // Rilascia il buffer per evitare memory leak
-                    }
-                });
+    /*
+     * Entry a segmenti: i segmenti vengono letti da Redis al ritmo del client, con Range solo quelli
+     * che coprono l'intervallo. Un segmento mancante a risposta iniziata interrompe la connessione,
+     * così il client non scambia un body troncato per completo.
+     */
+    private Mono<Void> writeChunked(String entryKey, CachedResponse cached) {
+        HttpHeaders headers = getDelegate().getHeaders();
+        cached.getHeaders().forEach((key, values) -> headers.put(key, new ArrayList<>(values)));
+        setEtag(cached, false);
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        long total = cached.getBodyLength();
+        ByteRange range = ByteRange.resolve(requestHeaders, cached.getEtag(), total);
+        if (range == ByteRange.UNSATISFIABLE) {
+            headers.set(HttpHeaders.CONTENT_RANGE, range.contentRange(total));
+            headers.setContentLength(0);
+            getDelegate().setStatusCode(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+            return getDelegate().setComplete();
+        }
+        long start = range != null ? range.start() : 0;
+        long end = range != null ? range.end() : total - 1;
+        if (range != null) {
+            headers.set(HttpHeaders.CONTENT_RANGE, range.contentRange(total));
+            getDelegate().setStatusCode(HttpStatus.PARTIAL_CONTENT);
+        } else {
+            getDelegate().setStatusCode(HttpStatusCode.valueOf(cached.getStatusCode()));
+        }
+        headers.setContentLength(end - start + 1);
+        metrics.recordBytesSaved(end - start + 1);
+
+        // Offset in long; gli indici dei segmenti restano int perché il body è al più ChunkedBodyWriter.MAX_LENGTH
+        long chunkSize = cached.getChunkSize();
+        int first = Math.toIntExact(start / chunkSize);
+        Flux<DataBuffer> body = cacheService.readChunks(entryKey, cached, first, Math.toIntExact(end / chunkSize))
+                .index()
+                .map(chunk -> {
+                    long chunkStart = (first + chunk.getT1()) * chunkSize;
+                    int from = (int) Math.max(start - chunkStart, 0);
+                    int to = (int) Math.min(end - chunkStart + 1, chunk.getT2().length);
+                    return getDelegate().bufferFactory().wrap(ByteBuffer.wrap(chunk.getT2(), from, to - from).slice());
+                })
+                .doOnError(e -> logger.error("Streaming dell'entry a segmenti {} interrotto", entryKey, e));
+        return super.writeWith(body);
+    }
+
+    /**
+     * Risponde 304 Not Modified usando solo i metadati dell'entry, senza body.
+     *
+     * @param cached i metadati dell'entry in cache
+     * @param acceptsGzip true se il client ha inviato Accept-Encoding: gzip
+     * @return il Mono di completamento della risposta
+     */
+    public Mono<Void> writeNotModified(CachedResponse cached, boolean acceptsGzip) {
+        HttpHeaders headers = getDelegate().getHeaders();
+        // Header che una 304 deve ripetere (RFC 9110 15.4.5)
+        for (String name : List.of(HttpHeaders.CACHE_CONTROL, HttpHeaders.CONTENT_LOCATION,
+                HttpHeaders.DATE, HttpHeaders.EXPIRES, HttpHeaders.VARY)) {
+            cached.getHeaders().forEach((key, values) -> {
+                if (key.equalsIgnoreCase(name)) {
+                    headers.put(name, new ArrayList<>(values));
+                }
+            });
+        }
+        setEtag(cached, cached.isGzipped() && acceptsGzip);
+        getDelegate().setStatusCode(HttpStatus.NOT_MODIFIED);
+        metrics.recordBytesSaved(cached.getBodyLength());
+        return getDelegate().setComplete();
+    }
+
+    private void setEtag(CachedResponse cached, boolean gzipRepresentation) {
+        if (cached.getEtag() != null) {
+            getDelegate().getHeaders().setETag(gzipRepresentation ? EntityTags.forGzip(cached.getEtag()) : cached.getEtag());
+        }
     }
 
     private Map<String, List<String>> extractHeaders() {
@@ -0,0 +1,91 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.springframework.core.io.buffer.DataBuffer;
+
+/**
+ * Copia i chunk della risposta mentre vengono inoltrati al client, fino a un limite massimo.
+ * Superato il limite la copia viene abbandonata e la memoria rilasciata:
+ * lo stream verso il client prosegue, ma la risposta non verrà messa in cache.
+ */
+public class CappedBodyAccumulator {
+
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+
+    private final long maxBytes;
+    private byte[] content;
+    private int size;
+    private boolean overflow;
+
+    public CappedBodyAccumulator(long maxBytes, long expectedLength) {
+        this.maxBytes = maxBytes;
+        this.overflow = expectedLength > maxBytes;
+        int initial = expectedLength > 0 ? (int) Math.min(expectedLength, maxBytes) : INITIAL_CAPACITY;
+        this.content = overflow ? null : new byte[Math.min(initial, (int) Math.min(maxBytes, Integer.MAX_VALUE - 8))];
+    }
+
+    /**
+     * Copia i byte leggibili del buffer senza modificarne la posizione di lettura.
+     *
+     * @return false se il limite è stato superato e la copia è stata abbandonata
+     */
+    public boolean append(DataBuffer buffer) {
+        if (overflow) {
+            return false;
+        }
+        int length = buffer.readableByteCount();
+        if ((long) size + length > maxBytes) {
+            abandon();
+            return false;
+        }
+        if (size + length > content.length) {
+            content = Arrays.copyOf(content, (int) Math.min(Math.max(content.length * 2L, size + length), maxBytes));
+        }
+        buffer.toByteBuffer(buffer.readPosition(), ByteBuffer.wrap(content), size, length);
+        size += length;
+        return true;
+    }
+
+    public boolean isOverflow() {
+        return overflow;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /*
+     * Vista sui byte accumulati, senza copia
+     */
+    public ByteBuffer content() {
+        return ByteBuffer.wrap(content, 0, size).slice();
+    }
+
+    /**
+     * Abbandona la copia e rilascia la memoria accumulata (body oltre il limite, errore dell'upstream
+     * o client disconnesso).
+     */
+    public void abandon() {
+        overflow = true;
+        content = null;
+        size = 0;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.core.io.buffer.DataBuffer;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.function.Tuple2;
+
+/**
+ * Salva un body di lunghezza nota a segmenti di chunkSize byte mentre viene inoltrato al client:
+ * ogni segmento completo viene scritto su Redis e poi rilasciato, così in memoria restano al più
+ * maxPendingChunks segmenti. Se Redis non tiene il passo la scrittura viene abbandonata,
+ * senza rallentare lo stream verso il client.
+ * <p>
+ * I segmenti appartengono a una generazione nuova: i metadati che vi rimandano vengono scritti
+ * solo dopo l'ultimo segmento, quindi chi legge non vede mai un'entry incompleta.
+ * <p>
+ * append arriva dal thread dell'upstream, abandon anche da quello che annulla la risposta:
+ * i metodi che toccano il segmento corrente e il sink sono sincronizzati, così dopo abandon
+ * nessun segmento viene più emesso e l'errore sul sink non va perso.
+ */
+public class ChunkedBodyWriter {
+
+    // Nei metadati la lunghezza del body è un int: body più lunghi non si salvano a segmenti
+    public static final long MAX_LENGTH = Integer.MAX_VALUE;
+
+    private final String entryKey;
+    private final long generation;
+    private final int chunkSize;
+    private final int maxPendingChunks;
+    private final long expectedLength;
+    private final MessageDigest digest = EntityTags.digest(); // ETag forte se l'upstream non lo fornisce
+    private final Sinks.Many<byte[]> chunks = Sinks.many().unicast().onBackpressureBuffer();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Mono<Boolean> written;
+    private byte[] current;
+    private int position;
+    private long length;
+    private volatile boolean abandoned;
+
+    /**
+     * @param entryKey la chiave dell'entry (della variante, con Vary)
+     * @param expectedLength la Content-Length della risposta
+     * @param ttl il TTL provvisorio dei segmenti, allineato a quello dei metadati al commit
+     */
+    public ChunkedBodyWriter(CacheService cacheService, String entryKey, int chunkSize, int maxPendingChunks,
+            long expectedLength, long ttl) {
+        if (expectedLength > MAX_LENGTH) {
+            throw new IllegalArgumentException("Body di " + expectedLength + " byte oltre il massimo delle entry a segmenti");
+        }
+        this.entryKey = entryKey;
+        this.generation = System.currentTimeMillis() * 1000 + (System.nanoTime() & 0x3ff);
+        this.chunkSize = chunkSize;
+        this.maxPendingChunks = maxPendingChunks;
+        this.expectedLength = expectedLength;
+        // un segmento alla volta, nell'ordine: il risultato è true solo se tutti sono stati salvati
+        this.written = chunks.asFlux()
+                .index()
+                .concatMap((Tuple2<Long, byte[]> chunk) -> cacheService
+                        .saveChunk(entryKey, generation, chunk.getT1().intValue(), chunk.getT2(), ttl)
+                        .doOnTerminate(pending::decrementAndGet))
+                .all(Boolean::booleanValue)
+                .onErrorReturn(false)
+                .cache();
+        this.written.subscribe();
+    }
+
+    /**
+     * Copia i byte leggibili del buffer senza modificarne la posizione di lettura.
+     */
+    public synchronized void append(DataBuffer buffer) {
+        if (abandoned) {
+            return;
+        }
+        int readable = buffer.readableByteCount();
+        if (length + readable > expectedLength) {
+            abandon();
+            return;
+        }
+        try (DataBuffer.ByteBufferIterator iterator = buffer.readableByteBuffers()) {
+            iterator.forEachRemaining(digest::update);
+        }
+        int offset = buffer.readPosition();
+        while (readable > 0) {
+            if (current == null) {
+                current = new byte[(int) Math.min(chunkSize, expectedLength - length)];
+                position = 0;
+            }
+            int count = Math.min(readable, current.length - position);
+            buffer.toByteBuffer(offset, ByteBuffer.wrap(current), position, count);
+            position += count;
+            offset += count;
+            readable -= count;
+            length += count;
+            if (position == current.length) {
+                emit(current);
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * @return true quando tutti i segmenti sono su Redis; false se il body non corrisponde
+     *         alla Content-Length o la scrittura è stata abbandonata
+     */
+    public synchronized Mono<Boolean> finish() {
+        if (!abandoned && length != expectedLength) {
+            abandon();
+        }
+        if (abandoned) {
+            return Mono.just(false);
+        }
+        chunks.tryEmitComplete();
+        return written;
+    }
+
+    public synchronized void abandon() {
+        if (abandoned) {
+            return;
+        }
+        abandoned = true;
+        current = null;
+        chunks.tryEmitError(new IllegalStateException("Scrittura a segmenti abbandonata per la chiave " + entryKey));
+    }
+
+    public boolean isAbandoned() {
+        return abandoned;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public synchronized long getLength() {
+        return length;
+    }
+
+    public String etag() {
+        return EntityTags.fromDigest(digest);
+    }
+
+    private void emit(byte[] chunk) {
+        if (abandoned) {
+            return;
+        }
+        if (pending.incrementAndGet() > maxPendingChunks) {
+            abandon(); // Redis più lento dell'upstream: non si accumulano segmenti in memoria
+            return;
+        }
+        chunks.tryEmitNext(chunk);
+    }
+}
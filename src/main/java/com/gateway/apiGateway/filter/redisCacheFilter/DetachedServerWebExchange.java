@@ -0,0 +1,68 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.CLIENT_RESPONSE_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.CLIENT_RESPONSE_CONN_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.CLIENT_RESPONSE_HEADER_NAMES;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ALREADY_ROUTED_ATTR;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.ServerWebExchangeDecorator;
+
+/**
+ * Scambio usato dai refresh in background: richiesta senza precondizioni, response scollegata dal client
+ * e attributi propri, copiati da quelli della richiesta. Il routing del refresh (GATEWAY_ALREADY_ROUTED_ATTR, connessione
+ * e response del client HTTP) non si mescola così con quello della richiesta originale.
+ */
+public class DetachedServerWebExchange extends ServerWebExchangeDecorator {
+
+    private final ServerHttpRequest request;
+    private final ServerHttpResponse response;
+    private final Map<String, Object> attributes;
+
+    public DetachedServerWebExchange(ServerWebExchange exchange, ServerHttpRequest request, ServerHttpResponse response) {
+        super(exchange);
+        this.request = request;
+        this.response = response;
+        this.attributes = new ConcurrentHashMap<>(exchange.getAttributes());
+        attributes.remove(GATEWAY_ALREADY_ROUTED_ATTR);
+        attributes.remove(CLIENT_RESPONSE_ATTR);
+        attributes.remove(CLIENT_RESPONSE_CONN_ATTR);
+        attributes.remove(CLIENT_RESPONSE_HEADER_NAMES);
+    }
+
+    @Override
+    public ServerHttpRequest getRequest() {
+        return request;
+    }
+
+    @Override
+    public ServerHttpResponse getResponse() {
+        return response;
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Validatori HTTP (ETag) per le risposte in cache.
+ */
+public final class EntityTags {
+
+    private static final int DIGEST_BYTES = 16;
+    private static final String GZIP_SUFFIX = "-gzip";
+
+    private EntityTags() {
+    }
+
+    /**
+     * ETag forte calcolato dal digest SHA-256 del body (troncato a 128 bit).
+     */
+    public static String compute(ByteBuffer body) {
+        MessageDigest digest = digest();
+        digest.update(body.duplicate());
+        return fromDigest(digest);
+    }
+
+    /*
+     * Per i body letti a blocchi: digest() da aggiornare con i chunk, poi fromDigest()
+     */
+    public static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Error computing SHA-256 hash", e);
+        }
+    }
+
+    public static String fromDigest(MessageDigest digest) {
+        byte[] hash = Arrays.copyOf(digest.digest(), DIGEST_BYTES);
+        return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(hash) + "\"";
+    }
+
+    /*
+     * Un ETag forte identifica una singola rappresentazione: la variante gzip ha un tag distinto
+     */
+    public static String forGzip(String etag) {
+        if (etag == null || !etag.endsWith("\"")) {
+            return etag;
+        }
+        return etag.substring(0, etag.length() - 1) + GZIP_SUFFIX + "\"";
+    }
+
+    /**
+     * Confronto debole di If-None-Match (RFC 9110 13.1.2) con l'ETag dell'entry,
+     * valido per entrambe le rappresentazioni (identity e gzip).
+     */
+    public static boolean matches(List<String> ifNoneMatch, String etag) {
+        if (etag == null || ifNoneMatch.isEmpty()) {
+            return false;
+        }
+        String opaque = opaque(etag);
+        String gzipOpaque = opaque(forGzip(etag));
+        for (String header : ifNoneMatch) {
+            for (String candidate : header.split(",")) {
+                String tag = candidate.trim();
+                if (tag.equals("*")) {
+                    return true;
+                }
+                String candidateOpaque = opaque(tag);
+                if (candidateOpaque.equals(opaque) || candidateOpaque.equals(gzipOpaque)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String opaque(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+}
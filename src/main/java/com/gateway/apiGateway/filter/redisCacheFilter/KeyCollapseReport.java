@@ -0,0 +1,166 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Dry-run di una CacheKeyPolicy: la route continua a usare la chiave attuale, e per ogni richiesta
+ * si registra a quale chiave della policy corrisponderebbe. Il report dice quante chiavi distinte
+ * collasserebbero in una sola e il limite superiore del hit ratio con le due chiavi
+ * (un miss obbligato per chiave distinta, senza scadenze né eviction).
+ * <p>
+ * Sono seguite al più maxKeys chiavi della policy; per ognuna le chiavi attuali sono ridotte a
+ * fingerprint a 64 bit, fino a MAX_VARIANTS.
+ */
+public class KeyCollapseReport {
+
+    private static final int MAX_VARIANTS = 1024;
+    private static final int SAMPLE_GROUPS = 10;
+    private static final int SAMPLE_KEYS = 5;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /*
+     * Chiavi attuali che confluiscono in una chiave della policy; aggiornato sotto il lock del gruppo
+     */
+    private static final class Group {
+        private final Set<Long> variants = new HashSet<>();
+        private final List<String> samples = new ArrayList<>(SAMPLE_KEYS);
+        private long requests;
+    }
+
+    private final Cache<String, Group> groups;
+    private final long maxKeys;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder currentKeyLength = new LongAdder();
+    private final LongAdder policyKeyLength = new LongAdder();
+    private final LongAccumulator maxCurrentKeyLength = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator maxPolicyKeyLength = new LongAccumulator(Math::max, 0);
+
+    public KeyCollapseReport(long maxKeys) {
+        this.maxKeys = maxKeys;
+        this.groups = Caffeine.newBuilder()
+                .maximumSize(maxKeys)
+                .executor(Runnable::run)
+                .build();
+    }
+
+    /**
+     * @param currentKey la chiave con cui la richiesta è servita
+     * @param policyKey la chiave che le darebbe la policy
+     */
+    public void record(String currentKey, String policyKey) {
+        requests.increment();
+        currentKeyLength.add(currentKey.length());
+        policyKeyLength.add(policyKey.length());
+        maxCurrentKeyLength.accumulate(currentKey.length());
+        maxPolicyKeyLength.accumulate(policyKey.length());
+        Group group = groups.get(policyKey, key -> new Group());
+        synchronized (group) {
+            group.requests++;
+            if (group.variants.size() < MAX_VARIANTS && group.variants.add(fingerprint(currentKey))
+                    && group.samples.size() < SAMPLE_KEYS) {
+                group.samples.add(currentKey);
+            }
+        }
+    }
+
+    public Map<String, Object> report() {
+        long total = requests.sum();
+        long policyKeys = 0;
+        long currentKeys = 0;
+        List<Map.Entry<String, Group>> collapsing = new ArrayList<>();
+        for (Map.Entry<String, Group> entry : groups.asMap().entrySet()) {
+            int variants;
+            synchronized (entry.getValue()) {
+                variants = entry.getValue().variants.size();
+            }
+            policyKeys++;
+            currentKeys += variants;
+            if (variants > 1) {
+                collapsing.add(entry);
+            }
+        }
+        collapsing.sort(Comparator.comparingInt((Map.Entry<String, Group> entry) -> variantCount(entry.getValue())).reversed());
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("requests", total);
+        report.put("currentKeys", currentKeys);
+        report.put("policyKeys", policyKeys);
+        report.put("collapsedKeys", currentKeys - policyKeys);
+        report.put("keyReduction", currentKeys == 0 ? 0.0 : (double) (currentKeys - policyKeys) / currentKeys);
+        report.put("maxHitRatioCurrent", total == 0 ? 0.0 : Math.max(0.0, 1.0 - (double) currentKeys / total));
+        report.put("maxHitRatioPolicy", total == 0 ? 0.0 : Math.max(0.0, 1.0 - (double) policyKeys / total));
+        report.put("avgKeyLengthCurrent", total == 0 ? 0 : currentKeyLength.sum() / total);
+        report.put("avgKeyLengthPolicy", total == 0 ? 0 : policyKeyLength.sum() / total);
+        report.put("maxKeyLengthCurrent", maxCurrentKeyLength.get());
+        report.put("maxKeyLengthPolicy", maxPolicyKeyLength.get());
+        report.put("trackedKeys", policyKeys + "/" + maxKeys);
+        List<Map<String, Object>> samples = new ArrayList<>();
+        for (Map.Entry<String, Group> entry : collapsing.subList(0, Math.min(SAMPLE_GROUPS, collapsing.size()))) {
+            Group group = entry.getValue();
+            synchronized (group) {
+                Map<String, Object> sample = new LinkedHashMap<>();
+                sample.put("policyKey", entry.getKey());
+                sample.put("currentKeys", group.variants.size());
+                sample.put("requests", group.requests);
+                sample.put("examples", List.copyOf(group.samples));
+                samples.add(sample);
+            }
+        }
+        report.put("topCollapses", samples);
+        return report;
+    }
+
+    public void reset() {
+        groups.invalidateAll();
+        requests.reset();
+        currentKeyLength.reset();
+        policyKeyLength.reset();
+        maxCurrentKeyLength.reset();
+        maxPolicyKeyLength.reset();
+    }
+
+    private static int variantCount(Group group) {
+        synchronized (group) {
+            return group.variants.size();
+        }
+    }
+
+    /*
+     * FNV-1a a 64 bit sui caratteri della chiave
+     */
+    private static long fingerprint(String key) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
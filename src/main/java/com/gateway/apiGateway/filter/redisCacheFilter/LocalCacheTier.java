@@ -0,0 +1,120 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+/**
+ * Tier L1 in-heap davanti a Redis.
+ * Limitato in byte, con eviction W-TinyLFU (Caffeine) e TTL per entry
+ * che non supera mai il tempo residuo della chiave su Redis.
+ */
+public class LocalCacheTier {
+
+    private final Cache<String, CachedResponse> cache;
+    private final long maxTtlNanos;
+
+    /**
+     * @param maxBytes dimensione massima stimata del tier in byte
+     * @param maxTtlSeconds TTL massimo di una entry in L1, 0 per seguire solo il TTL di Redis
+     */
+    public LocalCacheTier(long maxBytes, long maxTtlSeconds) {
+        this.maxTtlNanos = maxTtlSeconds > 0 ? TimeUnit.SECONDS.toNanos(maxTtlSeconds) : Long.MAX_VALUE;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(LocalCacheTier::weigh)
+                .expireAfter(new Expiry<String, CachedResponse>() {
+                    @Override
+                    public long expireAfterCreate(String key, CachedResponse value, long currentTime) {
+                        return ttlNanos(value);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, CachedResponse value, long currentTime, long currentDuration) {
+                        return ttlNanos(value);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, CachedResponse value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    public CachedResponse get(String key) {
+        return cache.getIfPresent(key);
+    }
+
+    public void put(String key, CachedResponse value) {
+        if (ttlNanos(value) > 0) {
+            cache.put(key, value);
+        }
+    }
+
+    public void invalidate(String key) {
+        cache.invalidate(key);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * @param weightLimit il peso massimo complessivo (byte stimati)
+     * @return le entry più frequenti secondo la policy di Caffeine, dalla più calda
+     */
+    public Map<String, CachedResponse> hottest(long weightLimit) {
+        return cache.policy().eviction()
+                .map(eviction -> eviction.hottestWeighted(weightLimit))
+                .orElse(Map.of());
+    }
+
+    /*
+     * Il TTL in L1 è il minimo tra quello configurato e il residuo su Redis
+     */
+    private long ttlNanos(CachedResponse value) {
+        if (value.getExpiresAt() <= 0) {
+            return maxTtlNanos == Long.MAX_VALUE ? 0 : maxTtlNanos;
+        }
+        long remaining = TimeUnit.MILLISECONDS.toNanos(value.getExpiresAt() - System.currentTimeMillis());
+        return Math.max(Math.min(remaining, maxTtlNanos), 0);
+    }
+
+    /*
+     * Stima grossolana dell'occupazione in heap: chiave, body e header
+     */
+    private static int weigh(String key, CachedResponse value) {
+        long weight = 2L * key.length();
+        weight += value.isChunked() ? 0 : value.getBodyLength(); // dei body a segmenti restano solo i metadati
+        if (value.getHeaders() != null) {
+            for (Map.Entry<String, List<String>> header : value.getHeaders().entrySet()) {
+                weight += 2L * header.getKey().length();
+                for (String headerValue : header.getValue()) {
+                    weight += 2L * headerValue.length();
+                }
+            }
+        }
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import com.gateway.apiGateway.redis.RedisGuard;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+/**
+ * Coalescenza dei cache miss concorrenti (single-flight).
+ * La prima richiesta per una chiave va al backend, le altre attendono la risposta
+ * catturata dal leader per un tempo massimo, dopodiché proseguono verso il backend.
+ * In modalità distribuita il leader è unico tra le repliche grazie a un lock Redis a breve durata.
+ */
+public class MissCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(MissCoalescer.class);
+
+    private static final String LOCK_SUFFIX = ":lock";
+    private static final Duration POLL_INTERVAL = Duration.ofMillis(25);
+    // Rilascia il lock solo se appartiene ancora a questa richiesta
+    private static final RedisScript<Long> RELEASE_SCRIPT = RedisScript.of(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+
+    private final ConcurrentHashMap<String, Sinks.One<CachedResponse>> inFlight = new ConcurrentHashMap<>();
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final RedisGuard redisGuard;
+    private final CacheService cacheService;
+    private final Duration maxWait;
+    private final boolean distributed;
+    private final Duration lockTtl;
+
+    public MissCoalescer(ReactiveStringRedisTemplate redisTemplate, RedisGuard redisGuard, CacheService cacheService,
+            Duration maxWait, boolean distributed, Duration lockTtl) {
+        this.redisTemplate = redisTemplate;
+        this.redisGuard = redisGuard;
+        this.cacheService = cacheService;
+        this.maxWait = maxWait;
+        this.distributed = distributed;
+        this.lockTtl = lockTtl;
+    }
+
+    /**
+     * @param cacheKey chiave del miss
+     * @param leader esegue la richiesta al backend e pubblica la risposta catturata sul sink
+     * @param follower scrive al client la risposta ottenuta dal leader
+     * @param fallback prosegue verso il backend quando l'attesa non produce una risposta
+     */
+    public Mono<Void> coalesce(String cacheKey,
+            Function<Sinks.One<CachedResponse>, Mono<Void>> leader,
+            Function<CachedResponse, Mono<Void>> follower,
+            Supplier<Mono<Void>> fallback) {
+        Sinks.One<CachedResponse> sink = Sinks.one();
+        Sinks.One<CachedResponse> existing = inFlight.putIfAbsent(cacheKey, sink);
+        if (existing != null) {
+            logger.debug("[MissCoalescer] Waiting for in-flight request on key: {}", cacheKey);
+            return await(existing.asMono().timeout(maxWait, Mono.empty()), follower, fallback);
+        }
+
+        Mono<Void> execution = distributed
+                ? leadAcrossReplicas(cacheKey, sink, leader, follower, fallback)
+                : leader.apply(sink);
+
+        return execution.doFinally(signal -> {
+            sink.tryEmitEmpty(); // i follower senza risposta proseguono verso il backend
+            inFlight.remove(cacheKey, sink);
+        });
+    }
+
+    private Mono<Void> leadAcrossReplicas(String cacheKey, Sinks.One<CachedResponse> sink,
+            Function<Sinks.One<CachedResponse>, Mono<Void>> leader,
+            Function<CachedResponse, Mono<Void>> follower,
+            Supplier<Mono<Void>> fallback) {
+        String lockKey = cacheKey + LOCK_SUFFIX;
+        String token = UUID.randomUUID().toString();
+
+        return redisGuard.guard(RedisGuard.Operation.LOCK, redisTemplate.opsForValue().setIfAbsent(lockKey, token, lockTtl))
+                .onErrorResume(e -> {
+                    logger.warn("[MissCoalescer] Lock acquisition failed for key {}, proceeding as leader", cacheKey, e);
+                    return Mono.just(true);
+                })
+                .flatMap(acquired -> {
+                    if (acquired) {
+                        return leader.apply(sink).doFinally(signal -> releaseLock(lockKey, token));
+                    }
+                    // Un'altra replica sta già interrogando il backend: attendo la sua scrittura su Redis
+                    logger.debug("[MissCoalescer] Key {} locked by another replica, polling cache", cacheKey);
+                    Mono<CachedResponse> remote = Flux.interval(POLL_INTERVAL)
+                            .concatMap(tick -> cacheService.exists(cacheKey).onErrorReturn(false))
+                            .filter(Boolean::booleanValue)
+                            .next()
+                            .flatMap(found -> cacheService.get(cacheKey).onErrorResume(e -> Mono.empty()))
+                            .timeout(maxWait, Mono.empty())
+                            .doOnNext(sink::tryEmitValue);
+                    return await(remote, follower, fallback);
+                });
+    }
+
+    private Mono<Void> await(Mono<CachedResponse> response,
+            Function<CachedResponse, Mono<Void>> follower,
+            Supplier<Mono<Void>> fallback) {
+        return response
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(cached -> cached.isPresent() ? follower.apply(cached.get()) : fallback.get());
+    }
+
+    private void releaseLock(String lockKey, String token) {
+        redisGuard.guard(RedisGuard.Operation.LOCK, redisTemplate.execute(RELEASE_SCRIPT, List.of(lockKey), List.of(token)))
+                .doOnError(e -> logger.warn("[MissCoalescer] Unable to release lock {}", lockKey, e))
+                .onErrorResume(e -> Mono.empty())
+                .subscribe();
+    }
+}
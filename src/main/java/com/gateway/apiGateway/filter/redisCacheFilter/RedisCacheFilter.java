@@ -16,8 +16,12 @@
  */
 package com.gateway.apiGateway.filter.redisCacheFilter;
 
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,42 +29,128 @@ import org.springframework.cloud.gateway.filter.GatewayFilter;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.cloud.gateway.filter.NettyWriteResponseFilter;
 import org.springframework.core.Ordered;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
-import org.springframework.stereotype.Component;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.web.server.ServerWebExchange;
 
 import com.gateway.apiGateway.Factory.RedisCacheFilterGatewayFilterFactory.Config;
+import com.gateway.apiGateway.hotkeys.HotKeyRegistry;
+import com.gateway.apiGateway.redis.CacheShardRouter;
+import com.gateway.apiGateway.redis.RedisGuard;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import reactor.core.publisher.Mono;
 import reactor.util.function.Tuple2;
 import reactor.util.function.Tuples;
 
-@Component
 public class RedisCacheFilter implements GatewayFilter, Ordered {
 
     private static final Logger logger = LoggerFactory.getLogger(RedisCacheFilter.class);
-    private final ReactiveStringRedisTemplate redisTemplate;
+    private static final List<String> UPSTREAM_STRIPPED_HEADERS = List.of(HttpHeaders.IF_NONE_MATCH,
+            HttpHeaders.IF_MODIFIED_SINCE, HttpHeaders.IF_MATCH, HttpHeaders.IF_UNMODIFIED_SINCE,
+            HttpHeaders.IF_RANGE, HttpHeaders.RANGE);
     private final Config config;
+    private final CacheService cacheService;
+    private final CacheMetrics metrics;
+    private final MissCoalescer missCoalescer; // null se la coalescenza dei miss è disabilitata
+    private final BackgroundRefresher refresher;
+    private final TinyLfuAdmission admission; // null se la route ammette ogni risposta cacheabile
+    private final AdaptiveTtl adaptiveTtl; // null se la route usa il ttl fisso
+    private final CacheKeyPolicy keyPolicy; // la policy con cui sono costruite le chiavi
+    private final CacheKeyPolicy dryRunPolicy; // la policy configurata, misurata senza usarla; null senza dry-run
+    private final KeyCollapseReport keyCollapse;
+    private final RedisGuard redisGuard;
+    private final HotKeyRegistry hotKeys;
 
     @Override
     public int getOrder() {
         return NettyWriteResponseFilter.WRITE_RESPONSE_FILTER_ORDER - 1;
     }
 
-    public RedisCacheFilter(ReactiveStringRedisTemplate redisTemplate, Config config) {
-        this.redisTemplate = redisTemplate;
+    public RedisCacheFilter(ReactiveStringRedisTemplate redisTemplate,
+            CacheShardRouter cacheShards, Config config,
+            CacheInvalidationBus invalidationBus, CacheIndex cacheIndex, RedisGuard redisGuard, HotKeyRegistry hotKeys,
+            CacheSnapshotService snapshotService, KeyCollapseRegistry keyCollapseRegistry, MeterRegistry meterRegistry) {
         this.config = config;
+        this.redisGuard = redisGuard;
+        this.hotKeys = hotKeys;
+        this.metrics = new CacheMetrics(meterRegistry, config.getRouteId(), config.getCachePrefix());
+        /*
+         * Tier L1 opzionale, uno per route, registrato sul canale di invalidazione al posto di quello
+         * della configurazione precedente della route
+         */
+        LocalCacheTier localTier = null;
+        if (config.isL1Enabled()) {
+            localTier = new LocalCacheTier(config.getL1MaxBytes(), config.getL1Ttl());
+            invalidationBus.register(config.getCachePrefix(), localTier);
+        } else {
+            invalidationBus.unregister(config.getCachePrefix());
+        }
+        this.cacheService = new CacheService(cacheShards, redisGuard, localTier, invalidationBus,
+                new BodyCompressor(config.getCompressionThreshold(), metrics),
+                cacheIndex, config.getCachePrefix(), config.getTagHeader(), metrics);
+        /*
+         * Le entry più calde del tier L1 sopravvivono al riavvio tramite snapshot locale
+         */
+        if (localTier != null) {
+            snapshotService.register(config.getCachePrefix(), localTier, cacheService::getMetadata);
+        } else {
+            snapshotService.unregister(config.getCachePrefix());
+        }
+        this.missCoalescer = config.isCoalescingEnabled()
+                ? new MissCoalescer(redisTemplate, redisGuard, cacheService,
+                        Duration.ofMillis(config.getCoalescingMaxWaitMs()),
+                        config.isCoalescingDistributed(),
+                        Duration.ofMillis(config.getCoalescingLockTtlMs()))
+                : null;
+        this.admission = config.getAdmissionThreshold() > 1
+                ? new TinyLfuAdmission(config.getAdmissionThreshold(), config.getAdmissionWindow())
+                : null;
+        this.adaptiveTtl = config.isAdaptiveTtl()
+                ? new AdaptiveTtl(config.getTtl(), config.getMinTtl(), config.getMaxTtl(),
+                        config.getAdaptiveTtlIncrease(), config.getAdaptiveTtlDecrease(),
+                        config.getAdaptiveTtlMaxKeys(), metrics)
+                : null;
+        /*
+         * In dry-run le chiavi restano quelle storiche e la policy configurata viene solo misurata
+         */
+        if (config.isKeyPolicyDryRun()) {
+            this.keyPolicy = CacheKeyPolicy.LEGACY;
+            this.dryRunPolicy = config.keyPolicy();
+            this.keyCollapse = new KeyCollapseReport(config.getKeyReportMaxKeys());
+            keyCollapseRegistry.register(config.getRouteId(), keyCollapse);
+        } else {
+            this.keyPolicy = config.keyPolicy();
+            this.dryRunPolicy = null;
+            this.keyCollapse = null;
+        }
+        this.refresher = new BackgroundRefresher(redisTemplate, redisGuard, config.isCoalescingDistributed(),
+                Duration.ofMillis(config.getCoalescingLockTtlMs()));
     }
 
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
         String method = exchange.getRequest().getMethod().toString();
         String path = exchange.getRequest().getURI().getPath();
-        logger.info("[RedisCacheFilter] Processing request: method={}, path={}", method, path);
+        logger.debug("[RedisCacheFilter] Processing request: method={}, path={}", method, path);
 
         if (!config.isCacheable(method)) {
-            logger.info("[RedisCacheFilter] Method {} is not cacheable. Proceeding without cache.", method);
+            logger.debug("[RedisCacheFilter] Method {} is not cacheable. Proceeding without cache.", method);
+            metrics.recordBypass(CacheMetrics.BypassReason.METHOD);
+            return chain.filter(exchange);
+        }
+        if (!redisGuard.isAvailable()) {
+            logger.debug("[RedisCacheFilter] Redis circuit breaker open. Proceeding without cache.");
+            redisGuard.recordDegraded("cache");
+            return chain.filter(exchange);
+        }
+        if (!CacheKeys.isHashable(exchange.getRequest(), config.getMaxHashableBodyBytes())) {
+            logger.debug("[RedisCacheFilter] Body of unknown length or above maxHashableBodyBytes. Proceeding without cache.");
+            metrics.recordBypass(CacheMetrics.BypassReason.BODY);
             return chain.filter(exchange);
         }
 
@@ -68,79 +158,278 @@ public class RedisCacheFilter implements GatewayFilter, Ordered {
             ServerWebExchange newExchange = tuple.getT1();
             String cacheKey = tuple.getT2();
 
-            logger.info("[RedisCacheFilter] Generated cache key: {}", cacheKey);
+            logger.debug("[RedisCacheFilter] Generated cache key: {}", cacheKey);
+            hotKeys.recordCacheKey(cacheKey);
+            boolean acceptsGzip = acceptsGzip(newExchange);
 
             CachingServerHttpResponseDecorator cachedResponse = new CachingServerHttpResponseDecorator(
-                    newExchange.getResponse(), cacheKey, redisTemplate, config.getTtl()
+                    newExchange.getResponse(), cacheKey, cacheService, config, metrics,
+                    newExchange.getRequest().getHeaders()
             );
+            cachedResponse.setAdaptiveTtl(adaptiveTtl);
+
+            // Con If-None-Match bastano i metadati: il body si legge solo se l'ETag non corrisponde
+            List<String> ifNoneMatch = ifNoneMatch(newExchange);
 
-            return redisTemplate
-                    .hasKey(cacheKey)
-                    .flatMap(exists -> {
-                        if (exists) {
-                            logger.info("[RedisCacheFilter] Cache hit for key: {}", cacheKey);
-                            return redisTemplate.opsForValue().get(cacheKey).flatMap(cachedValue -> {
-                                return cachedResponse.writeWithCachedResponse(cachedValue);
-                            });
-                        } else {
-                            logger.info("[RedisCacheFilter] Cache miss for key: {}", cacheKey);
-                            return chain.filter(newExchange.mutate().response(cachedResponse).build());
+            // Sulla chiave base può esserci un marker Vary: in quel caso si cerca la variante della richiesta
+            return lookup(cacheKey, ifNoneMatch)
+                    .flatMap(entry -> {
+                        if (!entry.isVaryMarker()) {
+                            return Mono.just(Tuples.of(cacheKey, Optional.of(entry)));
                         }
+                        String variantKey = VaryKeys.variantKey(cacheKey, entry.getVaryNames(),
+                                newExchange.getRequest().getHeaders());
+                        return lookup(variantKey, ifNoneMatch)
+                                .map(Optional::of)
+                                .defaultIfEmpty(Optional.empty())
+                                .map(variant -> Tuples.of(variantKey, variant));
                     })
-                    .doOnError(error -> logger.error("[RedisCacheFilter] Error accessing cache: ", error));
+                    .defaultIfEmpty(Tuples.of(cacheKey, Optional.empty()))
+                    .flatMap(result -> {
+                        String entryKey = result.getT1();
+                        if (result.getT2().isPresent()) {
+                            return serveHit(newExchange, chain, cacheKey, entryKey, result.getT2().get(),
+                                    cachedResponse, ifNoneMatch, acceptsGzip);
+                        }
+                        logger.debug("[RedisCacheFilter] Cache miss for key: {}", entryKey);
+                        metrics.recordMiss();
+                        if (admission != null) {
+                            // Frequenza sulla chiave base: le varianti Vary condividono l'ammissione
+                            cachedResponse.setAdmitted(admission.recordAndAdmit(cacheKey));
+                        }
+                        return handleMiss(newExchange, chain, cacheKey, entryKey, cachedResponse, acceptsGzip);
+                    })
+                    .doOnError(error -> logger.error("[RedisCacheFilter] Error accessing cache: ", error))
+                    .doFinally(signal -> {
+                        if (newExchange.getRequest() instanceof CachedBodyRequestDecorator decoratedRequest) {
+                            decoratedRequest.release();
+                        }
+                    });
+        });
+    }
+
+    private Mono<CachedResponse> lookup(String key, List<String> ifNoneMatch) {
+        return ifNoneMatch.isEmpty() ? cacheService.get(key) : cacheService.getMetadata(key);
+    }
+
+    /**
+     * Serve un'entry trovata in cache, avviando il refresh se è stale o prossima alla scadenza.
+     *
+     * @param exchange il ServerWebExchange corrente
+     * @param chain la catena dei filtri
+     * @param cacheKey la chiave base della richiesta
+     * @param entryKey la chiave dell'entry (la variante, se la risorsa usa Vary)
+     * @param hit l'entry trovata
+     * @param cachedResponse il decorator della response
+     * @param ifNoneMatch i valori di If-None-Match della richiesta
+     * @param acceptsGzip true se il client accetta body compressi
+     * @return il Mono di completamento della richiesta
+     */
+    private Mono<Void> serveHit(ServerWebExchange exchange, GatewayFilterChain chain, String cacheKey,
+            String entryKey, CachedResponse hit, CachingServerHttpResponseDecorator cachedResponse,
+            List<String> ifNoneMatch, boolean acceptsGzip) {
+        long now = System.currentTimeMillis();
+        // Il refresh parte solo quando l'hit viene davvero servito: se il body manca la richiesta passa
+        // al backend come miss, e un refresh già avviato sarebbe un secondo routing della stessa chiave
+        boolean refresh;
+        if (!hit.isFresh(now)) {
+            if (config.getStaleWhileRevalidate() <= 0) {
+                metrics.recordMiss();
+                return handleMiss(exchange, chain, cacheKey, entryKey, cachedResponse, acceptsGzip);
+            }
+            logger.debug("[RedisCacheFilter] Serving stale entry for key: {}", entryKey);
+            metrics.recordStaleHit();
+            refresh = true;
+        } else if (shouldRefreshEarly(hit, now)) {
+            logger.debug("[RedisCacheFilter] Early refresh for key: {}", entryKey);
+            metrics.recordHit();
+            refresh = true;
+        } else {
+            logger.debug("[RedisCacheFilter] Cache hit for key: {}", entryKey);
+            metrics.recordHit();
+            refresh = false;
+        }
+        // 304 solo per le entry 2xx: una 404 o 410 in cache non diventa mai 304
+        if (HttpStatusCode.valueOf(hit.getStatusCode()).is2xxSuccessful() && EntityTags.matches(ifNoneMatch, hit.getEtag())) {
+            if (refresh) {
+                refresh(exchange, chain, cacheKey, entryKey);
+            }
+            return cachedResponse.writeNotModified(hit, acceptsGzip);
+        }
+        return cacheService.loadBody(entryKey, hit)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(full -> {
+                    if (full.isEmpty()) {
+                        return handleMiss(exchange, chain, cacheKey, entryKey, cachedResponse, acceptsGzip);
+                    }
+                    if (refresh) {
+                        refresh(exchange, chain, cacheKey, entryKey);
+                    }
+                    return cachedResponse.writeWithCachedResponse(entryKey, full.get(), acceptsGzip);
+                });
+    }
+
+    /**
+     * Gestisce un cache miss, coalescendo le richieste concorrenti sulla stessa chiave.
+     *
+     * @param exchange il ServerWebExchange corrente
+     * @param chain la catena dei filtri
+     * @param cacheKey la chiave base della richiesta
+     * @param entryKey la chiave su cui coalescere (la variante, se già nota)
+     * @param cachedResponse il decorator che cattura la risposta del backend
+     * @param acceptsGzip true se il client accetta body compressi
+     * @return il Mono di completamento della richiesta
+     */
+    private Mono<Void> handleMiss(ServerWebExchange exchange, GatewayFilterChain chain, String cacheKey,
+            String entryKey, CachingServerHttpResponseDecorator cachedResponse, boolean acceptsGzip) {
+        ServerWebExchange upstream = exchange.mutate()
+                .request(unconditional(exchange.getRequest()))
+                .response(cachedResponse)
+                .build();
+        if (missCoalescer == null) {
+            return chain.filter(upstream);
+        }
+        // Sulla chiave base la variante del leader non è nota: una risposta con Vary non si condivide
+        boolean variantKnown = !entryKey.equals(cacheKey);
+        return missCoalescer.coalesce(entryKey,
+                sink -> {
+                    cachedResponse.setCaptureSink(sink);
+                    return chain.filter(upstream);
+                },
+                hit -> variantKnown || hit.getVaryNames().isEmpty()
+                        ? cachedResponse.writeWithCachedResponse(entryKey, hit, acceptsGzip)
+                        : chain.filter(upstream),
+                () -> chain.filter(upstream));
+    }
+
+    /**
+     * Scadenza anticipata probabilistica (XFetch): la probabilità di refresh cresce
+     * avvicinandosi al soft TTL, in proporzione al tempo di calcolo della risposta.
+     *
+     * @param hit l'entry trovata in cache
+     * @param now l'istante corrente in millisecondi
+     * @return true se la richiesta corrente deve avviare il refresh
+     */
+    private boolean shouldRefreshEarly(CachedResponse hit, long now) {
+        double beta = config.getEarlyRefreshBeta();
+        if (beta <= 0 || hit.getFreshUntil() == 0) {
+            return false;
+        }
+        double delta = Math.max(hit.getComputeTimeMs(), 1);
+        double gap = -delta * beta * Math.log(ThreadLocalRandom.current().nextDouble());
+        return now + gap >= hit.getFreshUntil();
+    }
+
+    /**
+     * Ripercorre la catena dei filtri in background con una response scollegata dal client e una copia
+     * degli attributi dello scambio, così la risposta del backend aggiorna solo la cache.
+     *
+     * @param exchange il ServerWebExchange corrente
+     * @param chain la catena dei filtri
+     * @param cacheKey la chiave base della richiesta
+     * @param entryKey la chiave dell'entry da aggiornare
+     */
+    private void refresh(ServerWebExchange exchange, GatewayFilterChain chain, String cacheKey, String entryKey) {
+        // Il refresh può rileggere il body dopo la fine della richiesta: servono riferimenti propri
+        Runnable releaseBody = () -> {};
+        if (exchange.getRequest() instanceof CachedBodyRequestDecorator decoratedRequest) {
+            decoratedRequest.retain();
+            releaseBody = decoratedRequest::release;
+        }
+        refresher.refresh(entryKey, releaseBody, () -> {
+            DetachedServerHttpResponse detached = new DetachedServerHttpResponse(exchange.getResponse().bufferFactory());
+            CachingServerHttpResponseDecorator refreshing = new CachingServerHttpResponseDecorator(
+                    detached, cacheKey, cacheService, config, metrics, exchange.getRequest().getHeaders());
+            refreshing.setAdaptiveTtl(adaptiveTtl);
+            return chain.filter(new DetachedServerWebExchange(exchange, unconditional(exchange.getRequest()), refreshing));
         });
     }
 
     /**
-     * Estrae il percorso (path) dalla richiesta.
+     * Toglie gli header condizionali e Range dalla richiesta inoltrata al backend per riempire la cache:
+     * una 304 o una 206 non si possono salvare, quindi un client che rivalida con il suo ETag non
+     * riempirebbe mai la cache né la aggiornerebbe durante lo stale-while-revalidate.
+     *
+     * @param request la richiesta del client
+     * @return la richiesta senza precondizioni, la stessa se non ne ha
+     */
+    private static ServerHttpRequest unconditional(ServerHttpRequest request) {
+        HttpHeaders headers = request.getHeaders();
+        boolean conditional = false;
+        for (String name : UPSTREAM_STRIPPED_HEADERS) {
+            conditional |= headers.containsKey(name);
+        }
+        if (!conditional) {
+            return request;
+        }
+        return request.mutate()
+                .headers(writable -> UPSTREAM_STRIPPED_HEADERS.forEach(writable::remove))
+                .build();
+    }
+
+    /**
+     * Legge If-None-Match; un valore malformato viene ignorato invece di far fallire la richiesta.
      *
      * @param exchange il ServerWebExchange corrente
-     * @return il path della richiesta
+     * @return gli ETag richiesti, vuoto se assenti o non validi
      */
-    private String extractPath(ServerWebExchange exchange) {
-        return exchange.getRequest().getURI().getPath();
+    private List<String> ifNoneMatch(ServerWebExchange exchange) {
+        try {
+            return exchange.getRequest().getHeaders().getIfNoneMatch();
+        } catch (IllegalArgumentException e) {
+            return List.of();
+        }
     }
 
     /**
-     * Estrae e formatta i parametri della query ordinandoli per chiave.
+     * Verifica se il client accetta risposte compresse con gzip.
      *
      * @param exchange il ServerWebExchange corrente
-     * @return una stringa formattata con i parametri
+     * @return true se Accept-Encoding contiene gzip
      */
-    private String extractQueryParams(ServerWebExchange exchange) {
-        return exchange.getRequest().getQueryParams().entrySet().stream()
-                .sorted(Map.Entry.comparingByKey())
-                .map(entry -> entry.getKey() + "=" + String.join(",", entry.getValue()))
-                .collect(Collectors.joining("&"));
+    private boolean acceptsGzip(ServerWebExchange exchange) {
+        return exchange.getRequest().getHeaders().getOrEmpty(HttpHeaders.ACCEPT_ENCODING).stream()
+                .anyMatch(value -> value.toLowerCase().contains("gzip"));
     }
 
     private Mono<Tuple2<ServerWebExchange, String>> generateCacheKey(ServerWebExchange exchange) {
         /*
         * Genero le costanti 
          */
-        String cachePrefix = config.getCachePrefix();
-        String path = extractPath(exchange);
-        String params = extractQueryParams(exchange);
-        String keyBase = cachePrefix + path + ":" + params;
+        String keyBase = keyPolicy.keyBase(config.getCachePrefix(), exchange.getRequest());
+        if (dryRunPolicy != null) {
+            keyCollapse.record(keyBase, dryRunPolicy.keyBase(config.getCachePrefix(), exchange.getRequest()));
+        }
         // Se la richiesta è di tipo GET, non serve l'hash del body
-        if ("GET".equalsIgnoreCase(exchange.getRequest().getMethod().toString())) {
+        if (!CacheKeys.isKeyedByBody(exchange.getRequest())) {
             return Mono.just(Tuples.of(exchange, keyBase));
         }
-        // Per altre tipologie, aggiungiamo l'hash del body
-        return DataBufferUtils
-            .join(exchange.getRequest().getBody())
-            .flatMap(dataBuffer -> {
-                byte[] bodyBytes = new byte[dataBuffer.readableByteCount()];
-                dataBuffer.read(bodyBytes);
-                DataBufferUtils.release(dataBuffer);
-                // Creiamo il decorator per accedere alla request
-                CachedBodyRequestDecorator decoratedRequest = new CachedBodyRequestDecorator(exchange.getRequest(), bodyBytes);
+        // Per altre tipologie, aggiungiamo l'hash del body calcolato man mano che arrivano i chunk
+        MessageDigest digest = CacheKeys.sha256();
+        List<DataBuffer> retained = new ArrayList<>();
+        long[] length = new long[1];
+        return exchange.getRequest().getBody()
+            .doOnNext(dataBuffer -> {
+                retained.add(dataBuffer);
+                length[0] += dataBuffer.readableByteCount();
+                // Le viste restituite dall'iteratore non spostano la posizione di lettura del buffer
+                try (DataBuffer.ByteBufferIterator iterator = dataBuffer.readableByteBuffers()) {
+                    iterator.forEachRemaining(digest::update);
+                }
+            })
+            .then(Mono.fromCallable(() -> {
+                // Il decorator trattiene i buffer ricevuti per i filtri successivi
+                CachedBodyRequestDecorator decoratedRequest = new CachedBodyRequestDecorator(exchange.getRequest(),
+                        retained, length[0], CacheKeys.hex(digest));
                 // Creiamo un nuovo ServerWebExchange con la request decorata
                 ServerWebExchange mutatedExchange = exchange.mutate().request(decoratedRequest).build();
                 // Combiniamo la key base con l'hash ottenuto dal decorator
-                String finalKey = keyBase + ":" + decoratedRequest.getBodyHash();
-                return Mono.just(Tuples.of(mutatedExchange, finalKey));
-            });
+                String finalKey = keyPolicy.withBodyHash(keyBase, decoratedRequest.getBodyHash());
+                return Tuples.of(mutatedExchange, finalKey);
+            }))
+            .doOnError(error -> retained.forEach(DataBufferUtils::release))
+            .doOnCancel(() -> retained.forEach(DataBufferUtils::release));
     }
 
 }
@@ -0,0 +1,128 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import java.util.Locale;
+
+import org.springframework.http.HttpHeaders;
+
+import com.gateway.apiGateway.Factory.RedisCacheFilterGatewayFilterFactory.Config;
+
+/**
+ * Deriva il TTL di una risposta dagli header dell'upstream (Cache-Control, Expires),
+ * limitato dal minTtl/maxTtl della route.
+ */
+public final class ResponseCachePolicy {
+
+    public static final long NOT_CACHEABLE = -1;
+
+    private ResponseCachePolicy() {
+    }
+
+    /**
+     * @param headers gli header della risposta dell'upstream
+     * @param config la configurazione della route
+     * @return il TTL in secondi, oppure {@link #NOT_CACHEABLE}
+     */
+    public static long ttlSeconds(HttpHeaders headers, Config config) {
+        if (!config.isHonorCacheControl()) {
+            return config.getTtl();
+        }
+        if (headers.getVary().contains("*")) {
+            return NOT_CACHEABLE;
+        }
+
+        Long maxAge = null;
+        Long sMaxAge = null;
+        for (String value : headers.getOrEmpty(HttpHeaders.CACHE_CONTROL)) {
+            for (String token : value.split(",")) {
+                String directive = token.trim().toLowerCase(Locale.ROOT);
+                // private e no-cache possono elencare degli header (private="Set-Cookie"): conta il nome,
+                // e anche la forma con argomento rende la risposta non salvabile in una cache condivisa
+                int equals = directive.indexOf('=');
+                String name = equals < 0 ? directive : directive.substring(0, equals).trim();
+                if (name.equals("no-store") || name.equals("private") || name.equals("no-cache")) {
+                    return NOT_CACHEABLE;
+                }
+                if (directive.startsWith("s-maxage=")) {
+                    sMaxAge = parseSeconds(directive.substring("s-maxage=".length()));
+                } else if (directive.startsWith("max-age=")) {
+                    maxAge = parseSeconds(directive.substring("max-age=".length()));
+                }
+            }
+        }
+
+        // Siamo una cache condivisa: s-maxage prevale su max-age, che prevale su Expires
+        Long ttl = sMaxAge != null ? sMaxAge : maxAge;
+        if (ttl == null && headers.containsKey(HttpHeaders.EXPIRES)) {
+            // Un Expires non valido vale come già scaduto (RFC 9111, 5.3); un Date non valido come assente
+            long expires = dateHeader(headers, HttpHeaders.EXPIRES);
+            if (expires < 0) {
+                return NOT_CACHEABLE;
+            }
+            long date = dateHeader(headers, HttpHeaders.DATE);
+            ttl = (expires - (date >= 0 ? date : System.currentTimeMillis())) / 1000;
+        }
+        if (ttl == null) {
+            return config.getTtl();
+        }
+        if (ttl <= 0) {
+            return NOT_CACHEABLE;
+        }
+        return Math.min(Math.max(ttl, config.getMinTtl()), config.getMaxTtl());
+    }
+
+    /**
+     * @param headers gli header della risposta dell'upstream
+     * @param config la configurazione della route
+     * @return true se il TTL viene da Cache-Control/Expires e non dal ttl della route
+     */
+    public static boolean hasExplicitFreshness(HttpHeaders headers, Config config) {
+        if (!config.isHonorCacheControl()) {
+            return false;
+        }
+        for (String value : headers.getOrEmpty(HttpHeaders.CACHE_CONTROL)) {
+            for (String token : value.split(",")) {
+                String directive = token.trim().toLowerCase(Locale.ROOT);
+                if (directive.startsWith("s-maxage=") || directive.startsWith("max-age=")) {
+                    return true;
+                }
+            }
+        }
+        return headers.containsKey(HttpHeaders.EXPIRES);
+    }
+
+    private static Long parseSeconds(String value) {
+        try {
+            return Long.parseLong(value.replace("\"", "").trim());
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+    /*
+     * -1 se l'header manca o non è una data valida: getDate() lancerebbe IllegalArgumentException
+     * nel percorso di scrittura della response, che va solo non messa in cache
+     */
+    private static long dateHeader(HttpHeaders headers, String name) {
+        try {
+            return headers.getFirstDate(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Filtro di ammissione TinyLFU: una chiave viene salvata in cache solo dopo essere stata
+ * richiesta almeno threshold volte nella finestra recente, così gli URL visti una volta sola
+ * non occupano Redis.
+ * Le frequenze stanno in un count-min sketch con contatori a 4 bit (16 per long, 4 righe);
+ * ogni window osservazioni i contatori vengono dimezzati, così le frequenze vecchie decadono.
+ * Senza lock: incrementi e dimezzamenti usano CAS sulla singola cella.
+ */
+public class TinyLfuAdmission {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+    private static final long RESET_MASK = 0x7777777777777777L; // azzera il bit che scende nel contatore vicino
+    private static final int MAX_COUNT = 15;
+
+    private final AtomicLongArray table;
+    private final int tableMask;
+    private final int threshold;
+    private final int window;
+    private final AtomicInteger additions = new AtomicInteger();
+
+    /**
+     * @param threshold le richieste necessarie per l'ammissione (al più 15)
+     * @param window le osservazioni dopo cui i contatori vengono dimezzati
+     */
+    public TinyLfuAdmission(int threshold, int window) {
+        this.threshold = Math.min(threshold, MAX_COUNT);
+        this.window = Math.max(window, 16);
+        // circa 4-8 contatori per chiave della finestra (256 KiB con window = 100000)
+        int size = Integer.highestOneBit(Math.max(this.window / 4, 64) - 1) << 1;
+        this.table = new AtomicLongArray(size);
+        this.tableMask = size - 1;
+    }
+
+    /**
+     * Registra una richiesta per la chiave.
+     *
+     * @param key la chiave della cache
+     * @return true se la chiave ha raggiunto la soglia di ammissione
+     */
+    public boolean recordAndAdmit(String key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            int index = (int) h & tableMask;
+            int offset = (int) ((h >>> 32) & 15) << 2;
+            frequency = Math.min(frequency, increment(index, offset));
+        }
+        if (additions.incrementAndGet() == window) {
+            reset();
+        }
+        return frequency >= threshold;
+    }
+
+    private int increment(int index, int offset) {
+        long mask = 0xFL << offset;
+        while (true) {
+            long current = table.get(index);
+            int count = (int) ((current & mask) >>> offset);
+            if (count == MAX_COUNT) {
+                return count;
+            }
+            if (table.compareAndSet(index, current, current + (1L << offset))) {
+                return count + 1;
+            }
+        }
+    }
+
+    /*
+     * Dimezza tutti i contatori; lo esegue solo il thread che raggiunge la finestra
+     */
+    private void reset() {
+        for (int i = 0; i < table.length(); i++) {
+            table.getAndUpdate(i, value -> (value >>> 1) & RESET_MASK);
+        }
+        additions.addAndGet(-window / 2);
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 17;
+        hash *= 0xed5ad4bb;
+        hash ^= hash >>> 11;
+        hash *= 0xac4c1b51;
+        hash ^= hash >>> 15;
+        return hash;
+    }
+}
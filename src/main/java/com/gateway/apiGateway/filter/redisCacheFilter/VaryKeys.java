@@ -0,0 +1,56 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Chiavi delle varianti di una risorsa che risponde con Vary.
+ * Sulla chiave base resta un marker con i nomi degli header; ogni variante è salvata
+ * sotto la chiave base estesa con il digest dei valori di quegli header nella richiesta.
+ */
+public final class VaryKeys {
+
+    private static final String VARIANT_SEPARATOR = "|vary:";
+
+    private VaryKeys() {
+    }
+
+    public static String variantKey(String baseKey, List<String> varyNames, HttpHeaders requestHeaders) {
+        StringBuilder values = new StringBuilder();
+        varyNames.stream()
+                .map(name -> name.trim().toLowerCase(Locale.ROOT))
+                .sorted()
+                .distinct()
+                .forEach(name -> values.append(name).append('=')
+                        .append(String.join(",", requestHeaders.getOrEmpty(name))).append('\n'));
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(values.toString().getBytes(StandardCharsets.UTF_8));
+            return baseKey + VARIANT_SEPARATOR + HexFormat.of().formatHex(hash, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Error computing SHA-256 hash", e);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.shadowCacheFilter;
+
+import java.security.MessageDigest;
+import java.util.zip.CRC32C;
+
+import org.reactivestreams.Publisher;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.NettyWriteResponseFilter;
+import org.springframework.core.Ordered;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.lang.NonNull;
+import org.springframework.web.server.ServerWebExchange;
+
+import com.gateway.apiGateway.Factory.RedisCacheFilterGatewayFilterFactory;
+import com.gateway.apiGateway.Factory.ShadowCacheGatewayFilterFactory.Config;
+import com.gateway.apiGateway.filter.redisCacheFilter.CacheKeyPolicy;
+import com.gateway.apiGateway.filter.redisCacheFilter.CacheKeys;
+import com.gateway.apiGateway.filter.redisCacheFilter.ResponseCachePolicy;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Modalità ombra della cache: calcola la chiave come RedisCacheFilter e registra l'esito nella
+ * simulazione della route, senza salvare né servire nulla.
+ * Il body della richiesta (metodi diversi da GET) viene letto al passaggio per l'hash, senza
+ * trattenerlo; quello della risposta viene solo contato e passato al CRC32C.
+ */
+public class ShadowCacheFilter implements GatewayFilter, Ordered {
+
+    // Cacheabilità della risposta con la policy di default di RedisCacheFilter
+    private static final RedisCacheFilterGatewayFilterFactory.Config DEFAULT_POLICY =
+            new RedisCacheFilterGatewayFilterFactory.Config();
+
+    private final Config config;
+    private final ShadowCacheSimulator simulator;
+
+    public ShadowCacheFilter(Config config, ShadowCacheSimulator simulator) {
+        this.config = config;
+        this.simulator = simulator;
+    }
+
+    @Override
+    public int getOrder() {
+        return NettyWriteResponseFilter.WRITE_RESPONSE_FILTER_ORDER - 1;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        if (!config.isCacheable(request.getMethod().name())) {
+            return chain.filter(exchange);
+        }
+        if (!CacheKeys.isHashable(request, config.getMaxHashableBodyBytes())) {
+            simulator.recordBypass();
+            return chain.filter(exchange);
+        }
+
+        long now = System.currentTimeMillis();
+        String keyBase = CacheKeyPolicy.LEGACY.keyBase(config.getCachePrefix(), request);
+        String[] cacheKey = { keyBase };
+        if (CacheKeys.isKeyedByBody(request)) {
+            MessageDigest digest = CacheKeys.sha256();
+            request = new ServerHttpRequestDecorator(request) {
+                @Override
+                @NonNull
+                public Flux<DataBuffer> getBody() {
+                    return super.getBody()
+                            .doOnNext(buffer -> {
+                                // Le viste dell'iteratore non spostano la posizione di lettura
+                                try (DataBuffer.ByteBufferIterator iterator = buffer.readableByteBuffers()) {
+                                    iterator.forEachRemaining(digest::update);
+                                }
+                            })
+                            .doOnComplete(() -> cacheKey[0] = CacheKeys.withBodyHash(keyBase, CacheKeys.hex(digest)));
+                }
+            };
+        }
+
+        ServerHttpResponseDecorator response = new ServerHttpResponseDecorator(exchange.getResponse()) {
+            @Override
+            @NonNull
+            public Mono<Void> writeWith(@NonNull Publisher<? extends DataBuffer> body) {
+                HttpStatusCode status = getStatusCode();
+                boolean cacheable = status != null && status.is2xxSuccessful()
+                        && ResponseCachePolicy.ttlSeconds(getHeaders(), DEFAULT_POLICY) != ResponseCachePolicy.NOT_CACHEABLE;
+                CRC32C crc = new CRC32C();
+                long[] size = new long[1];
+                Flux<DataBuffer> observed = Flux.<DataBuffer>from(body)
+                        .doOnNext(buffer -> {
+                            size[0] += buffer.readableByteCount();
+                            try (DataBuffer.ByteBufferIterator iterator = buffer.readableByteBuffers()) {
+                                iterator.forEachRemaining(crc::update);
+                            }
+                        })
+                        .doOnComplete(() -> simulator.record(cacheKey[0], now, size[0], (int) crc.getValue(), cacheable));
+                return super.writeWith(observed);
+            }
+        };
+        return chain.filter(exchange.mutate().request(request).response(response).build());
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.shadowCacheFilter;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Simulazioni ShadowCache attive, una per route; quando le route vengono ricaricate
+ * la simulazione della route viene sostituita da quella con la nuova configurazione.
+ */
+public class ShadowCacheRegistry {
+
+    private final Map<String, ShadowCacheSimulator> simulators = new ConcurrentHashMap<>();
+
+    public void register(String routeId, ShadowCacheSimulator simulator) {
+        simulators.put(routeId, simulator);
+    }
+
+    public Map<String, Object> report() {
+        Map<String, Object> report = new TreeMap<>();
+        simulators.forEach((routeId, simulator) -> report.put(routeId, simulator.report()));
+        return report;
+    }
+
+    public void reset() {
+        simulators.values().forEach(ShadowCacheSimulator::reset);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.shadowCacheFilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Cache simulata di una route: nessuna risposta viene salvata o servita, si conta solo cosa sarebbe
+ * successo con una cache di maxEntries chiavi (eviction W-TinyLFU di Caffeine).
+ * <p>
+ * Ogni chiave è ridotta a un fingerprint a 64 bit e, per ciascun TTL candidato, ricorda l'istante
+ * dell'ultimo caricamento e il CRC32C del body caricato: lo stesso flusso di richieste viene così
+ * simulato in parallelo per tutti i candidati (la capacità è condivisa). Siccome la risposta reale
+ * dell'upstream passa comunque, un hit il cui CRC differisce da quello appena ricevuto è un hit
+ * che avrebbe servito contenuto non aggiornato (stale).
+ */
+public class ShadowCacheSimulator {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /*
+     * Stato di una chiave, per candidato; aggiornato sotto il lock della chiave stessa
+     */
+    private static final class Entry {
+        private final long[] loadedAt;
+        private final int[] crc;
+
+        private Entry(int candidates, long now, int bodyCrc) {
+            loadedAt = new long[candidates];
+            crc = new int[candidates];
+            Arrays.fill(loadedAt, now);
+            Arrays.fill(crc, bodyCrc);
+        }
+    }
+
+    private final Cache<Long, Entry> cache;
+    private final long maxEntries;
+    private final long[] ttlCandidates; // secondi
+    private final double maxStaleRatio;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder uncacheable = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder[] hits;
+    private final LongAdder[] staleHits;
+    private final LongAdder[] bytesSaved;
+
+    /**
+     * @param maxEntries la capacità della cache simulata
+     * @param ttlCandidates i TTL da confrontare, in secondi
+     * @param maxStaleRatio la quota massima di risposte stale tollerata nella scelta del TTL
+     */
+    public ShadowCacheSimulator(long maxEntries, long[] ttlCandidates, double maxStaleRatio) {
+        this.maxEntries = maxEntries;
+        this.ttlCandidates = ttlCandidates.clone();
+        Arrays.sort(this.ttlCandidates);
+        this.maxStaleRatio = maxStaleRatio;
+        this.hits = adders(this.ttlCandidates.length);
+        this.staleHits = adders(this.ttlCandidates.length);
+        this.bytesSaved = adders(this.ttlCandidates.length);
+        // manutenzione sul thread chiamante: niente task sul ForkJoinPool per ogni scrittura
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .executor(Runnable::run)
+                .build();
+    }
+
+    /**
+     * Registra una richiesta completata.
+     *
+     * @param cacheKey la chiave che avrebbe usato RedisCacheFilter
+     * @param now l'istante della richiesta (epoch millis)
+     * @param size i byte del body della risposta
+     * @param bodyCrc il CRC32C del body della risposta
+     * @param cacheable true se la risposta sarebbe stata salvata (2xx e Cache-Control compatibile)
+     */
+    public void record(String cacheKey, long now, long size, int bodyCrc, boolean cacheable) {
+        requests.increment();
+        bytes.add(size);
+        if (!cacheable) {
+            uncacheable.increment();
+        }
+        Long fingerprint = fingerprint(cacheKey);
+        Entry entry = cache.getIfPresent(fingerprint);
+        if (entry == null) {
+            if (cacheable) {
+                cache.put(fingerprint, new Entry(ttlCandidates.length, now, bodyCrc));
+            }
+            return;
+        }
+        synchronized (entry) {
+            for (int i = 0; i < ttlCandidates.length; i++) {
+                if (now - entry.loadedAt[i] < ttlCandidates[i] * 1000) {
+                    hits[i].increment();
+                    bytesSaved[i].add(size);
+                    if (entry.crc[i] != bodyCrc) {
+                        staleHits[i].increment();
+                    }
+                } else if (cacheable) {
+                    entry.loadedAt[i] = now;
+                    entry.crc[i] = bodyCrc;
+                }
+            }
+        }
+    }
+
+    /*
+     * Richiesta che RedisCacheFilter non avrebbe messo in cache (body chunked o troppo grande)
+     */
+    public void recordBypass() {
+        bypassed.increment();
+    }
+
+    public void reset() {
+        cache.invalidateAll();
+        for (LongAdder adder : List.of(requests, uncacheable, bypassed, bytes)) {
+            adder.reset();
+        }
+        for (int i = 0; i < ttlCandidates.length; i++) {
+            hits[i].reset();
+            staleHits[i].reset();
+            bytesSaved[i].reset();
+        }
+    }
+
+    /**
+     * @return richieste osservate, esito per TTL candidato e TTL consigliato: quello con il rapporto
+     *         di hit più alto tra i candidati con quota di risposte stale entro maxStaleRatio
+     */
+    public Map<String, Object> report() {
+        long total = requests.sum();
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("maxEntries", maxEntries);
+        report.put("trackedKeys", cache.estimatedSize());
+        report.put("requests", total);
+        report.put("uncacheable", uncacheable.sum());
+        report.put("bypassed", bypassed.sum());
+        report.put("bytes", bytes.sum());
+        List<Map<String, Object>> candidates = new ArrayList<>();
+        Map<String, Object> best = null;
+        double bestHitRatio = -1;
+        for (int i = 0; i < ttlCandidates.length; i++) {
+            long hitCount = hits[i].sum();
+            double hitRatio = total > 0 ? (double) hitCount / total : 0;
+            double staleRatio = total > 0 ? (double) staleHits[i].sum() / total : 0;
+            Map<String, Object> candidate = new LinkedHashMap<>();
+            candidate.put("ttl", ttlCandidates[i]);
+            candidate.put("hits", hitCount);
+            candidate.put("hitRatio", hitRatio);
+            candidate.put("staleRatio", staleRatio);
+            candidate.put("bytesSaved", bytesSaved[i].sum());
+            candidates.add(candidate);
+            if (staleRatio <= maxStaleRatio && hitRatio > bestHitRatio) {
+                bestHitRatio = hitRatio;
+                best = candidate;
+            }
+        }
+        report.put("candidates", candidates);
+        report.put("bestTtl", best != null && total > 0 ? best.get("ttl") : null);
+        return report;
+    }
+
+    /*
+     * FNV-1a a 64 bit sui caratteri della chiave: con le capacità in gioco le collisioni sono trascurabili
+     */
+    private static Long fingerprint(String cacheKey) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < cacheKey.length(); i++) {
+            hash = (hash ^ cacheKey.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static LongAdder[] adders(int size) {
+        LongAdder[] adders = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.hotkeys;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import com.gateway.apiGateway.utils.IpAddress;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Tracker delle chiavi calde del gateway: chiavi della cache, path e IP dei client.
+ * Un solo task svuota i buffer di registrazione ogni drainInterval e a fine finestra
+ * conserva il top-K della finestra conclusa e ne apre una nuova.
+ */
+public class HotKeyRegistry implements InitializingBean, DisposableBean {
+
+    public static final String CACHE_KEYS = "cache";
+    public static final String PATHS = "path";
+    public static final String CLIENT_IPS = "ip";
+
+    private final Map<String, SpaceSavingTracker> trackers = new LinkedHashMap<>();
+    private final Map<String, Map<String, Object>> previous = new LinkedHashMap<>();
+    private final Duration window;
+    private final Duration drainInterval;
+    private final int reportSize;
+    private final ClientKey[] clientKeys;
+    private volatile Instant windowStart = Instant.now();
+    private Disposable drainer;
+
+    /**
+     * @param capacity i contatori di ciascun tracker
+     * @param bufferSize gli slot di ciascun ring buffer di registrazione
+     * @param reportSize le chiavi riportate per tracker
+     * @param window la durata di una finestra
+     * @param drainInterval ogni quanto i buffer vengono svuotati
+     */
+    public HotKeyRegistry(int capacity, int bufferSize, int reportSize, Duration window, Duration drainInterval) {
+        for (String name : new String[] { CACHE_KEYS, PATHS, CLIENT_IPS }) {
+            trackers.put(name, new SpaceSavingTracker(capacity, bufferSize));
+        }
+        this.clientKeys = new ClientKey[Integer.highestOneBit(Math.max(capacity, 16) - 1) << 2];
+        this.reportSize = reportSize;
+        this.window = window;
+        this.drainInterval = drainInterval;
+    }
+
+    public void recordCacheKey(String cacheKey) {
+        trackers.get(CACHE_KEYS).record(cacheKey);
+    }
+
+    public void recordPath(String path) {
+        trackers.get(PATHS).record(path);
+    }
+
+    /*
+     * IP del client risolto da ClientIpResolver. La chiave viene riusata da una tabella indicizzata
+     * per hash dell'indirizzo: si alloca solo quando l'IP non è quello già presente nello slot,
+     * quindi mai per i client frequenti che il tracker deve contare
+     */
+    public void recordClient(long high, long low) {
+        int slot = (int) (((high ^ low) * 0x9E3779B97F4A7C15L) >>> 32) & (clientKeys.length - 1);
+        ClientKey key = clientKeys[slot];
+        if (key == null || key.high() != high || key.low() != low) {
+            key = new ClientKey(high, low);
+            clientKeys[slot] = key; // race innocua: la chiave è immutabile
+        }
+        trackers.get(CLIENT_IPS).record(key);
+    }
+
+    /**
+     * @return per ogni tracker il top-K della finestra corrente e di quella precedente
+     */
+    public synchronized Map<String, Object> report() {
+        drainAll();
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("windowStart", windowStart.toString());
+        report.put("windowSeconds", window.toSeconds());
+        trackers.forEach((name, tracker) -> {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("current", tracker.snapshot(reportSize));
+            entry.put("previous", previous.get(name));
+            report.put(name, entry);
+        });
+        return report;
+    }
+
+    /**
+     * Chiude la finestra corrente in anticipo.
+     */
+    public synchronized void reset() {
+        drainAll();
+        roll();
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        drainer = Flux.interval(drainInterval, Schedulers.single())
+                .onBackpressureDrop()
+                .subscribe(tick -> tick());
+    }
+
+    @Override
+    public void destroy() {
+        if (drainer != null) {
+            drainer.dispose();
+        }
+    }
+
+    private synchronized void tick() {
+        drainAll();
+        if (Instant.now().isAfter(windowStart.plus(window))) {
+            roll();
+        }
+    }
+
+    private void drainAll() {
+        trackers.values().forEach(SpaceSavingTracker::drain);
+    }
+
+    private void roll() {
+        trackers.forEach((name, tracker) -> {
+            previous.put(name, tracker.snapshot(reportSize));
+            tracker.reset();
+        });
+        windowStart = Instant.now();
+    }
+
+    /*
+     * Indirizzo a 128 bit, formattato solo quando compare nel report
+     */
+    private record ClientKey(long high, long low) {
+        @Override
+        public String toString() {
+            return IpAddress.format(high, low);
+        }
+    }
+}
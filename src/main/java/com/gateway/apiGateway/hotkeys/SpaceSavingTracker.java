@@ -0,0 +1,270 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.hotkeys;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Top-K approssimato di un flusso di chiavi (algoritmo Space-Saving, Metwally et al.).
+ * <p>
+ * La registrazione è lock-free e non alloca: la chiave (un oggetto già esistente, es. la stringa del path)
+ * viene scritta in un ring buffer scelto in base al thread, con un solo incremento atomico.
+ * Un unico thread svuota periodicamente i buffer nel riepilogo Space-Saving, che usa memoria fissa
+ * (capacity contatori). Se il drain resta indietro il buffer viene sovrascritto: le chiavi perse
+ * sono contate in dropped e il top-K diventa un campione del traffico.
+ * <p>
+ * Per ogni chiave il riepilogo riporta count e error: il conteggio reale è compreso tra
+ * count - error e count.
+ */
+public class SpaceSavingTracker {
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final int slotMask;
+
+    // Stato del riepilogo, usato solo dal thread di drain (e dalle letture sincronizzate)
+    private final int capacity;
+    private final Object[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private final Map<Object, Integer> positions;
+    private int size;
+    private long total;
+    private long dropped;
+
+    /**
+     * @param capacity i contatori del riepilogo (memoria fissa)
+     * @param bufferSize gli slot di ciascun ring buffer
+     */
+    public SpaceSavingTracker(int capacity, int bufferSize) {
+        int stripeCount = ceilingPowerOfTwo(Runtime.getRuntime().availableProcessors() * 2);
+        int slots = ceilingPowerOfTwo(Math.max(bufferSize, 16));
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(slots);
+        }
+        this.stripeMask = stripeCount - 1;
+        this.slotMask = slots - 1;
+        this.capacity = capacity;
+        this.keys = new Object[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+        this.positions = new HashMap<>(capacity * 2);
+    }
+
+    /**
+     * Registra un'occorrenza della chiave; null viene ignorato.
+     *
+     * @param key la chiave, con equals/hashCode per valore
+     */
+    public void record(Object key) {
+        if (key == null) {
+            return;
+        }
+        Stripe stripe = stripes[(int) Thread.currentThread().getId() & stripeMask];
+        long index = stripe.nextIndex();
+        stripe.slots.lazySet((int) index & slotMask, key);
+    }
+
+    /**
+     * Sposta nel riepilogo le chiavi registrate dall'ultimo drain. Da chiamare da un solo thread.
+     */
+    public synchronized void drain() {
+        int slots = slotMask + 1;
+        for (Stripe stripe : stripes) {
+            long writes = stripe.writes;
+            long from = stripe.read;
+            if (writes - from > slots) {
+                dropped += writes - from - slots;
+                from = writes - slots;
+            }
+            for (long i = from; i < writes; i++) {
+                Object key = stripe.slots.getAndSet((int) i & slotMask, null);
+                if (key != null) {
+                    offer(key);
+                }
+            }
+            stripe.read = writes;
+        }
+    }
+
+    /**
+     * @param limit il numero massimo di chiavi riportate
+     * @return le chiavi più frequenti con conteggio, errore massimo e totali della finestra
+     */
+    public synchronized Map<String, Object> snapshot(int limit) {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> counts[i]).reversed());
+        List<Map<String, Object>> top = new ArrayList<>();
+        for (int i = 0; i < Math.min(limit, size); i++) {
+            int slot = order[i];
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("key", String.valueOf(keys[slot]));
+            entry.put("count", counts[slot]);
+            entry.put("error", errors[slot]);
+            entry.put("share", total > 0 ? (double) counts[slot] / total : 0.0);
+            top.add(entry);
+        }
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("total", total);
+        snapshot.put("dropped", dropped);
+        snapshot.put("tracked", size);
+        snapshot.put("top", top);
+        return snapshot;
+    }
+
+    /**
+     * Azzera il riepilogo per una nuova finestra.
+     */
+    public synchronized void reset() {
+        Arrays.fill(keys, 0, size, null);
+        Arrays.fill(counts, 0, size, 0);
+        Arrays.fill(errors, 0, size, 0);
+        positions.clear();
+        size = 0;
+        total = 0;
+        dropped = 0;
+    }
+
+    /*
+     * Space-Saving: una chiave nuova con i contatori pieni sostituisce quella con conteggio minimo
+     * e ne eredita il conteggio come errore. I contatori formano un min-heap indicizzato.
+     */
+    private void offer(Object key) {
+        total++;
+        Integer position = positions.get(key);
+        if (position != null) {
+            counts[position]++;
+            siftDown(position);
+            return;
+        }
+        if (size < capacity) {
+            keys[size] = key;
+            counts[size] = 1;
+            errors[size] = 0;
+            positions.put(key, size);
+            siftUp(size++);
+            return;
+        }
+        positions.remove(keys[0]);
+        long min = counts[0];
+        keys[0] = key;
+        errors[0] = min;
+        counts[0] = min + 1;
+        positions.put(key, 0);
+        siftDown(0);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (counts[parent] <= counts[i]) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && counts[left] < counts[smallest]) {
+                smallest = left;
+            }
+            if (right < size && counts[right] < counts[smallest]) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        Object key = keys[a];
+        keys[a] = keys[b];
+        keys[b] = key;
+        long count = counts[a];
+        counts[a] = counts[b];
+        counts[b] = count;
+        long error = errors[a];
+        errors[a] = errors[b];
+        errors[b] = error;
+        positions.put(keys[a], a);
+        positions.put(keys[b], b);
+    }
+
+    private static int ceilingPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    /*
+     * Il contatore di scrittura di ogni stripe occupa una cache line propria (padding per ereditarietà,
+     * i campi della superclasse precedono quelli della sottoclasse): senza, i thread che scrivono su
+     * stripe diverse si contendono la stessa linea
+     */
+    @SuppressWarnings("unused")
+    private static class StripePadLeft {
+        long p01, p02, p03, p04, p05, p06, p07;
+    }
+
+    private static class StripeCounter extends StripePadLeft {
+        private static final VarHandle WRITES;
+
+        static {
+            try {
+                WRITES = MethodHandles.lookup().findVarHandle(StripeCounter.class, "writes", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        volatile long writes;
+
+        long nextIndex() {
+            return (long) WRITES.getAndAdd(this, 1L);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static final class Stripe extends StripeCounter {
+        long p11, p12, p13, p14, p15, p16, p17;
+        private final AtomicReferenceArray<Object> slots;
+        private long read; // posizione del drain, solo thread di drain
+
+        private Stripe(int size) {
+            this.slots = new AtomicReferenceArray<>(size);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.redis;
+
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+
+/**
+ * Un nodo Redis della cache: template per le scritture, batcher per le letture e stato di salute.
+ */
+public class CacheShard {
+
+    private final String name;
+    private final ReactiveRedisTemplate<String, byte[]> template;
+    private final RedisCommandBatcher batcher;
+    private final LettuceConnectionFactory connectionFactory; // null se la connessione è condivisa con il resto del gateway
+    private volatile boolean healthy = true;
+
+    public CacheShard(String name, ReactiveRedisTemplate<String, byte[]> template, RedisCommandBatcher batcher,
+            LettuceConnectionFactory connectionFactory) {
+        this.name = name;
+        this.template = template;
+        this.batcher = batcher;
+        this.connectionFactory = connectionFactory;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ReactiveRedisTemplate<String, byte[]> getTemplate() {
+        return template;
+    }
+
+    public RedisCommandBatcher getBatcher() {
+        return batcher;
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    void setHealthy(boolean healthy) {
+        this.healthy = healthy;
+    }
+
+    void close() {
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+    }
+}
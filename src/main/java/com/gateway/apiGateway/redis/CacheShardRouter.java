@@ -0,0 +1,151 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.redis;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Distribuisce le chiavi della cache sui nodi Redis con un anello di consistent hashing
+ * (punti virtuali per nodo, hash in stile ketama): aggiungendo un nodo si spostano
+ * solo circa 1/N delle chiavi.
+ * Un nodo che non risponde al PING viene marcato non disponibile: le sue chiavi
+ * diventano miss e le scritture vengono scartate, senza reinstradarle su altri nodi.
+ */
+public class CacheShardRouter implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheShardRouter.class);
+
+    private final TreeMap<Long, CacheShard> ring = new TreeMap<>();
+    private final List<CacheShard> shards;
+    private final Duration healthCheckInterval;
+    private final Duration healthCheckTimeout;
+    private Disposable healthCheck;
+
+    public CacheShardRouter(List<CacheShard> shards, int virtualNodes, Duration healthCheckInterval,
+            Duration healthCheckTimeout, MeterRegistry meterRegistry) {
+        this.shards = List.copyOf(shards);
+        this.healthCheckInterval = healthCheckInterval;
+        this.healthCheckTimeout = healthCheckTimeout;
+        for (CacheShard shard : shards) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(shard.getName() + "#" + i), shard);
+            }
+            Gauge.builder("gateway.cache.shard.healthy", shard, s -> s.isHealthy() ? 1 : 0)
+                    .description("1 se il nodo Redis della cache risponde, 0 altrimenti")
+                    .tag("shard", shard.getName())
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * @param cacheKey la chiave dell'entry (senza suffisso del body: metadati e body stanno sullo stesso nodo)
+     * @return il nodo responsabile della chiave
+     */
+    public CacheShard shardFor(String cacheKey) {
+        if (shards.size() == 1) {
+            return shards.get(0);
+        }
+        Map.Entry<Long, CacheShard> entry = ring.ceilingEntry(hash(cacheKey));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * Raggruppa le chiavi per nodo, per le cancellazioni a blocchi.
+     *
+     * @param cacheKeys le chiavi delle entry
+     * @return le chiavi di ciascun nodo
+     */
+    public Map<CacheShard, List<String>> partition(Collection<String> cacheKeys) {
+        Map<CacheShard, List<String>> partitions = new LinkedHashMap<>();
+        for (String cacheKey : cacheKeys) {
+            partitions.computeIfAbsent(shardFor(cacheKey), shard -> new ArrayList<>()).add(cacheKey);
+        }
+        return partitions;
+    }
+
+    public List<CacheShard> getShards() {
+        return shards;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        healthCheck = Flux.interval(healthCheckInterval)
+                .onBackpressureDrop()
+                .concatMap(tick -> Flux.fromIterable(shards).flatMap(this::check))
+                .subscribe();
+    }
+
+    private Mono<Void> check(CacheShard shard) {
+        return shard.getTemplate().execute(connection -> connection.ping())
+                .next()
+                .timeout(healthCheckTimeout)
+                .map(pong -> true)
+                .onErrorReturn(false)
+                .defaultIfEmpty(false)
+                .doOnNext(healthy -> {
+                    if (healthy != shard.isHealthy()) {
+                        logger.warn("Nodo cache {} {}", shard.getName(), healthy ? "di nuovo disponibile" : "non disponibile");
+                    }
+                    shard.setHealthy(healthy);
+                })
+                .then();
+    }
+
+    @Override
+    public void destroy() {
+        if (healthCheck != null) {
+            healthCheck.dispose();
+        }
+        shards.forEach(CacheShard::close);
+    }
+
+    /*
+     * Primi 8 byte dell'MD5, come nei client memcached ketama
+     */
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xFF);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 non disponibile", e);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.redis;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Raccoglie i GET e gli EXISTS emessi nella stessa finestra temporale (o fino a maxBatchKeys chiavi)
+ * e li invia a Redis come un unico MGET e un'unica pipeline di EXISTS, restituendo a ciascun
+ * subscriber il proprio risultato.
+ * Condiviso da cache delle risposte e autenticazione: le chiavi di entrambi finiscono negli stessi batch.
+ */
+public class RedisCommandBatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisCommandBatcher.class);
+
+    private final ReactiveRedisTemplate<String, byte[]> redisTemplate;
+    private final long windowMicros;
+    private final int maxBatchKeys;
+    private final Scheduler scheduler = Schedulers.parallel();
+
+    private final DistributionSummary getBatchSize;
+    private final DistributionSummary existsBatchSize;
+    private final Timer batchWait;
+
+    private final Object lock = new Object();
+    private List<GetRequest> pendingGets = new ArrayList<>();
+    private List<ExistsRequest> pendingExists = new ArrayList<>();
+    private int pendingKeys;
+    private boolean flushScheduled;
+
+    public RedisCommandBatcher(ReactiveRedisTemplate<String, byte[]> redisTemplate, Duration window,
+            int maxBatchKeys, MeterRegistry meterRegistry) {
+        this(redisTemplate, window, maxBatchKeys, meterRegistry, "default");
+    }
+
+    /*
+     * node distingue nelle metriche i batcher dei diversi nodi Redis della cache
+     */
+    public RedisCommandBatcher(ReactiveRedisTemplate<String, byte[]> redisTemplate, Duration window,
+            int maxBatchKeys, MeterRegistry meterRegistry, String node) {
+        this.redisTemplate = redisTemplate;
+        this.windowMicros = TimeUnit.NANOSECONDS.toMicros(window.toNanos());
+        this.maxBatchKeys = maxBatchKeys;
+        this.getBatchSize = DistributionSummary.builder("gateway.redis.batch.size")
+                .description("Chiavi per batch inviato a Redis")
+                .tags("command", "mget", "node", node)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.existsBatchSize = DistributionSummary.builder("gateway.redis.batch.size")
+                .description("Chiavi per batch inviato a Redis")
+                .tags("command", "exists", "node", node)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.batchWait = Timer.builder("gateway.redis.batch.wait")
+                .description("Attesa di un comando prima dell'invio del suo batch")
+                .tag("node", node)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param key la chiave da leggere
+     * @return il valore, vuoto se la chiave non esiste
+     */
+    public Mono<byte[]> get(String key) {
+        return multiGet(List.of(key)).flatMap(values -> Mono.justOrEmpty(values.get(0)));
+    }
+
+    /**
+     * Legge più chiavi nello stesso batch.
+     *
+     * @param keys le chiavi da leggere
+     * @return i valori nello stesso ordine delle chiavi, null per quelle inesistenti
+     */
+    public Mono<List<byte[]>> multiGet(List<String> keys) {
+        return Mono.create(sink -> enqueue(new GetRequest(keys, sink, System.nanoTime()), keys.size()));
+    }
+
+    /**
+     * @param key la chiave da verificare
+     * @return true se la chiave esiste
+     */
+    public Mono<Boolean> exists(String key) {
+        return Mono.create(sink -> enqueue(new ExistsRequest(key, sink, System.nanoTime()), 1));
+    }
+
+    private void enqueue(Object request, int keys) {
+        boolean flushNow;
+        boolean schedule = false;
+        synchronized (lock) {
+            if (request instanceof GetRequest get) {
+                pendingGets.add(get);
+            } else {
+                pendingExists.add((ExistsRequest) request);
+            }
+            pendingKeys += keys;
+            flushNow = pendingKeys >= maxBatchKeys || windowMicros <= 0;
+            if (!flushNow && !flushScheduled) {
+                flushScheduled = true;
+                schedule = true;
+            }
+        }
+        if (flushNow) {
+            flush();
+        } else if (schedule) {
+            scheduler.schedule(this::flush, windowMicros, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    private void flush() {
+        List<GetRequest> gets;
+        List<ExistsRequest> exists;
+        synchronized (lock) {
+            gets = pendingGets;
+            exists = pendingExists;
+            pendingGets = new ArrayList<>();
+            pendingExists = new ArrayList<>();
+            pendingKeys = 0;
+            flushScheduled = false;
+        }
+        long now = System.nanoTime();
+        if (!gets.isEmpty()) {
+            flushGets(gets, now);
+        }
+        if (!exists.isEmpty()) {
+            flushExists(exists, now);
+        }
+    }
+
+    /*
+     * Un solo MGET con le chiavi deduplicate, poi ogni richiesta riceve i propri valori
+     */
+    private void flushGets(List<GetRequest> gets, long now) {
+        LinkedHashSet<String> unique = new LinkedHashSet<>();
+        for (GetRequest request : gets) {
+            unique.addAll(request.keys);
+            batchWait.record(now - request.enqueuedAt, TimeUnit.NANOSECONDS);
+        }
+        List<String> keys = new ArrayList<>(unique);
+        getBatchSize.record(keys.size());
+
+        redisTemplate.opsForValue().multiGet(keys).subscribe(values -> {
+            Map<String, byte[]> byKey = new HashMap<>();
+            for (int i = 0; i < keys.size(); i++) {
+                byKey.put(keys.get(i), values.get(i));
+            }
+            for (GetRequest request : gets) {
+                List<byte[]> result = new ArrayList<>(request.keys.size());
+                for (String key : request.keys) {
+                    result.add(byKey.get(key));
+                }
+                request.sink.success(result);
+            }
+        }, error -> {
+            logger.warn("MGET di {} chiavi fallito: {}", keys.size(), error.getMessage());
+            gets.forEach(request -> request.sink.error(error));
+        });
+    }
+
+    /*
+     * EXISTS multi-chiave restituisce solo il conteggio: i comandi vengono inviati in pipeline
+     * sulla stessa connessione e le risposte associate alle richieste
+     */
+    private void flushExists(List<ExistsRequest> exists, long now) {
+        LinkedHashSet<String> unique = new LinkedHashSet<>();
+        for (ExistsRequest request : exists) {
+            unique.add(request.key);
+            batchWait.record(now - request.enqueuedAt, TimeUnit.NANOSECONDS);
+        }
+        existsBatchSize.record(unique.size());
+
+        // flatMapSequential sottoscrive tutti i comandi subito: partono in pipeline, le risposte restano in ordine
+        List<String> keys = new ArrayList<>(unique);
+        redisTemplate.execute(connection -> Flux.fromIterable(keys)
+                .flatMapSequential(key -> connection.keyCommands()
+                        .exists(redisTemplate.getSerializationContext().getKeySerializationPair().write(key)),
+                        Math.max(keys.size(), 1)))
+                .collectList()
+                .subscribe(values -> {
+                    Map<String, Boolean> results = new HashMap<>();
+                    for (int i = 0; i < keys.size(); i++) {
+                        results.put(keys.get(i), Boolean.TRUE.equals(values.get(i)));
+                    }
+                    exists.forEach(request -> request.sink.success(results.get(request.key)));
+                }, error -> {
+                    logger.warn("Pipeline EXISTS di {} chiavi fallita: {}", keys.size(), error.getMessage());
+                    exists.forEach(request -> request.sink.error(error));
+                });
+    }
+
+    private record GetRequest(List<String> keys, MonoSink<List<byte[]>> sink, long enqueuedAt) {
+    }
+
+    private record ExistsRequest(String key, MonoSink<Boolean> sink, long enqueuedAt) {
+    }
+}
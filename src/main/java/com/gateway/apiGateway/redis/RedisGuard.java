@@ -0,0 +1,105 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.redis;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Scadenze per operazione e circuit breaker comune a tutti gli accessi del gateway a Redis.
+ * Letture e scritture che superano la propria scadenza falliscono con TimeoutException e
+ * contano come errori del breaker; a breaker aperto i chiamanti degradano (cache in pass-through,
+ * scritture scartate, autenticazione remota) senza interrogare Redis.
+ * Lo stato del breaker è esportato da resilience4j (resilience4j.circuitbreaker.state{name="redis"}).
+ */
+public class RedisGuard {
+
+    public enum Operation {
+        READ, WRITE, LOCK
+    }
+
+    private final CircuitBreaker circuitBreaker;
+    private final Duration readDeadline;
+    private final Duration writeDeadline;
+    private final Duration lockDeadline;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Counter> degraded = new ConcurrentHashMap<>();
+
+    public RedisGuard(CircuitBreaker circuitBreaker, Duration readDeadline, Duration writeDeadline,
+            Duration lockDeadline, MeterRegistry meterRegistry) {
+        this.circuitBreaker = circuitBreaker;
+        this.readDeadline = readDeadline;
+        this.writeDeadline = writeDeadline;
+        this.lockDeadline = lockDeadline;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * @return false se il breaker è aperto e Redis non va interrogato
+     */
+    public boolean isAvailable() {
+        CircuitBreaker.State state = circuitBreaker.getState();
+        return state != CircuitBreaker.State.OPEN && state != CircuitBreaker.State.FORCED_OPEN;
+    }
+
+    /**
+     * Applica la scadenza dell'operazione e il breaker; a breaker aperto fallisce subito
+     * con CallNotPermittedException.
+     *
+     * @param operation il tipo di operazione, che ne determina la scadenza
+     * @param call il comando Redis
+     * @return il comando protetto
+     */
+    public <T> Mono<T> guard(Operation operation, Mono<T> call) {
+        return call.timeout(deadline(operation))
+                .transformDeferred(CircuitBreakerOperator.of(circuitBreaker));
+    }
+
+    public <T> Flux<T> guard(Operation operation, Flux<T> call) {
+        return call.timeout(deadline(operation))
+                .transformDeferred(CircuitBreakerOperator.of(circuitBreaker));
+    }
+
+    /**
+     * Conta una richiesta servita in modalità degradata.
+     *
+     * @param component il componente che ha degradato (cache, auth)
+     */
+    public void recordDegraded(String component) {
+        degraded.computeIfAbsent(component, c -> Counter.builder("gateway.redis.degraded")
+                .description("Richieste servite senza Redis (breaker aperto o comando fallito)")
+                .tag("component", c)
+                .register(meterRegistry))
+                .increment();
+    }
+
+    private Duration deadline(Operation operation) {
+        return switch (operation) {
+            case READ -> readDeadline;
+            case WRITE -> writeDeadline;
+            case LOCK -> lockDeadline;
+        };
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.utils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Trie binario compresso (Patricia) di prefissi CIDR, IPv4 e IPv6 insieme (vedi {@link IpAddress}).
+ * <p>
+ * Ogni nodo contiene l'intero prefisso che rappresenta, quindi i tratti senza diramazioni non occupano
+ * nodi: al più due nodi per prefisso inserito. Dopo la costruzione il trie è immutabile e appiattito in
+ * un solo long[] con quattro long per nodo (prefisso alto e basso, figli, lunghezza e azione), così ogni
+ * livello costa al più un accesso a una cache line. La ricerca segue un solo cammino confrontando il
+ * prefisso di ogni nodo con due maschere, in O(lunghezza del prefisso) e senza allocare.
+ * Vince il prefisso più lungo che contiene l'indirizzo.
+ */
+public final class CidrTrie {
+
+    public enum Action {
+        ALLOW, DENY
+    }
+
+    private static final Action[] ACTIONS = Action.values();
+    private static final int NONE = 0xFF;
+
+    // Campi di un nodo: [prefisso alto, prefisso basso, figli (0 << 32 | 1), lunghezza | azione << 8]
+    private static final int STRIDE = 4;
+    private static final int NO_CHILD = -1;
+
+    private static final CidrTrie EMPTY = new CidrTrie(new long[0], 0);
+
+    private final long[] nodes;
+    private final int size;
+
+    private CidrTrie(long[] nodes, int size) {
+        this.nodes = nodes;
+        this.size = size;
+    }
+
+    public static CidrTrie empty() {
+        return EMPTY;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return l'azione del prefisso più lungo che contiene l'indirizzo, null se nessuno lo contiene
+     */
+    public Action lookup(long hi, long lo) {
+        long[] nodes = this.nodes;
+        if (nodes.length == 0) {
+            return null;
+        }
+        int found = NONE;
+        int node = 0;
+        while (node != NO_CHILD) {
+            int base = node * STRIDE;
+            int meta = (int) nodes[base + 3];
+            int length = meta & 0xFF;
+            if (IpAddress.maskHi(hi, length) != nodes[base] || IpAddress.maskLo(lo, length) != nodes[base + 1]) {
+                break;
+            }
+            if ((meta >>> 8) != NONE) {
+                found = meta >>> 8;
+            }
+            if (length == IpAddress.BITS) {
+                break;
+            }
+            long children = nodes[base + 2];
+            node = IpAddress.bit(hi, lo, length) == 0 ? (int) (children >> 32) : (int) children;
+        }
+        return found == NONE ? null : ACTIONS[found];
+    }
+
+    public boolean contains(long hi, long lo) {
+        return lookup(hi, lo) != null;
+    }
+
+    /**
+     * @return i prefissi distinti inseriti
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return i nodi del trie compresso
+     */
+    public int nodes() {
+        return nodes.length / STRIDE;
+    }
+
+    /**
+     * Costruzione per inserimenti successivi; a parità di prefisso DENY prevale su ALLOW.
+     */
+    public static final class Builder {
+
+        private Node root;
+        private int size;
+        private int nodes;
+
+        private Builder() {
+        }
+
+        /**
+         * @param hi i 64 bit alti dell'indirizzo
+         * @param lo i 64 bit bassi dell'indirizzo
+         * @param length la lunghezza del prefisso nello spazio a 128 bit (IPv4: 96 + lunghezza)
+         * @param action l'azione associata
+         * @return il builder
+         */
+        public Builder add(long hi, long lo, int length, Action action) {
+            if (length < 0 || length > IpAddress.BITS) {
+                throw new IllegalArgumentException("Lunghezza del prefisso non valida: " + length);
+            }
+            Node added = new Node(IpAddress.maskHi(hi, length), IpAddress.maskLo(lo, length), length, action);
+            if (root == null) {
+                root = added;
+                size++;
+                nodes++;
+                return this;
+            }
+            Node parent = null;
+            int side = 0;
+            Node node = root;
+            while (true) {
+                int common = Math.min(Math.min(length, node.length),
+                        IpAddress.commonPrefix(added.hi, added.lo, node.hi, node.lo));
+                if (common == node.length) {
+                    if (length == node.length) {
+                        if (node.action == null) {
+                            size++;
+                        }
+                        if (node.action != Action.DENY) {
+                            node.action = action;
+                        }
+                        return this;
+                    }
+                    int bit = IpAddress.bit(hi, lo, node.length);
+                    if (node.children[bit] == null) {
+                        node.children[bit] = added;
+                        size++;
+                        nodes++;
+                        return this;
+                    }
+                    parent = node;
+                    side = bit;
+                    node = node.children[bit];
+                    continue;
+                }
+                // Il nuovo prefisso si separa a metà del nodo: serve un nodo intermedio
+                Node split;
+                if (common == length) {
+                    split = added;
+                } else {
+                    split = new Node(IpAddress.maskHi(hi, common), IpAddress.maskLo(lo, common), common, null);
+                    split.children[IpAddress.bit(hi, lo, common)] = added;
+                    nodes++;
+                }
+                split.children[IpAddress.bit(node.hi, node.lo, common)] = node;
+                size++;
+                nodes++;
+                if (parent == null) {
+                    root = split;
+                } else {
+                    parent.children[side] = split;
+                }
+                return this;
+            }
+        }
+
+        /**
+         * @return il trie appiattito, con la radice in posizione 0
+         */
+        public CidrTrie build() {
+            if (root == null) {
+                return EMPTY;
+            }
+            long[] flat = new long[nodes * STRIDE];
+            // Visita in profondità: i figli vengono numerati quando il padre viene scritto
+            Deque<Node> pending = new ArrayDeque<>();
+            root.index = 0;
+            int next = 1;
+            pending.push(root);
+            while (!pending.isEmpty()) {
+                Node node = pending.pop();
+                int zero = NO_CHILD;
+                int one = NO_CHILD;
+                if (node.children[1] != null) {
+                    node.children[1].index = one = next++;
+                    pending.push(node.children[1]);
+                }
+                if (node.children[0] != null) {
+                    node.children[0].index = zero = next++;
+                    pending.push(node.children[0]);
+                }
+                int base = node.index * STRIDE;
+                flat[base] = node.hi;
+                flat[base + 1] = node.lo;
+                flat[base + 2] = ((long) zero << 32) | (one & 0xFFFFFFFFL);
+                flat[base + 3] = node.length | ((node.action == null ? NONE : node.action.ordinal()) << 8);
+            }
+            return new CidrTrie(flat, size);
+        }
+    }
+
+    private static final class Node {
+        private final long hi;
+        private final long lo;
+        private final int length;
+        private Action action;
+        private final Node[] children = new Node[2];
+        private int index;
+
+        private Node(long hi, long lo, int length, Action action) {
+            this.hi = hi;
+            this.lo = lo;
+            this.length = length;
+            this.action = action;
+        }
+    }
+}
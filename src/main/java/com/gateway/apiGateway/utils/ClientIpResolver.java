@@ -0,0 +1,128 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.utils;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.server.ServerWebExchange;
+
+/**
+ * IP reale del client. X-Forwarded-For viene considerato solo se la connessione arriva da un proxy
+ * fidato: l'header si legge da destra (l'ultimo hop aggiunto) e ci si ferma al primo indirizzo che
+ * non è un proxy fidato, perché tutto ciò che sta alla sua sinistra può essere inventato dal client.
+ * Un elemento non valido o oltre maxHops chiude la ricerca sull'ultimo indirizzo valido.
+ */
+public class ClientIpResolver {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClientIpResolver.class);
+
+    public static final String CLIENT_IP_ATTR = ClientIpResolver.class.getName() + ".clientIp";
+    private static final String X_FORWARDED_FOR = "X-Forwarded-For";
+    private static final String UNKNOWN = "unknown";
+
+    private static final ThreadLocal<long[]> SCRATCH = ThreadLocal.withInitial(() -> new long[2]);
+
+    private final CidrTrie trustedProxies;
+    private final int maxHops;
+
+    /**
+     * @param trustedProxies i proxy fidati, come lista di CIDR separati da virgola
+     * @param maxHops gli elementi di X-Forwarded-For considerati al più
+     */
+    public ClientIpResolver(String trustedProxies, int maxHops) {
+        this.trustedProxies = parseTrusted(trustedProxies);
+        this.maxHops = maxHops;
+    }
+
+    /**
+     * Risolve l'indirizzo senza allocare (a parte la copia dell'indirizzo remoto).
+     *
+     * @param request la richiesta
+     * @param address array di almeno due elementi, riceve l'indirizzo a 128 bit
+     * @return false se la richiesta non ha un indirizzo remoto
+     */
+    public boolean resolve(ServerHttpRequest request, long[] address) {
+        InetSocketAddress remote = request.getRemoteAddress();
+        if (remote == null || remote.getAddress() == null) {
+            return false;
+        }
+        IpAddress.fromInetAddress(remote.getAddress(), address);
+        if (!trustedProxies.contains(address[0], address[1])) {
+            return true;
+        }
+        List<String> values = request.getHeaders().get(X_FORWARDED_FOR);
+        if (values == null) {
+            return true;
+        }
+        int hops = 0;
+        for (int v = values.size() - 1; v >= 0; v--) {
+            String value = values.get(v);
+            int end = value.length();
+            while (true) {
+                int comma = value.lastIndexOf(',', end - 1);
+                if (++hops > maxHops || !IpAddress.parse(value, comma + 1, end, address)) {
+                    return true;
+                }
+                if (!trustedProxies.contains(address[0], address[1])) {
+                    return true;
+                }
+                if (comma < 0) {
+                    break;
+                }
+                end = comma;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param exchange lo scambio corrente
+     * @return l'IP del client in forma canonica, memorizzato negli attributi dello scambio
+     */
+    public String resolve(ServerWebExchange exchange) {
+        String cached = exchange.getAttribute(CLIENT_IP_ATTR);
+        if (cached != null) {
+            return cached;
+        }
+        long[] address = SCRATCH.get();
+        String ip = resolve(exchange.getRequest(), address) ? IpAddress.format(address[0], address[1]) : UNKNOWN;
+        exchange.getAttributes().put(CLIENT_IP_ATTR, ip);
+        return ip;
+    }
+
+    private static CidrTrie parseTrusted(String trustedProxies) {
+        CidrTrie.Builder builder = CidrTrie.builder();
+        long[] address = new long[2];
+        for (String cidr : trustedProxies.split(",")) {
+            String trimmed = cidr.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            int length = IpAddress.parseCidr(trimmed, address);
+            if (length < 0) {
+                logger.warn("Proxy fidato non valido ignorato: {}", trimmed);
+                continue;
+            }
+            builder.add(address[0], address[1], length, CidrTrie.Action.ALLOW);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.utils;
+
+import java.net.InetAddress;
+
+/**
+ * Indirizzi IP come intero a 128 bit in due long (hi, lo): gli IPv4 sono mappati in ::ffff:a.b.c.d,
+ * così un solo trie contiene entrambe le famiglie.
+ * Il parsing lavora su una porzione della stringa e scrive in un array del chiamante, senza allocare:
+ * serve per scorrere X-Forwarded-For e per le ricerche nel trie a ogni richiesta.
+ */
+public final class IpAddress {
+
+    public static final int BITS = 128;
+    public static final int IPV4_OFFSET = 96; // lunghezza del prefisso ::ffff:0:0/96
+
+    private static final long IPV4_MAPPED = 0xFFFF00000000L;
+
+    private IpAddress() {
+    }
+
+    public static boolean isIpv4(long hi, long lo) {
+        return hi == 0 && (lo >>> 32) == 0xFFFF;
+    }
+
+    /**
+     * Legge un indirizzo IPv4 o IPv6 da s[from, to), ignorando spazi, parentesi quadre, porta e zona IPv6.
+     *
+     * @param s il testo
+     * @param from l'inizio (incluso)
+     * @param to la fine (esclusa)
+     * @param out array di almeno due elementi, scritto solo se l'indirizzo è valido
+     * @return false se il testo non è un indirizzo
+     */
+    public static boolean parse(CharSequence s, int from, int to, long[] out) {
+        while (from < to && s.charAt(from) == ' ') {
+            from++;
+        }
+        while (to > from && s.charAt(to - 1) == ' ') {
+            to--;
+        }
+        if (from >= to) {
+            return false;
+        }
+        if (s.charAt(from) == '[') {
+            // [v6] oppure [v6]:porta
+            int close = indexOf(s, ']', from, to);
+            if (close < 0) {
+                return false;
+            }
+            return parseIpv6(s, from + 1, close, out);
+        }
+        int colon = indexOf(s, ':', from, to);
+        if (colon < 0) {
+            return parseIpv4(s, from, to, out);
+        }
+        if (indexOf(s, ':', colon + 1, to) < 0) {
+            // un solo ':' è un IPv4 con porta
+            return parseIpv4(s, from, colon, out);
+        }
+        return parseIpv6(s, from, to, out);
+    }
+
+    public static boolean parse(CharSequence s, long[] out) {
+        return parse(s, 0, s.length(), out);
+    }
+
+    /**
+     * Legge un prefisso CIDR (10.0.0.0/8, 2001:db8::/32) o un singolo indirizzo.
+     *
+     * @param cidr il testo
+     * @param out array di almeno due elementi, riceve l'indirizzo
+     * @return la lunghezza del prefisso nello spazio a 128 bit, -1 se il testo non è valido
+     */
+    public static int parseCidr(CharSequence cidr, long[] out) {
+        int slash = indexOf(cidr, '/', 0, cidr.length());
+        int end = slash < 0 ? cidr.length() : slash;
+        if (!parse(cidr, 0, end, out)) {
+            return -1;
+        }
+        boolean ipv4 = indexOf(cidr, ':', 0, end) < 0;
+        int max = ipv4 ? BITS - IPV4_OFFSET : BITS;
+        if (slash < 0) {
+            return BITS;
+        }
+        int length = 0;
+        for (int i = slash + 1; i < cidr.length(); i++) {
+            char c = cidr.charAt(i);
+            if (c < '0' || c > '9' || length > max) {
+                return -1;
+            }
+            length = length * 10 + (c - '0');
+        }
+        if (slash + 1 == cidr.length() || length > max) {
+            return -1;
+        }
+        return ipv4 ? IPV4_OFFSET + length : length;
+    }
+
+    /**
+     * @param address l'indirizzo remoto della connessione
+     * @param out array di almeno due elementi
+     */
+    public static void fromInetAddress(InetAddress address, long[] out) {
+        byte[] bytes = address.getAddress();
+        long hi = 0;
+        long lo = 0;
+        if (bytes.length == 4) {
+            lo = IPV4_MAPPED | toLong(bytes, 0, 4);
+        } else {
+            hi = toLong(bytes, 0, 8);
+            lo = toLong(bytes, 8, 16);
+        }
+        out[0] = hi;
+        out[1] = lo;
+    }
+
+    /**
+     * @return la forma canonica: dotted quad per gli IPv4, RFC 5952 per gli IPv6
+     */
+    public static String format(long hi, long lo) {
+        StringBuilder sb = new StringBuilder(39);
+        if (isIpv4(hi, lo)) {
+            sb.append((lo >>> 24) & 0xFF).append('.').append((lo >>> 16) & 0xFF).append('.')
+                    .append((lo >>> 8) & 0xFF).append('.').append(lo & 0xFF);
+            return sb.toString();
+        }
+        // Sequenza più lunga (almeno due) di gruppi a zero, sostituita da "::"
+        int bestStart = -1;
+        int bestLength = 1;
+        int runStart = -1;
+        for (int i = 0; i < 8; i++) {
+            if (group(hi, lo, i) == 0) {
+                if (runStart < 0) {
+                    runStart = i;
+                }
+                if (i - runStart + 1 > bestLength) {
+                    bestStart = runStart;
+                    bestLength = i - runStart + 1;
+                }
+            } else {
+                runStart = -1;
+            }
+        }
+        for (int i = 0; i < 8; i++) {
+            if (i == bestStart) {
+                sb.append("::");
+                i += bestLength - 1;
+                continue;
+            }
+            if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ':') {
+                sb.append(':');
+            }
+            sb.append(Integer.toHexString(group(hi, lo, i)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return il bit in posizione index, contando dal più significativo
+     */
+    public static int bit(long hi, long lo, int index) {
+        return index < 64 ? (int) (hi >>> (63 - index)) & 1 : (int) (lo >>> (127 - index)) & 1;
+    }
+
+    public static long maskHi(long hi, int length) {
+        return length >= 64 ? hi : length == 0 ? 0 : hi & (-1L << (64 - length));
+    }
+
+    public static long maskLo(long lo, int length) {
+        return length <= 64 ? 0 : lo & (-1L << (128 - length));
+    }
+
+    /**
+     * @return il numero di bit iniziali uguali tra i due indirizzi (0-128)
+     */
+    public static int commonPrefix(long hi1, long lo1, long hi2, long lo2) {
+        long diff = hi1 ^ hi2;
+        if (diff != 0) {
+            return Long.numberOfLeadingZeros(diff);
+        }
+        return 64 + Long.numberOfLeadingZeros(lo1 ^ lo2);
+    }
+
+    private static boolean parseIpv4(CharSequence s, int from, int to, long[] out) {
+        long value = ipv4Value(s, from, to);
+        if (value < 0) {
+            return false;
+        }
+        out[0] = 0;
+        out[1] = IPV4_MAPPED | value;
+        return true;
+    }
+
+    /*
+     * Restituisce i 32 bit dell'indirizzo, -1 se non valido
+     */
+    private static long ipv4Value(CharSequence s, int from, int to) {
+        long value = 0;
+        int octets = 0;
+        int octet = -1;
+        for (int i = from; i <= to; i++) {
+            char c = i < to ? s.charAt(i) : '.';
+            if (c == '.') {
+                if (octet < 0 || ++octets > 4) {
+                    return -1;
+                }
+                value = (value << 8) | octet;
+                octet = -1;
+            } else if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) {
+                    return -1;
+                }
+            } else {
+                return -1;
+            }
+        }
+        return octets == 4 ? value : -1;
+    }
+
+    /*
+     * I gruppi prima di "::" si accumulano in (headHi, headLo), quelli dopo in (tailHi, tailLo);
+     * alla fine la testa viene spostata a sinistra dei gruppi mancanti
+     */
+    private static boolean parseIpv6(CharSequence s, int from, int to, long[] out) {
+        int zone = indexOf(s, '%', from, to);
+        if (zone >= 0) {
+            to = zone;
+        }
+        long headHi = 0, headLo = 0, tailHi = 0, tailLo = 0;
+        int headGroups = 0;
+        int tailGroups = 0;
+        boolean compressed = false;
+        int i = from;
+        if (to - from >= 2 && s.charAt(from) == ':' && s.charAt(from + 1) == ':') {
+            compressed = true;
+            i += 2;
+        }
+        while (i < to) {
+            int end = i;
+            int group = 0;
+            while (end < to && s.charAt(end) != ':' && s.charAt(end) != '.') {
+                int digit = Character.digit(s.charAt(end), 16);
+                if (digit < 0 || end - i >= 4) {
+                    return false;
+                }
+                group = (group << 4) | digit;
+                end++;
+            }
+            if (end < to && s.charAt(end) == '.') {
+                // IPv4 finale (::ffff:1.2.3.4), vale due gruppi
+                long value = ipv4Value(s, i, to);
+                if (value < 0) {
+                    return false;
+                }
+                for (int shift = 16; shift >= 0; shift -= 16) {
+                    long g = (value >>> shift) & 0xFFFF;
+                    if (compressed) {
+                        tailHi = (tailHi << 16) | (tailLo >>> 48);
+                        tailLo = (tailLo << 16) | g;
+                        tailGroups++;
+                    } else {
+                        headHi = (headHi << 16) | (headLo >>> 48);
+                        headLo = (headLo << 16) | g;
+                        headGroups++;
+                    }
+                }
+                i = to;
+                break;
+            }
+            if (end == i) {
+                return false;
+            }
+            if (compressed) {
+                tailHi = (tailHi << 16) | (tailLo >>> 48);
+                tailLo = (tailLo << 16) | group;
+                tailGroups++;
+            } else {
+                headHi = (headHi << 16) | (headLo >>> 48);
+                headLo = (headLo << 16) | group;
+                headGroups++;
+            }
+            if (end == to) {
+                i = end;
+                break;
+            }
+            // end punta a ':'
+            if (end + 1 < to && s.charAt(end + 1) == ':') {
+                if (compressed) {
+                    return false;
+                }
+                compressed = true;
+                i = end + 2;
+            } else if (end + 1 == to) {
+                return false;
+            } else {
+                i = end + 1;
+            }
+        }
+        int groups = headGroups + tailGroups;
+        if (groups > 8 || (!compressed && groups != 8) || (compressed && groups == 8)) {
+            return false;
+        }
+        for (int shift = 8 - headGroups; shift > 0; shift--) {
+            headHi = (headHi << 16) | (headLo >>> 48);
+            headLo = headLo << 16;
+        }
+        out[0] = headHi | tailHi;
+        out[1] = headLo | tailLo;
+        return true;
+    }
+
+    private static int group(long hi, long lo, int index) {
+        return (int) ((index < 4 ? hi >>> (48 - 16 * index) : lo >>> (48 - 16 * (index - 4))) & 0xFFFF);
+    }
+
+    private static long toLong(byte[] bytes, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static int indexOf(CharSequence s, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
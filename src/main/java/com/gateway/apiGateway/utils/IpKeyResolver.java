@@ -25,18 +25,15 @@ import reactor.core.publisher.Mono;
 @Component
 public class IpKeyResolver implements KeyResolver {
 
-    @SuppressWarnings("null")
-    @Override
-    public Mono<String> resolve(ServerWebExchange exchange) {
-        // Estrai l'IP dall'header X-Forwarded-For
-        String ip = exchange.getRequest().getHeaders().getFirst("X-Forwarded-For");
+    private final ClientIpResolver clientIpResolver;
 
-        // Se non è presente, usa l'IP remoto del client
-        if (ip == null || ip.isEmpty()) {
-            ip = exchange.getRequest().getRemoteAddress().getAddress().getHostAddress();
-        }
+    public IpKeyResolver(ClientIpResolver clientIpResolver) {
+        this.clientIpResolver = clientIpResolver;
+    }
 
-        // Restituisce l'IP come chiave unica per il rate limiting
-        return Mono.just(ip);
+    @Override
+    public Mono<String> resolve(ServerWebExchange exchange) {
+        // IP del client risolto attraverso i proxy fidati: X-Forwarded-For da solo può essere falsificato
+        return Mono.just(clientIpResolver.resolve(exchange));
     }
 }
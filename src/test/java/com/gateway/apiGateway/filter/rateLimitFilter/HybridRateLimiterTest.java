@@ -0,0 +1,223 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.rateLimitFilter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import com.gateway.apiGateway.redis.RedisGuard;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * Overshoot del rate limiter sotto carico concorrente: più repliche in processo, ognuna con il suo
+ * RateLimitSyncService, riconciliate su uno stub che riproduce lo script Lua con l'orologio della JVM.
+ */
+class HybridRateLimiterTest {
+
+    private static final double RATE = 100;
+    private static final long BURST = 20;
+    private static final Duration LOAD = Duration.ofSeconds(2);
+    private static final Duration SYNC_INTERVAL = Duration.ofMillis(50);
+    private static final Duration SYNC_LATENCY = Duration.ofMillis(20);
+    private static final Duration FIRST_SYNC_LATENCY = Duration.ofMillis(500); // connessione a Redis appena aperta
+    private static final int THREADS_PER_REPLICA = 2;
+
+    /*
+     * Con una sola replica i consumi su Redis sono tutti suoi: la riconciliazione non deve addebitare
+     * nulla, anche quando lo script viene eseguito molto dopo la raccolta dei consumi (primo giro lento)
+     */
+    @Test
+    void singleReplicaWithSyncMatchesLocalGcra() throws InterruptedException {
+        SyncScriptStub redis = new SyncScriptStub(FIRST_SYNC_LATENCY, SYNC_LATENCY);
+        HybridRateLimiter synced = limiter("single", true);
+        HybridRateLimiter local = limiter("single", false);
+        RateLimitSyncService sync = syncService(redis, synced);
+        AtomicLong syncedAllowed = new AtomicLong();
+        AtomicLong localAllowed = new AtomicLong();
+        try {
+            load(THREADS_PER_REPLICA, () -> {
+                if (synced.tryAcquire("client").allowed()) {
+                    syncedAllowed.incrementAndGet();
+                }
+                if (local.tryAcquire("client").allowed()) {
+                    localAllowed.incrementAndGet();
+                }
+            });
+        } finally {
+            sync.destroy();
+        }
+        long tolerance = Math.max(3, localAllowed.get() / 100);
+        assertTrue(Math.abs(syncedAllowed.get() - localAllowed.get()) <= tolerance,
+                "sincronizzato " + syncedAllowed.get() + ", locale " + localAllowed.get());
+    }
+
+    /*
+     * Tre repliche saturate sulla stessa chiave ammettono circa il limite globale, non tre volte tanto
+     */
+    @Test
+    void replicasShareTheGlobalLimit() throws InterruptedException {
+        SyncScriptStub redis = new SyncScriptStub(SYNC_LATENCY, SYNC_LATENCY);
+        List<HybridRateLimiter> limiters = new ArrayList<>();
+        List<RateLimitSyncService> services = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            HybridRateLimiter limiter = limiter("shared", true);
+            limiters.add(limiter);
+            services.add(syncService(redis, limiter));
+        }
+        AtomicLong allowed = new AtomicLong();
+        long elapsed;
+        try {
+            elapsed = load(THREADS_PER_REPLICA * limiters.size(), new Runnable() {
+                private final AtomicLong next = new AtomicLong();
+
+                @Override
+                public void run() {
+                    HybridRateLimiter limiter = limiters.get((int) (next.getAndIncrement() % limiters.size()));
+                    if (limiter.tryAcquire("client").allowed()) {
+                        allowed.incrementAndGet();
+                    }
+                }
+            });
+        } finally {
+            services.forEach(RateLimitSyncService::destroy);
+        }
+        double expected = BURST + RATE * elapsed / 1e9;
+        assertTrue(allowed.get() <= expected * 1.25, "ammesse " + allowed.get() + ", limite " + expected);
+        assertTrue(allowed.get() >= expected * 0.85, "ammesse " + allowed.get() + ", limite " + expected);
+    }
+
+    /*
+     * Il debito globale può superare la capacità del bucket: i token rimasti restano a zero
+     */
+    @Test
+    void remainingIsNeverNegative() {
+        HybridRateLimiter limiter = limiter("debt", true);
+        assertTrue(limiter.tryAcquire("client").allowed());
+        HybridRateLimiter.Bucket bucket = limiter.drainDirty().get(0);
+        long debtMicros = TimeUnit.NANOSECONDS.toMicros(10 * limiter.getCapacityNanos());
+        limiter.reconcile(bucket, bucket.pending.sumThenReset(), debtMicros, 1000, System.nanoTime());
+        HybridRateLimiter.Decision decision = limiter.tryAcquire("client");
+        assertFalse(decision.allowed());
+        assertEquals(0, decision.remaining());
+    }
+
+    private static HybridRateLimiter limiter(String routeId, boolean globalSync) {
+        return new HybridRateLimiter(routeId, RATE, BURST, 1, 1000, globalSync, new SimpleMeterRegistry());
+    }
+
+    private static RateLimitSyncService syncService(SyncScriptStub redis, HybridRateLimiter limiter) {
+        ReactiveStringRedisTemplate redisTemplate = mock(ReactiveStringRedisTemplate.class);
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList())).thenAnswer(redis);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        RedisGuard redisGuard = new RedisGuard(CircuitBreakerRegistry.ofDefaults().circuitBreaker("redis"),
+                Duration.ofSeconds(1), Duration.ofSeconds(1), Duration.ofSeconds(1), meterRegistry);
+        RateLimitSyncService service = new RateLimitSyncService(redisTemplate, redisGuard, SYNC_INTERVAL, 256, meterRegistry);
+        service.register(limiter);
+        service.afterPropertiesSet();
+        return service;
+    }
+
+    /*
+     * Ogni thread ripete la richiesta ogni 200 µs per LOAD; restituisce la durata effettiva in ns
+     */
+    private static long load(int threads, Runnable request) throws InterruptedException {
+        long start = System.nanoTime();
+        long end = start + LOAD.toNanos();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    request.run();
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(200));
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /*
+     * Stesso calcolo di RateLimitSyncService.SYNC_SCRIPT: TAT e totale per chiave, consumi del giro
+     * addebitati da ora - durata del giro. Lo script viene eseguito dopo la latenza e la risposta
+     * torna subito; la prima chiamata di ogni replica attende firstLatency.
+     */
+    static final class SyncScriptStub implements Answer<Object> {
+
+        private final Duration firstLatency;
+        private final Duration latency;
+        private final Set<Object> connected = ConcurrentHashMap.newKeySet();
+        private final Map<String, long[]> buckets = new HashMap<>(); // [TAT in ns, totale consumato]
+
+        SyncScriptStub(Duration firstLatency, Duration latency) {
+            this.firstLatency = firstLatency;
+            this.latency = latency;
+        }
+
+        @Override
+        public Object answer(InvocationOnMock invocation) {
+            List<String> keys = invocation.getArgument(1);
+            List<String> args = invocation.getArgument(2);
+            Duration delay = connected.add(invocation.getMock()) ? firstLatency : latency;
+            return Mono.delay(delay).map(tick -> execute(keys, args)).flux();
+        }
+
+        private synchronized List<Long> execute(List<String> keys, List<String> args) {
+            long now = System.nanoTime();
+            double interval = Double.parseDouble(args.get(0)) * 1e6;
+            long since = now - (long) (Double.parseDouble(args.get(2)) * 1e6);
+            List<Long> out = new ArrayList<>();
+            for (int i = 0; i < keys.size(); i++) {
+                long consumed = Long.parseLong(args.get(3 + i));
+                long[] bucket = buckets.computeIfAbsent(keys.get(i), key -> new long[] { since, 0 });
+                bucket[0] = Math.max(bucket[0], since) + (long) (consumed * interval);
+                bucket[1] += consumed;
+                out.add((bucket[0] - now) / 1000);
+                out.add(bucket[1]);
+            }
+            return out;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ *   Copyright (c) 2025 Stefano Marano https://github.com/StefanoMarano80017
+ *   All rights reserved.
+
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package com.gateway.apiGateway.filter.redisCacheFilter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Confronto tra il vecchio formato JSON (body come stringa UTF-8) e il codec MessagePack, per
+ * codifica e decodifica di un'entry con body di 1 KB, 16 KB e 256 KB.
+ * <p>
+ * Non fa parte dei test eseguiti da mvn test (il nome non termina in Test); si lancia con
+ * {@code mvn test -Dtest=CacheEntryCodecBenchmark} e stampa il tempo medio per operazione
+ * dell'ultimo di tre giri.
+ */
+class CacheEntryCodecBenchmark {
+
+    private static final int[] BODY_SIZES = { 1024, 16 * 1024, 256 * 1024 };
+    private static final int ROUNDS = 3;
+    private static final long BYTES_PER_ROUND = 20_000_000;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final CacheEntryCodec codec = new CacheEntryCodec();
+
+    @Test
+    void encodeAndDecode() throws IOException {
+        for (int size : BODY_SIZES) {
+            byte[] body = jsonBody(size);
+            Map<String, List<String>> headers = new LinkedHashMap<>();
+            headers.put("Content-Type", List.of("application/json"));
+            headers.put("Date", List.of("Sat, 17 Oct 2026 10:00:00 GMT"));
+            headers.put("Server", List.of("t4"));
+            headers.put("X-Request-Id", List.of("3f2a6c1e-8d4b-4f7a-9c2e-5b1d0a7e6f3c"));
+            CachedResponse entry = new CachedResponse(ByteBuffer.wrap(body), headers, 200);
+            entry.setExpiresAt(System.currentTimeMillis() + 60_000);
+
+            // Come veniva salvata l'entry prima del codec binario
+            Map<String, Object> legacy = new LinkedHashMap<>();
+            legacy.put("body", new String(body, StandardCharsets.UTF_8));
+            legacy.put("headers", headers);
+            legacy.put("statusCode", "200 OK");
+            legacy.put("expiresAt", entry.getExpiresAt());
+
+            byte[] json = objectMapper.writeValueAsBytes(legacy);
+            byte[] metadata = codec.encodeMetadata(entry);
+            byte[] storedBody = codec.encodeBody(entry);
+
+            // Entrambi i formati restituiscono lo stesso body
+            assertArrayEquals(body, bytes(codec.decode(json).getBody()));
+            CachedResponse decoded = codec.attachBody(codec.decode(metadata), storedBody);
+            assertArrayEquals(body, bytes(decoded.getBody()));
+            assertEquals(200, decoded.getStatusCode());
+
+            int iterations = (int) Math.max(2000, BYTES_PER_ROUND / size);
+            long sink = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                long t0 = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    sink += objectMapper.writeValueAsBytes(legacy).length;
+                }
+                long t1 = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    sink += codec.encodeMetadata(entry).length + codec.encodeBody(entry).length;
+                }
+                long t2 = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    sink += codec.decode(json).getBodyLength();
+                }
+                long t3 = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    sink += codec.attachBody(codec.decode(metadata), storedBody).getBodyLength();
+                }
+                long t4 = System.nanoTime();
+                if (round == ROUNDS - 1) {
+                    System.out.printf("body %6d B | entry json %6d B, msgpack %6d B | encode json %8.2f us, msgpack %8.2f us"
+                            + " | decode json %8.2f us, msgpack %8.2f us%n",
+                            size, json.length, metadata.length + storedBody.length,
+                            micros(t1 - t0, iterations), micros(t2 - t1, iterations),
+                            micros(t3 - t2, iterations), micros(t4 - t3, iterations));
+                }
+            }
+            if (sink == 0) {
+                System.out.println(); // il risultato va usato, altrimenti il JIT può eliminare i cicli
+            }
+        }
+    }
+
+    /*
+     * Body JSON realistico (lista di giochi) di circa size byte
+     */
+    private static byte[] jsonBody(int size) {
+        Random random = new Random(1);
+        StringBuilder json = new StringBuilder("[");
+        while (json.length() < size) {
+            json.append("{\"id\":").append(random.nextInt(100_000))
+                    .append(",\"name\":\"game").append(random.nextInt())
+                    .append("\",\"score\":").append(random.nextDouble()).append("},");
+        }
+        json.setCharAt(json.length() - 1, ']');
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static double micros(long nanos, int iterations) {
+        return nanos / 1e3 / iterations;
+    }
+}